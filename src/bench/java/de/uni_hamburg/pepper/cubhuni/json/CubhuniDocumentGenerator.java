@@ -0,0 +1,207 @@
+/* Copyright 2017 Alicia Gonzalez Martinez
+ * COBHUNI Project, Universität Hamburg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ ********************************************************************/
+
+package de.uni_hamburg.pepper.cubhuni.json;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+
+import org.json.simple.JSONObject;
+
+/**
+ * Generates synthetic COBHUNI JSON documents for the benchmarks. The number of
+ * tokens, the average token length and the annotation density of the groups
+ * (persons, motives, sections, pages...) can be varied. The generator is
+ * seeded, so the same parameters always give the same document.
+ *
+ * @author Alicia Gonzalez
+ */
+public class CubhuniDocumentGenerator {
+
+	/* letters the synthetic Arabic tokens are made of */
+	private static final String LETTERS = "ابتثجحخدذرزسشصضطظعغفقكلمنهوي";
+
+	/* maximal number of tokens covered by an annotation span */
+	private static final int MAX_SPAN_LENGTH = 20;
+
+	private final CubhuniMappingPlan plan;
+
+	private final Map<String, Object> meta = new LinkedHashMap<String, Object>();
+	private final String text;
+	private final String[] tokStr;
+	private final int[] tokIni;
+	private final int[] tokEnd;
+
+	/* values of the further token annotations, one column per key of the plan */
+	private final String[][] tokAnn;
+
+	/* group, value, first token and last token of each annotation span */
+	private final List<Object[]> spans = new ArrayList<Object[]>();
+
+	/**
+	 * @param tokens
+	 *            number of tokens of the document
+	 * @param tokenLength
+	 *            average number of letters of a token
+	 * @param density
+	 *            annotation spans per 100 tokens in each annotation group
+	 */
+	public CubhuniDocumentGenerator(CubhuniMappingPlan plan, int tokens, int tokenLength, double density) {
+		this.plan = plan;
+		Random random = new Random(tokens * 31L + tokenLength);
+
+		for (CubhuniMappingPlan.MetaField field : plan.getMetaFields()) {
+			meta.put(field.key, (field.type == CubhuniMappingPlan.ValueType.LONG) ? (Object) (long) random.nextInt(1000)
+					: field.key + " " + random.nextInt(1000));
+		}
+
+		StringBuilder str = new StringBuilder(tokens * (tokenLength + 1));
+		tokStr = new String[tokens];
+		tokIni = new int[tokens];
+		tokEnd = new int[tokens];
+		tokAnn = new String[plan.getTokenAnnotations().size()][tokens];
+		for (int i = 0; i < tokens; i++) {
+			int length = 1 + random.nextInt(2 * tokenLength - 1);
+			StringBuilder tok = new StringBuilder(length);
+			for (int j = 0; j < length; j++) {
+				tok.append(LETTERS.charAt(random.nextInt(LETTERS.length())));
+			}
+			tokStr[i] = tok.toString();
+			tokIni[i] = str.length();
+			str.append(tok);
+			tokEnd[i] = str.length();
+			str.append(' ');
+
+			/* few distinct values, each a new instance as if it was parsed */
+			for (int f = 0; f < tokAnn.length; f++) {
+				tokAnn[f][i] = plan.getTokenAnnotations().get(f) + "_" + random.nextInt(f == 0 ? 30 : 2000);
+			}
+		}
+		text = str.toString();
+
+		int perGroup = (int) (tokens * density / 100);
+		for (String group : plan.getGroups().keySet()) {
+			for (int i = 0; i < perGroup && tokens > 0; i++) {
+				int ini = random.nextInt(tokens);
+				int end = Math.min(tokens - 1, ini + random.nextInt(MAX_SPAN_LENGTH));
+				spans.add(new Object[] { group, group + "_" + random.nextInt(100), ini, end });
+			}
+		}
+	}
+
+	/**
+	 * Compiles the mapping plan of the <code>config.properties</code> in the
+	 * working directory, with the pos, lemma and root token annotations
+	 * enabled.
+	 */
+	public static CubhuniMappingPlan loadPlan() throws IOException {
+		return CubhuniMappingPlan.compile(loadConfig());
+	}
+
+	/**
+	 * Reads the <code>config.properties</code> in the working directory, with
+	 * the pos, lemma and root token annotations enabled.
+	 */
+	public static Properties loadConfig() throws IOException {
+		Properties props = new Properties();
+		InputStream in = new FileInputStream("config.properties");
+		try {
+			props.load(in);
+		} finally {
+			in.close();
+		}
+		props.setProperty("tok_annotations", "tok_pos,tok_lemma,tok_root");
+		return props;
+	}
+
+	/**
+	 * Stages the document in the builder as a reader would.
+	 */
+	public CubhuniDocumentBuilder stage(CubhuniDocumentBuilder builder) {
+		builder.meta(meta);
+		builder.text(text);
+		builder.expectTokens(tokStr.length);
+		String[] annotations = new String[tokAnn.length];
+		for (int i = 0; i < tokStr.length; i++) {
+			for (int f = 0; f < tokAnn.length; f++) {
+				annotations[f] = tokAnn[f][i];
+			}
+			builder.token(tokStr[i], tokIni[i], tokEnd[i], annotations);
+		}
+		for (Object[] span : spans) {
+			builder.span((String) span[0], (String) span[1], (Integer) span[2], (Integer) span[3]);
+		}
+		return builder;
+	}
+
+	/**
+	 * Writes the document as COBHUNI JSON to a temporary file, deleted on exit.
+	 */
+	public File write() throws IOException {
+		File file = File.createTempFile("cubhuni", ".json");
+		file.deleteOnExit();
+		return write(file);
+	}
+
+	/**
+	 * Writes the document as COBHUNI JSON to the given file.
+	 */
+	public File write(File file) throws IOException {
+		Writer out = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8);
+		try {
+			out.write("{\"" + plan.metaKey + "\": " + JSONObject.toJSONString(meta));
+			out.write(", \"" + plan.textKey + "\": \"" + JSONObject.escape(text) + "\"");
+			out.write(", \"" + plan.tokensKey + "\": [");
+			for (int i = 0; i < tokStr.length; i++) {
+				out.write((i > 0 ? ", " : "") + "{\"" + plan.tokKey + "\": \"" + JSONObject.escape(tokStr[i]) + "\", \""
+						+ plan.tokIniKey + "\": " + tokIni[i] + ", \"" + plan.tokEndKey + "\": " + tokEnd[i]);
+				for (int f = 0; f < tokAnn.length; f++) {
+					out.write(", \"" + plan.getTokenAnnotations().get(f) + "\": \"" + tokAnn[f][i] + "\"");
+				}
+				out.write("}");
+			}
+			out.write("]");
+			for (String group : plan.getGroups().keySet()) {
+				out.write(", \"" + group + "\": [");
+				boolean first = true;
+				for (Object[] span : spans) {
+					if (span[0].equals(group)) {
+						out.write((first ? "" : ", ") + "{\"" + plan.annValKey + "\": \"" + span[1] + "\", \""
+								+ plan.annIniKey + "\": " + span[2] + ", \"" + plan.annEndKey + "\": " + span[3] + "}");
+						first = false;
+					}
+				}
+				out.write("]");
+			}
+			out.write("}");
+		} finally {
+			out.close();
+		}
+		return file;
+	}
+}
@@ -0,0 +1,391 @@
+/* Copyright 2017 Alicia Gonzalez Martinez
+ * COBHUNI Project, Universität Hamburg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ ********************************************************************/
+
+
+package de.uni_hamburg.pepper.cubhuni.json;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+
+import org.corpus_tools.pepper.common.DOCUMENT_STATUS;
+import org.corpus_tools.pepper.testFramework.PepperImporterTest;
+import org.corpus_tools.salt.common.SDocument;
+import org.corpus_tools.salt.graph.Identifier;
+import org.eclipse.emf.common.util.URI;
+
+/**
+ * Runs the whole import end-to-end, in process, over generated corpora of
+ * growing size, as a <code>*.pepper</code> workflow would: the corpus-structure
+ * is imported and all documents are mapped by the concurrent mappers of the
+ * {@link CubhuniJSONImporter}, through the Pepper test framework the
+ * {@link CubhuniJSONImporterTest} uses. As there is no exporter, the graph of
+ * each document is released once it is mapped, as Pepper does once a
+ * document is exported. The {@link CubhuniRelANNISConverter} can be measured
+ * on the same corpora.
+ * <br/>
+ * The corpora are laid out like the COBHUNI corpora: sub-corpora of up to
+ * 1000 documents with a metadata file each, documents of original texts and
+ * commentaries whose number of tokens follows a log-normal distribution. Each
+ * corpus is generated once, into the work directory, and reused by later
+ * runs.
+ * <br/>
+ * Each run records the wall-clock time, the documents per second, the peak
+ * heap (the sum of the peaks of the heap memory pools) and the GC time. The
+ * documents per second and the peak heap are compared with a stored
+ * baseline, and the benchmark fails if one of them is worse than the
+ * baseline by more than the tolerance. A size and route without a baseline
+ * is only reported, as on a first run; <code>-write-baseline</code> stores
+ * the results as the baseline instead of comparing them.
+ *
+ * <pre>
+ * -documents 1000,10000,100000  sizes of the corpora
+ * -tokens 300                   median number of tokens of a document
+ * -route pepper,relannis        what is measured, the importer or the direct converter
+ * -runs 1                       runs of each size, the best one is compared with the baseline
+ * -work target/macro            directory the corpora are generated in
+ * -baseline file                stored baseline, src/bench/resources/macro-baseline.properties by default
+ * -tolerance 0.2                allowed regression, as a fraction of the baseline
+ * -write-baseline               stores the results as the new baseline instead of comparing them
+ * -P key=value                  customization property of the importer, e.g. -P streaming=true
+ * </pre>
+ *
+ * @author Alicia Gonzalez
+ */
+public class CubhuniMacroBenchmark extends PepperImporterTest {
+
+	/* documents of a sub-corpus */
+	private static final int DOCUMENTS_PER_CORPUS = 1000;
+
+	/* spread of the log-normal distribution of the number of tokens */
+	private static final double TOKENS_SIGMA = 1.0;
+
+	private static final int MIN_TOKENS = 20;
+	private static final int MAX_TOKENS = 200000;
+
+	private static final String ROUTE_PEPPER = "pepper";
+	private static final String ROUTE_RELANNIS = "relannis";
+
+	/** Result of one run. */
+	static final class Result {
+		final long documents;
+		final long nanos;
+		final long peakHeapBytes;
+		final long gcMillis;
+
+		Result(long documents, long nanos, long peakHeapBytes, long gcMillis) {
+			this.documents = documents;
+			this.nanos = nanos;
+			this.peakHeapBytes = peakHeapBytes;
+			this.gcMillis = gcMillis;
+		}
+
+		double getDocsPerSecond() {
+			return documents * 1e9 / nanos;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%d documents in %.1f s, %.1f docs/s, peak heap %d MB, GC %d ms", documents,
+					nanos / 1e9, getDocsPerSecond(), peakHeapBytes >> 20, gcMillis);
+		}
+	}
+
+	private final Properties config;
+	private final Properties customization;
+
+	CubhuniMacroBenchmark(Properties config, Properties customization) {
+		this.config = config;
+		this.customization = customization;
+	}
+
+	/**
+	 * Generates a corpus of the given number of documents below the directory,
+	 * unless it was generated before with the same parameters.
+	 */
+	static File generate(File work, CubhuniMappingPlan plan, int documents, int medianTokens) throws IOException {
+		String name = "corpus" + documents + "x" + medianTokens;
+		File root = new File(work, name);
+		File done = new File(work, name + ".done");
+		if (done.isFile()) {
+			return root;
+		}
+		Random random = new Random(documents);
+		for (int d = 0; d < documents; d++) {
+			File dir = new File(root, String.format("part%04d", d / DOCUMENTS_PER_CORPUS));
+			if (d % DOCUMENTS_PER_CORPUS == 0) {
+				if (!dir.isDirectory() && !dir.mkdirs()) {
+					throw new IOException("Cannot create the directory " + dir + ".");
+				}
+				write(new File(dir, dir.getName() + plan.metaFileSuffix),
+						"{\"name\": \"" + dir.getName() + "\", \"documents\": " + DOCUMENTS_PER_CORPUS + "}");
+			}
+			int tokens = (int) Math.round(medianTokens * Math.exp(TOKENS_SIGMA * random.nextGaussian()));
+			tokens = Math.max(MIN_TOKENS, Math.min(MAX_TOKENS, tokens));
+			String source = (d % 2 == 0) ? plan.original : plan.commentary;
+			new CubhuniDocumentGenerator(plan, tokens, 5, 5).write(new File(dir, String.format("%06d-%s.json", d, source)));
+		}
+		write(done, "");
+		return root;
+	}
+
+	private static void write(File file, String content) throws IOException {
+		Writer out = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8);
+		try {
+			out.write(content);
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Imports the corpus with the {@link CubhuniJSONImporter}, as the Pepper
+	 * test framework runs a workflow.
+	 */
+	Result runPepper(File corpus, File configFile) {
+		final long[] documents = new long[1];
+		CubhuniJSONImporter importer = new CubhuniJSONImporter() {
+			@Override
+			public void done(Identifier id, DOCUMENT_STATUS status) {
+				super.done(id, status);
+				/* stands in for the exporter, which releases each document once it is exported */
+				if (id.getIdentifiableElement() instanceof SDocument) {
+					((SDocument) id.getIdentifiableElement()).setDocumentGraph(null);
+					synchronized (documents) {
+						documents[0]++;
+					}
+				}
+			}
+		};
+		setFixture(importer);
+		importer.getCorpusDesc().setCorpusPath(URI.createFileURI(corpus.getAbsolutePath()));
+		importer.getProperties().setPropertyValue(CubhuniJSONImporterProperties.PROP_MAPPING_CONFIG,
+				configFile.getAbsolutePath());
+		for (String key : customization.stringPropertyNames()) {
+			importer.getProperties().setPropertyValue(key, customization.getProperty(key));
+		}
+
+		Measurement measurement = new Measurement();
+		start();
+		return measurement.stop(documents[0]);
+	}
+
+	/**
+	 * Converts the corpus with the {@link CubhuniRelANNISConverter}.
+	 */
+	Result runRelANNIS(File corpus, File output) throws IOException {
+		CubhuniRelANNISConverter converter = new CubhuniRelANNISConverter(CubhuniMappingPlan.compile(config));
+		Measurement measurement = new Measurement();
+		converter.convert(corpus, output);
+		return measurement.stop(converter.getConverted());
+	}
+
+	/* wall-clock time, peak heap and GC time from its creation on */
+	private static final class Measurement {
+		private final long start;
+		private final long gcStart;
+
+		Measurement() {
+			System.gc();
+			for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+				pool.resetPeakUsage();
+			}
+			gcStart = gcMillis();
+			start = System.nanoTime();
+		}
+
+		Result stop(long documents) {
+			long nanos = System.nanoTime() - start;
+			long peak = 0;
+			for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+				if (pool.getType() == MemoryType.HEAP) {
+					peak += pool.getPeakUsage().getUsed();
+				}
+			}
+			return new Result(documents, nanos, peak, gcMillis() - gcStart);
+		}
+
+		private static long gcMillis() {
+			long millis = 0;
+			for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+				millis += Math.max(0, gc.getCollectionTime());
+			}
+			return millis;
+		}
+	}
+
+	/**
+	 * Compares the result with the baseline.
+	 *
+	 * @return the regressions found, empty if there are none or if there is
+	 *         no baseline for the key
+	 */
+	static List<String> compare(String key, Result result, Properties baseline, double tolerance) {
+		List<String> regressions = new ArrayList<String>();
+		String docsPerSecond = baseline.getProperty(key + ".docsPerSecond");
+		String peakHeap = baseline.getProperty(key + ".peakHeapBytes");
+		if (docsPerSecond == null || peakHeap == null) {
+			System.out.println(key + ": no baseline, not compared; run with -write-baseline to store one.");
+			return regressions;
+		}
+		if (result.getDocsPerSecond() < Double.parseDouble(docsPerSecond) * (1 - tolerance)) {
+			regressions.add(String.format("%s: %.1f docs/s, baseline %s docs/s", key, result.getDocsPerSecond(),
+					docsPerSecond));
+		}
+		if (result.peakHeapBytes > Long.parseLong(peakHeap) * (1 + tolerance)) {
+			regressions.add(String.format("%s: peak heap %d bytes, baseline %s bytes", key, result.peakHeapBytes,
+					peakHeap));
+		}
+		return regressions;
+	}
+
+	static void record(String key, Result result, Properties baseline) {
+		baseline.setProperty(key + ".docsPerSecond", String.format("%.1f", result.getDocsPerSecond()));
+		baseline.setProperty(key + ".peakHeapBytes", Long.toString(result.peakHeapBytes));
+		baseline.setProperty(key + ".gcMillis", Long.toString(result.gcMillis));
+	}
+
+	public static void main(String[] args) throws IOException {
+		String documents = "1000,10000,100000";
+		int medianTokens = 300;
+		String routes = ROUTE_PEPPER;
+		int runs = 1;
+		File work = new File("target/macro");
+		File baselineFile = new File("src/bench/resources/macro-baseline.properties");
+		double tolerance = 0.2;
+		boolean writeBaseline = false;
+		Properties customization = new Properties();
+		for (int i = 0; i < args.length; i++) {
+			switch (args[i]) {
+			case "-documents":
+				documents = args[++i];
+				break;
+			case "-tokens":
+				medianTokens = Integer.parseInt(args[++i]);
+				break;
+			case "-route":
+				routes = args[++i];
+				break;
+			case "-runs":
+				runs = Integer.parseInt(args[++i]);
+				break;
+			case "-work":
+				work = new File(args[++i]);
+				break;
+			case "-baseline":
+				baselineFile = new File(args[++i]);
+				break;
+			case "-tolerance":
+				tolerance = Double.parseDouble(args[++i]);
+				break;
+			case "-write-baseline":
+				writeBaseline = true;
+				break;
+			case "-P":
+				String[] property = args[++i].split("=", 2);
+				customization.setProperty(property[0], (property.length > 1) ? property[1] : "");
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown option " + args[i] + ", see the documentation of "
+						+ CubhuniMacroBenchmark.class.getSimpleName() + ".");
+			}
+		}
+
+		Properties config = CubhuniDocumentGenerator.loadConfig();
+		CubhuniMappingPlan plan = CubhuniMappingPlan.compile(config);
+		if (!work.isDirectory() && !work.mkdirs()) {
+			throw new IOException("Cannot create the directory " + work + ".");
+		}
+		File configFile = new File(work, "config.properties");
+		OutputStream out = new FileOutputStream(configFile);
+		try {
+			config.store(out, "mapping configuration of the generated corpora");
+		} finally {
+			out.close();
+		}
+
+		Properties baseline = new Properties();
+		if (baselineFile.isFile()) {
+			InputStream in = new FileInputStream(baselineFile);
+			try {
+				baseline.load(in);
+			} finally {
+				in.close();
+			}
+		}
+
+		List<String> regressions = new ArrayList<String>();
+		for (String size : documents.split(",")) {
+			int count = Integer.parseInt(size.trim());
+			System.out.println("Generating " + count + " documents...");
+			File corpus = generate(work, plan, count, medianTokens);
+			for (String route : routes.split(",")) {
+				route = route.trim();
+				String key = route + "." + count;
+				Result best = null;
+				for (int run = 0; run < runs; run++) {
+					Result result;
+					if (ROUTE_RELANNIS.equals(route)) {
+						result = new CubhuniMacroBenchmark(config, customization).runRelANNIS(corpus,
+								new File(work, "relannis" + count));
+					} else if (ROUTE_PEPPER.equals(route)) {
+						result = new CubhuniMacroBenchmark(config, customization).runPepper(corpus, configFile);
+					} else {
+						throw new IllegalArgumentException("Unknown route " + route + ".");
+					}
+					System.out.println(key + " run " + (run + 1) + ": " + result);
+					if (best == null || result.nanos < best.nanos) {
+						best = result;
+					}
+				}
+				if (writeBaseline) {
+					record(key, best, baseline);
+				} else {
+					regressions.addAll(compare(key, best, baseline, tolerance));
+				}
+			}
+		}
+
+		if (writeBaseline) {
+			OutputStream baselineOut = new FileOutputStream(baselineFile);
+			try {
+				baseline.store(baselineOut, "baseline of CubhuniMacroBenchmark, written with -write-baseline");
+			} finally {
+				baselineOut.close();
+			}
+			System.out.println("Baseline written to " + baselineFile + ".");
+		} else if (!regressions.isEmpty()) {
+			for (String regression : regressions) {
+				System.err.println("Failed " + regression);
+			}
+			System.exit(1);
+		}
+	}
+}
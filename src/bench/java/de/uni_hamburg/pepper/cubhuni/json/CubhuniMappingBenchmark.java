@@ -0,0 +1,126 @@
+/* Copyright 2017 Alicia Gonzalez Martinez
+ * COBHUNI Project, Universität Hamburg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ ********************************************************************/
+
+package de.uni_hamburg.pepper.cubhuni.json;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.corpus_tools.salt.SaltFactory;
+import org.corpus_tools.salt.common.SDocument;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the steps of building a document-structure separately: mapping the
+ * metadata, creating the primary text and tokens, and creating the annotation
+ * spans. Each invocation works on a freshly staged document, the staging is
+ * not measured. Run with <code>-prof gc</code> for the allocation rate.
+ * <br/>
+ * The pos, lemma and root token annotations are enabled, and their values are
+ * either kept per token or interned in a {@link CubhuniValueDictionary}.
+ *
+ * @author Alicia Gonzalez
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CubhuniMappingBenchmark {
+
+	/** A generated document staged in a builder, with an empty document graph. */
+	@State(Scope.Thread)
+	public static class Staged {
+
+		@Param({ "1000", "20000" })
+		public int tokens;
+
+		@Param({ "5" })
+		public int tokenLength;
+
+		@Param({ "1", "10" })
+		public double density;
+
+		/* whether annotation values are interned in a corpus-wide dictionary */
+		@Param({ "false", "true" })
+		public boolean intern;
+
+		CubhuniMappingPlan plan;
+		CubhuniDocumentGenerator generator;
+		CubhuniDocumentBuilder builder;
+		SDocument document;
+		CubhuniValueDictionary dictionary;
+
+		@Setup(Level.Trial)
+		public void generate() throws IOException {
+			plan = CubhuniDocumentGenerator.loadPlan();
+			generator = new CubhuniDocumentGenerator(plan, tokens, tokenLength, density);
+			dictionary = intern ? new CubhuniValueDictionary(1000000) : null;
+		}
+
+		@Setup(Level.Invocation)
+		public final void setUp() {
+			stage();
+		}
+
+		protected void stage() {
+			builder = generator.stage(new CubhuniDocumentBuilder(plan, dictionary));
+			document = SaltFactory.createSDocument();
+			document.setName("benchmark");
+			document.setDocumentGraph(SaltFactory.createSDocumentGraph());
+		}
+	}
+
+	/** A staged document whose tokens are already created. */
+	@State(Scope.Thread)
+	public static class Tokenized extends Staged {
+
+		@Override
+		protected void stage() {
+			super.stage();
+			builder.createTokens(document);
+		}
+	}
+
+	@Benchmark
+	public SDocument mapMeta(Staged state) {
+		state.builder.mapMeta(state.document);
+		return state.document;
+	}
+
+	@Benchmark
+	public SDocument createTokens(Staged state) {
+		state.builder.createTokens(state.document);
+		return state.document;
+	}
+
+	@Benchmark
+	public SDocument createSpans(Tokenized state) {
+		state.builder.createSpans(state.document);
+		return state.document;
+	}
+}
@@ -0,0 +1,95 @@
+/* Copyright 2017 Alicia Gonzalez Martinez
+ * COBHUNI Project, Universität Hamburg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ ********************************************************************/
+
+package de.uni_hamburg.pepper.cubhuni.json;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.emf.common.util.URI;
+import org.json.simple.parser.ParseException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures reading a generated COBHUNI JSON file into a
+ * {@link CubhuniDocumentBuilder}, as a whole JSON tree and as a stream, and
+ * loading the same document from its {@link CubhuniSidecar}.
+ *
+ * @author Alicia Gonzalez
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CubhuniParseBenchmark {
+
+	@Param({ "1000", "20000" })
+	public int tokens;
+
+	@Param({ "5" })
+	public int tokenLength;
+
+	@Param({ "1", "10" })
+	public double density;
+
+	@Param({ "false", "true" })
+	public boolean streaming;
+
+	private CubhuniJSONReader reader;
+	private URI resource;
+	private CubhuniSidecar sidecar;
+	private File source;
+
+	@Setup(Level.Trial)
+	public void generate() throws IOException {
+		CubhuniMappingPlan plan = CubhuniDocumentGenerator.loadPlan();
+		reader = new CubhuniJSONReader(plan, streaming);
+		source = new CubhuniDocumentGenerator(plan, tokens, tokenLength, density).write();
+		resource = URI.createFileURI(source.getAbsolutePath());
+
+		sidecar = new CubhuniSidecar(plan);
+		CubhuniSidecar.sidecarOf(source).deleteOnExit();
+		try {
+			sidecar.store(source, reader.read(resource));
+		} catch (ParseException e) {
+			throw new IOException(e);
+		}
+	}
+
+	@Benchmark
+	public CubhuniDocumentBuilder read() throws IOException, ParseException {
+		return reader.read(resource);
+	}
+
+	@Benchmark
+	public CubhuniDocumentBuilder loadSidecar() {
+		return sidecar.load(source);
+	}
+}
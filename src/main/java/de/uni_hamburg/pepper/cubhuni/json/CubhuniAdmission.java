@@ -0,0 +1,214 @@
+/* Copyright 2017 Alicia Gonzalez Martinez
+ * COBHUNI Project, Universität Hamburg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ ********************************************************************/
+
+
+package de.uni_hamburg.pepper.cubhuni.json;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import org.eclipse.emf.common.util.URI;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Admits documents to mapping under a heap budget shared by all mappers of
+ * an importer. Each mapper reserves the estimated heap cost of its document
+ * before reading it, from the size of its file, and adjusts the reservation
+ * once the document is read, from its number of tokens and spans, before its
+ * graph is built. A mapper whose document does not fit into what is left of
+ * the budget waits, while mappers of smaller documents which fit go on.
+ * <br/>
+ * Only a new document waits: adjusting the reservation of a document which is
+ * already read never blocks, since two mappers growing their reservations at
+ * once would wait for each other. The reservations may therefore exceed the
+ * budget by the growth of the documents being built.
+ * <br/>
+ * A document costing more than the whole budget is admitted once no other
+ * document holds a reservation. Once {@link #MAX_PASSES} documents have
+ * passed the document waiting longest, new documents wait behind it, so that
+ * the reservations drain and it never waits forever.
+ * <br/>
+ * Every document costs at least one byte, so that a reservation of 0 always
+ * stands for a new document.
+ *
+ * @author Alicia Gonzalez
+ */
+public class CubhuniAdmission {
+
+	private static final Logger logger = LoggerFactory.getLogger(CubhuniAdmission.class);
+
+	/* heap bytes of a JSON tree per byte of JSON */
+	private static final int TREE_BYTES_PER_BYTE = 8;
+
+	/* heap bytes of the staged parts of a streamed document per byte of JSON */
+	private static final int STREAM_BYTES_PER_BYTE = 3;
+
+	/* assumed ratio of the size of a decompressed file to its compressed size */
+	private static final int COMPRESSION_RATIO = 5;
+
+	/* cost of a document whose size is not known before it is read */
+	private static final long UNKNOWN_COST = 1024 * 1024;
+
+	/* number of documents admitted while the document waiting longest waits, before the others queue behind it */
+	static final int MAX_PASSES = 16;
+
+	private final long budget;
+
+	/* tickets of the waiting documents, the one waiting longest first */
+	private final Deque<Long> waiting = new ArrayDeque<Long>();
+	private long tickets = 0;
+	private int passed = 0;
+
+	private long reserved = 0;
+	private long waits = 0;
+	private long waitNanos = 0;
+	private long peak = 0;
+
+	/**
+	 * @param budget
+	 *            heap bytes the documents being mapped may take together
+	 */
+	public CubhuniAdmission(long budget) {
+		this.budget = budget;
+	}
+
+	/**
+	 * @return a budget of the given percentage of the maximal heap
+	 */
+	public static long budgetOf(int percent) {
+		return Runtime.getRuntime().maxMemory() / 100 * percent;
+	}
+
+	/**
+	 * @return the estimated heap cost of reading the document of the given
+	 *         resource, before it is read
+	 */
+	public static long estimateRead(URI resource, boolean streaming) {
+		long bytes;
+		long[] range = CubhuniBundle.rangeOf(resource);
+		if (range != null) {
+			bytes = range[1];
+		} else if (resource.hasFragment()) {
+			/* an entry of an archive, whose size is not known before it is read */
+			return UNKNOWN_COST;
+		} else {
+			File file = new File(resource.path());
+			bytes = CubhuniInput.isGzip(file) ? file.length() * COMPRESSION_RATIO : file.length();
+		}
+		return bytes * (streaming ? STREAM_BYTES_PER_BYTE : TREE_BYTES_PER_BYTE);
+	}
+
+	/**
+	 * Waits until a new document fits into the budget and reserves its cost,
+	 * or adjusts the reservation of a document without waiting.
+	 *
+	 * @param held
+	 *            cost already reserved for the same document, which is
+	 *            replaced by the new cost; 0 for a new document
+	 * @return the cost reserved, to be passed to {@link #release(long)}
+	 */
+	public synchronized long acquire(long cost, long held) throws InterruptedException {
+		cost = Math.max(1, cost);
+		if (held == 0) {
+			admit(cost);
+		}
+		reserved += cost - held;
+		peak = Math.max(peak, reserved);
+		if (cost < held) {
+			notifyAll();
+		}
+		return cost;
+	}
+
+	/**
+	 * Reserves the cost of a new document if it fits into the budget at once
+	 * and no document waits for admission, as for a document read ahead
+	 * before a mapper asks for it.
+	 *
+	 * @return the cost reserved, to be passed to {@link #release(long)}, or 0
+	 *         if the document does not fit
+	 */
+	public synchronized long tryAcquire(long cost) {
+		cost = Math.max(1, cost);
+		if (!waiting.isEmpty() || reserved + cost > budget && reserved > 0) {
+			return 0;
+		}
+		reserved += cost;
+		peak = Math.max(peak, reserved);
+		return cost;
+	}
+
+	/*
+	 * waits until the new document fits and no document waited so long that
+	 * the others queue behind it
+	 */
+	private void admit(long cost) throws InterruptedException {
+		Long ticket = null;
+		long start = 0;
+		try {
+			while (true) {
+				boolean fits = reserved + cost <= budget || reserved == 0;
+				boolean queued = !waiting.isEmpty() && !waiting.peekFirst().equals(ticket) && passed >= MAX_PASSES;
+				if (fits && !queued) {
+					break;
+				}
+				if (ticket == null) {
+					ticket = tickets++;
+					waiting.addLast(ticket);
+					start = System.nanoTime();
+					waits++;
+					logger.debug("Document of {} bytes waits for admission, {} of {} bytes reserved.", cost, reserved,
+							budget);
+				}
+				wait();
+			}
+			if (waiting.isEmpty() || waiting.peekFirst().equals(ticket)) {
+				/* the document waiting longest is admitted, the next one starts anew */
+				passed = 0;
+			} else {
+				passed++;
+			}
+		} finally {
+			if (ticket != null) {
+				waitNanos += System.nanoTime() - start;
+				waiting.remove(ticket);
+				notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Releases the reservation of a document which is mapped.
+	 */
+	public synchronized void release(long held) {
+		reserved -= held;
+		notifyAll();
+	}
+
+	public synchronized long getReserved() {
+		return reserved;
+	}
+
+	/**
+	 * Logs how often and how long documents waited for admission.
+	 */
+	public synchronized void logStatistics() {
+		logger.info("Admission under a heap budget of {} bytes: {} documents waited {} ms in total, peak "
+				+ "reservation {} bytes.", budget, waits, waitNanos / 1000000, peak);
+	}
+}
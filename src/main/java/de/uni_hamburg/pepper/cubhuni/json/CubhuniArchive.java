@@ -0,0 +1,131 @@
+/* Copyright 2017 Alicia Gonzalez Martinez
+ * COBHUNI Project, Universität Hamburg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ ********************************************************************/
+
+
+package de.uni_hamburg.pepper.cubhuni.json;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.eclipse.emf.common.util.URI;
+
+/**
+ * A zip archive of COBHUNI documents. Each json entry of the archive is read
+ * as a document of its own, decompressed while it is parsed, without
+ * extracting the archive to disk. One {@link ZipFile} is opened per archive
+ * and shared by all mappers.
+ * <br/>
+ * The resource of an entry is the file URI of the archive with the fragment
+ * <code>entry=&lt;name&gt;</code>.
+ *
+ * @author Alicia Gonzalez
+ */
+public class CubhuniArchive implements Closeable {
+
+	/** file ending of archives */
+	public static final String ENDING = "zip";
+
+	private static final String ENTRY_PREFIX = "entry=";
+
+	private final ZipFile zip;
+
+	/**
+	 * Opens the archive for reading its entries.
+	 */
+	public CubhuniArchive(File file) throws IOException {
+		this.zip = new ZipFile(file);
+	}
+
+	/**
+	 * Opens the given entry, decompressing it while it is read.
+	 */
+	public CubhuniInput.CountingInputStream open(String name) throws IOException {
+		ZipEntry entry = zip.getEntry(name);
+		if (entry == null) {
+			throw new FileNotFoundException("No entry " + name + " in " + zip.getName());
+		}
+		return new CubhuniInput.CountingInputStream(zip.getInputStream(entry));
+	}
+
+	/**
+	 * @return the compressed size of the given entry, -1 if it is not known
+	 */
+	public long getCompressedSize(String name) {
+		ZipEntry entry = zip.getEntry(name);
+		return (entry == null) ? -1 : entry.getCompressedSize();
+	}
+
+	@Override
+	public void close() throws IOException {
+		zip.close();
+	}
+
+	/**
+	 * @return true if the file name has the ending of an archive
+	 */
+	public static boolean isArchive(String name) {
+		return name.endsWith("." + ENDING);
+	}
+
+	/**
+	 * @return the names of the json entries of the archive which are not
+	 *         corpus metadata files, in the order of the archive
+	 */
+	public static List<String> index(File archive, String metaFileSuffix) throws IOException {
+		List<String> names = new ArrayList<String>();
+		ZipFile zip = new ZipFile(archive);
+		try {
+			Enumeration<? extends ZipEntry> entries = zip.entries();
+			while (entries.hasMoreElements()) {
+				ZipEntry entry = entries.nextElement();
+				String name = entry.getName();
+				if (!entry.isDirectory() && name.endsWith(".json") && !name.endsWith(metaFileSuffix)) {
+					names.add(name);
+				}
+			}
+		} finally {
+			zip.close();
+		}
+		return names;
+	}
+
+	/**
+	 * @return the resource of an entry of the given archive
+	 */
+	public static URI resourceOf(URI archive, String name) {
+		return archive.appendFragment(URI.encodeFragment(ENTRY_PREFIX + name, false));
+	}
+
+	/**
+	 * @return the name of the entry of the given resource, or null if the
+	 *         resource is not an entry of an archive
+	 */
+	public static String entryOf(URI resource) {
+		String fragment = resource.fragment();
+		if (fragment == null) {
+			return null;
+		}
+		fragment = URI.decode(fragment);
+		return fragment.startsWith(ENTRY_PREFIX) ? fragment.substring(ENTRY_PREFIX.length()) : null;
+	}
+}
@@ -0,0 +1,399 @@
+/* Copyright 2017 Alicia Gonzalez Martinez
+ * COBHUNI Project, Universität Hamburg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ ********************************************************************/
+
+
+package de.uni_hamburg.pepper.cubhuni.json;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.eclipse.emf.common.util.URI;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A bundle of COBHUNI documents in JSON Lines format (<code>.ndjson</code> or
+ * <code>.jsonl</code>): each line of the file is one document object. A
+ * bundle is indexed once while the corpus-structure is imported, without
+ * parsing its documents: the index holds the byte range of each line and the
+ * values of its top level id and source type keys. Each line is then read
+ * as a document of its own from its byte range, through one channel per
+ * bundle shared by all mappers.
+ * <br/>
+ * The resource of a line is the file URI of the bundle with the fragment
+ * <code>bytes=&lt;offset&gt;-&lt;end&gt;</code>.
+ *
+ * @author Alicia Gonzalez
+ */
+public class CubhuniBundle implements Closeable {
+
+	private static final Logger logger = LoggerFactory.getLogger(CubhuniBundle.class);
+
+	/** file endings of bundles */
+	public static final String[] ENDINGS = { "ndjson", "jsonl" };
+
+	private static final String RANGE_PREFIX = "bytes=";
+
+	/* size in bytes of the buffer the bundle is indexed through */
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	/* longest id or source type value in bytes kept by the index, a longer one is ignored */
+	private static final int MAX_VALUE_LENGTH = 256;
+
+	/* UTF-8 byte order mark */
+	private static final byte[] BOM = { (byte) 0xEF, (byte) 0xBB, (byte) 0xBF };
+
+	/**
+	 * A line of the bundle.
+	 */
+	public static final class Entry {
+		/** line number, from 1 */
+		public final int line;
+		public final long offset;
+		public final int length;
+		/** value of the id key, or null */
+		public final String id;
+		/** value of the source type key, or null */
+		public final String sourceType;
+
+		Entry(int line, long offset, int length, String id, String sourceType) {
+			this.line = line;
+			this.offset = offset;
+			this.length = length;
+			this.id = id;
+			this.sourceType = sourceType;
+		}
+	}
+
+	private final RandomAccessFile file;
+	private final FileChannel channel;
+
+	/**
+	 * Opens the bundle for reading its lines.
+	 */
+	public CubhuniBundle(File file) throws IOException {
+		this.file = new RandomAccessFile(file, "r");
+		this.channel = this.file.getChannel();
+	}
+
+	/**
+	 * Opens the line in the given byte range as UTF-8, without the byte order
+	 * mark the first line of the file may start with. Positional reads do not
+	 * move the channel, so lines are read concurrently.
+	 */
+	public Reader open(long offset, int length) throws IOException {
+		if (offset == 0 && length >= BOM.length) {
+			ByteBuffer head = ByteBuffer.allocate(BOM.length);
+			while (head.hasRemaining() && channel.read(head, head.position()) > 0) {
+			}
+			if (Arrays.equals(head.array(), BOM)) {
+				return CubhuniInput.open(channel, BOM.length, length - BOM.length);
+			}
+		}
+		return CubhuniInput.open(channel, offset, length);
+	}
+
+	@Override
+	public void close() throws IOException {
+		file.close();
+	}
+
+	/**
+	 * @return true if the file name has the ending of a bundle
+	 */
+	public static boolean isBundle(String name) {
+		for (String ending : ENDINGS) {
+			if (name.endsWith("." + ending)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return the resource of a line of the given bundle
+	 */
+	public static URI resourceOf(URI bundle, Entry entry) {
+		return bundle.appendFragment(RANGE_PREFIX + entry.offset + "-" + (entry.offset + entry.length));
+	}
+
+	/**
+	 * @return the offset and the length of the line of the given resource, or
+	 *         null if the resource is not a line of a bundle
+	 */
+	public static long[] rangeOf(URI resource) {
+		String fragment = resource.fragment();
+		if (fragment == null || !fragment.startsWith(RANGE_PREFIX)) {
+			return null;
+		}
+		int dash = fragment.indexOf('-', RANGE_PREFIX.length());
+		long offset = Long.parseLong(fragment.substring(RANGE_PREFIX.length(), dash));
+		long end = Long.parseLong(fragment.substring(dash + 1));
+		return new long[] { offset, end - offset };
+	}
+
+	/**
+	 * Indexes the non-blank lines of a bundle. The top level keys of each line
+	 * are found by a scan of its bytes which skips nested objects, arrays and
+	 * strings without decoding them. An id or source type value longer than
+	 * {@value #MAX_VALUE_LENGTH} bytes is ignored with a warning, rather than
+	 * cut, so that no two lines share an id cut from different values.
+	 *
+	 * @param idKey
+	 *            top level key of the id of a document
+	 * @param sourceTypeKey
+	 *            top level key of the source type of a document
+	 */
+	public static List<Entry> index(File bundle, String idKey, String sourceTypeKey) throws IOException {
+		List<Entry> entries = new ArrayList<Entry>();
+		InputStream in = new BufferedInputStream(new FileInputStream(bundle), BUFFER_SIZE);
+		try {
+			LineScanner scanner = new LineScanner(idKey, sourceTypeKey);
+			long position = 0;
+			long start = 0;
+			int line = 1;
+			int b;
+			while ((b = in.read()) != -1) {
+				position++;
+				if (b == '\n') {
+					scanner.end(entries, line, start, position);
+					start = position;
+					line++;
+				} else {
+					scanner.next(b);
+				}
+			}
+			scanner.end(entries, line, start, position);
+		} finally {
+			in.close();
+		}
+		return entries;
+	}
+
+	/*
+	 * state of the scan of one line, only keys and values at depth 1 are
+	 * collected
+	 */
+	private static final class LineScanner {
+
+		private final String idKey;
+		private final String sourceTypeKey;
+
+		private int depth = 0;
+		private boolean inString = false;
+		private boolean escaped = false;
+		private boolean inValue = false;
+		private boolean blank = true;
+		private String key = null;
+		private String id = null;
+		private String sourceType = null;
+		private final ByteArrayOutputStream token = new ByteArrayOutputStream();
+		/* whether the token is longer than MAX_VALUE_LENGTH and was not kept whole */
+		private boolean overlong = false;
+		/* key of an overlong value ignored in the line, or null */
+		private String ignored = null;
+
+		LineScanner(String idKey, String sourceTypeKey) {
+			this.idKey = idKey;
+			this.sourceTypeKey = sourceTypeKey;
+		}
+
+		void next(int b) {
+			if (inString) {
+				if (escaped) {
+					escaped = false;
+				} else if (b == '\\') {
+					escaped = true;
+				} else if (b == '"') {
+					inString = false;
+					if (depth == 1) {
+						value();
+					}
+					return;
+				}
+				if (depth == 1) {
+					append(b);
+				}
+				return;
+			}
+			switch (b) {
+			case ' ':
+			case '\t':
+			case '\r':
+				return;
+			case '"':
+				inString = true;
+				token.reset();
+				overlong = false;
+				break;
+			case '{':
+			case '[':
+				depth++;
+				break;
+			case '}':
+			case ']':
+				if (depth == 1) {
+					value();
+				}
+				depth--;
+				break;
+			case ':':
+				if (depth == 1) {
+					inValue = true;
+					token.reset();
+				}
+				break;
+			case ',':
+				if (depth == 1) {
+					value();
+					inValue = false;
+				}
+				break;
+			default:
+				/* number, true, false or null at the top level */
+				if (depth == 1 && inValue) {
+					append(b);
+				}
+			}
+			blank = false;
+		}
+
+		private void append(int b) {
+			if (token.size() < MAX_VALUE_LENGTH) {
+				token.write(b);
+			} else {
+				overlong = true;
+			}
+		}
+
+		/* a string or a literal ended at depth 1 */
+		private void value() {
+			String str = unescape(new String(token.toByteArray(), StandardCharsets.UTF_8));
+			boolean cut = overlong;
+			token.reset();
+			overlong = false;
+			if (!inValue) {
+				/* a cut key matches no key */
+				key = cut ? null : str;
+			} else if (str.isEmpty() || "null".equals(str)) {
+				return;
+			} else if (cut) {
+				if (key != null && (key.equals(idKey) && id == null || key.equals(sourceTypeKey) && sourceType == null)) {
+					ignored = key;
+				}
+			} else if (id == null && key != null && key.equals(idKey)) {
+				id = str;
+			} else if (sourceType == null && key != null && key.equals(sourceTypeKey)) {
+				sourceType = str;
+			}
+			key = inValue ? null : key;
+		}
+
+		/*
+		 * the value of a string with its escapes replaced, as the JSON parser
+		 * reads it; a malformed escape is kept as it is
+		 */
+		static String unescape(String str) {
+			int i = str.indexOf('\\');
+			if (i < 0) {
+				return str;
+			}
+			StringBuilder value = new StringBuilder(str.length());
+			value.append(str, 0, i);
+			while (i < str.length()) {
+				char c = str.charAt(i++);
+				if (c != '\\' || i == str.length()) {
+					value.append(c);
+					continue;
+				}
+				char e = str.charAt(i++);
+				switch (e) {
+				case 'b':
+					value.append('\b');
+					break;
+				case 'f':
+					value.append('\f');
+					break;
+				case 'n':
+					value.append('\n');
+					break;
+				case 'r':
+					value.append('\r');
+					break;
+				case 't':
+					value.append('\t');
+					break;
+				case '"':
+				case '\\':
+				case '/':
+					value.append(e);
+					break;
+				case 'u':
+					int code = 0;
+					for (int d = 0; d < 4 && code >= 0; d++) {
+						int digit = (i + d < str.length()) ? Character.digit(str.charAt(i + d), 16) : -1;
+						code = (digit < 0) ? -1 : code * 16 + digit;
+					}
+					if (code >= 0) {
+						value.append((char) code);
+						i += 4;
+						break;
+					}
+					value.append(c).append(e);
+					break;
+				default:
+					value.append(c).append(e);
+				}
+			}
+			return value.toString();
+		}
+
+		/* adds the entry of a non-blank line and resets the scan */
+		void end(List<Entry> entries, int line, long start, long end) {
+			if (!blank) {
+				if (ignored != null) {
+					logger.warn("The value of {} in line {} is longer than {} bytes, it is ignored.", ignored, line,
+							MAX_VALUE_LENGTH);
+				}
+				entries.add(new Entry(line, start, (int) (end - start), id, sourceType));
+			}
+			depth = 0;
+			inString = false;
+			escaped = false;
+			inValue = false;
+			blank = true;
+			key = null;
+			id = null;
+			sourceType = null;
+			token.reset();
+			overlong = false;
+			ignored = null;
+		}
+	}
+}
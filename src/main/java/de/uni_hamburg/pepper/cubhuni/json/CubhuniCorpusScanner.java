@@ -0,0 +1,226 @@
+/* Copyright 2017 Alicia Gonzalez Martinez
+ * COBHUNI Project, Universität Hamburg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ ********************************************************************/
+
+package de.uni_hamburg.pepper.cubhuni.json;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Walks the input directory tree in parallel and collects the files to be
+ * imported as documents. Each directory is listed by its own fork/join task,
+ * so that the directories of a large corpus are listed concurrently. Metadata
+ * files are excluded while listing, they never become documents.
+ * <br/>
+ * The result is a tree of {@link Dir}s in name order, so that the
+ * corpus-structure built from it does not depend on the order in which the
+ * directories were listed.
+ *
+ * @author Alicia Gonzalez
+ */
+public class CubhuniCorpusScanner {
+
+	/**
+	 * A directory of the input tree holding at least one document, directly or
+	 * in a subdirectory.
+	 */
+	public static final class Dir {
+		public final File dir;
+		public final List<File> documents = new ArrayList<File>();
+		public final List<Dir> subdirs = new ArrayList<Dir>();
+
+		/* metadata files directly in this directory */
+		int metaFiles = 0;
+
+		Dir(File dir) {
+			this.dir = dir;
+		}
+
+		public boolean isEmpty() {
+			return documents.isEmpty() && subdirs.isEmpty();
+		}
+
+		/**
+		 * @return the number of documents in this directory and its
+		 *         subdirectories
+		 */
+		public int countDocuments() {
+			int count = documents.size();
+			for (Dir subdir : subdirs) {
+				count += subdir.countDocuments();
+			}
+			return count;
+		}
+
+		/**
+		 * Appends the document files of this directory and its
+		 * subdirectories to the given list.
+		 */
+		public void collectDocuments(List<File> files) {
+			files.addAll(documents);
+			for (Dir subdir : subdirs) {
+				subdir.collectDocuments(files);
+			}
+		}
+
+		/**
+		 * @return the number of metadata files excluded in this directory and
+		 *         its subdirectories
+		 */
+		public int countMetaFiles() {
+			int count = metaFiles;
+			for (Dir subdir : subdirs) {
+				count += subdir.countMetaFiles();
+			}
+			return count;
+		}
+	}
+
+	private final Collection<String> endings;
+	private final String metaFileSuffix;
+	private final int threads;
+
+	/**
+	 * @param endings
+	 *            file endings of documents, without the dot
+	 * @param metaFileSuffix
+	 *            suffix of the metadata files to exclude
+	 * @param threads
+	 *            number of directories listed concurrently
+	 */
+	public CubhuniCorpusScanner(Collection<String> endings, String metaFileSuffix, int threads) {
+		this.endings = endings;
+		this.metaFileSuffix = metaFileSuffix;
+		this.threads = threads;
+	}
+
+	/**
+	 * Walks the tree below the given directory.
+	 *
+	 * @throws IOException
+	 *             if a directory cannot be listed
+	 */
+	public Dir scan(File root) throws IOException {
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		try {
+			return pool.invoke(new ListTask(root.toPath()));
+		} catch (ScanException e) {
+			throw e.getCause();
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * @return true if the file name is the one of a metadata file, which may
+	 *         be gzip compressed
+	 */
+	boolean isMetaFile(String name) {
+		if (name.endsWith(CubhuniInput.GZIP_ENDING)) {
+			name = name.substring(0, name.length() - CubhuniInput.GZIP_ENDING.length());
+		}
+		return name.endsWith(metaFileSuffix);
+	}
+
+	boolean isDocument(String name) {
+		if (isMetaFile(name)) {
+			return false;
+		}
+		/* endings may have several parts, such as json.gz */
+		for (String ending : endings) {
+			if (name.length() > ending.length() + 1 && name.endsWith("." + ending)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/* carries an IOException out of a fork/join task */
+	private static final class ScanException extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+
+		ScanException(IOException cause) {
+			super(cause);
+		}
+
+		@Override
+		public synchronized IOException getCause() {
+			return (IOException) super.getCause();
+		}
+	}
+
+	/* lists one directory and forks a task for each of its subdirectories */
+	private final class ListTask extends RecursiveTask<Dir> {
+		private static final long serialVersionUID = 1L;
+
+		private final Path path;
+
+		ListTask(Path path) {
+			this.path = path;
+		}
+
+		@Override
+		protected Dir compute() {
+			Dir result = new Dir(path.toFile());
+			List<ListTask> tasks = new ArrayList<ListTask>();
+
+			try (DirectoryStream<Path> stream = Files.newDirectoryStream(path)) {
+				for (Path entry : stream) {
+					String name = entry.getFileName().toString();
+					if (name.startsWith(".")) {
+						continue;
+					}
+					if (Files.isDirectory(entry)) {
+						ListTask task = new ListTask(entry);
+						task.fork();
+						tasks.add(task);
+					} else if (isMetaFile(name)) {
+						result.metaFiles++;
+					} else if (isDocument(name)) {
+						result.documents.add(entry.toFile());
+					}
+				}
+			} catch (IOException e) {
+				throw new ScanException(e);
+			}
+
+			for (ListTask task : tasks) {
+				Dir subdir = task.join();
+				if (!subdir.isEmpty()) {
+					result.subdirs.add(subdir);
+				}
+			}
+			Collections.sort(result.documents);
+			Collections.sort(result.subdirs, new Comparator<Dir>() {
+				@Override
+				public int compare(Dir d1, Dir d2) {
+					return d1.dir.compareTo(d2.dir);
+				}
+			});
+			return result;
+		}
+	}
+}
@@ -0,0 +1,83 @@
+/* Copyright 2017 Alicia Gonzalez Martinez
+ * COBHUNI Project, Universität Hamburg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ ********************************************************************/
+
+package de.uni_hamburg.pepper.cubhuni.json;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * SHA-1 digests of files and strings, as lower case hex strings. They are
+ * used to recognize input files and configurations that did not change
+ * between runs.
+ *
+ * @author Alicia Gonzalez
+ */
+public final class CubhuniDigest {
+
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	private CubhuniDigest() {
+	}
+
+	/**
+	 * @return the digest of the content of the given file
+	 */
+	public static String sha1(File file) throws IOException {
+		MessageDigest digest = newDigest();
+		InputStream in = new FileInputStream(file);
+		try {
+			byte[] buf = new byte[64 * 1024];
+			int n;
+			while ((n = in.read(buf)) != -1) {
+				digest.update(buf, 0, n);
+			}
+		} finally {
+			in.close();
+		}
+		return hex(digest.digest());
+	}
+
+	/**
+	 * @return the digest of the UTF-8 bytes of the given string
+	 */
+	public static String sha1(String str) {
+		return hex(newDigest().digest(str.getBytes(StandardCharsets.UTF_8)));
+	}
+
+	private static MessageDigest newDigest() {
+		try {
+			return MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) {
+			/* every Java platform supports SHA-1 */
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static String hex(byte[] bytes) {
+		char[] chars = new char[bytes.length * 2];
+		for (int i = 0; i < bytes.length; i++) {
+			chars[2 * i] = HEX[(bytes[i] >> 4) & 0xF];
+			chars[2 * i + 1] = HEX[bytes[i] & 0xF];
+		}
+		return new String(chars);
+	}
+}
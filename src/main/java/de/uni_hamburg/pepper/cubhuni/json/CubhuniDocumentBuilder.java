@@ -0,0 +1,457 @@
+/* Copyright 2017 Alicia Gonzalez Martinez
+ * COBHUNI Project, Universität Hamburg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ ********************************************************************/
+
+package de.uni_hamburg.pepper.cubhuni.json;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.corpus_tools.salt.common.SDocument;
+import org.corpus_tools.salt.common.SDocumentGraph;
+import org.corpus_tools.salt.common.SSpan;
+import org.corpus_tools.salt.common.STextualDS;
+import org.corpus_tools.salt.common.SToken;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Builds the Salt document-structure of one COBHUNI document. The builder is
+ * fed with the parts of the document (metadata, text, tokens and annotation
+ * spans) in whatever order they are read, so that the same building code is
+ * shared by the JSON tree import and the streaming import.
+ * <br/>
+ * Reading a document does not touch Salt: the parts are only staged, so a
+ * document can be read on another thread than the one building its graph in
+ * {@link #finish(SDocument)}. Token offsets are staged in primitive arrays,
+ * and all tokens are created in one pass over the {@link STextualDS}, so no
+ * boxed offsets or intermediate lists are kept per
+ * token. Spans refer to token indexes, so they are created after the tokens,
+ * over range views of the token index. Spans with a token range out of the
+ * document are skipped with a warning.
+ * <br/>
+ * Token and span annotation values can be interned in a corpus-wide
+ * {@link CubhuniValueDictionary} while they are staged, so that the graph
+ * shares one instance of each repeated value.
+ *
+ * @author Alicia Gonzalez
+ */
+public class CubhuniDocumentBuilder {
+
+	private static final Logger logger = LoggerFactory.getLogger(CubhuniDocumentBuilder.class);
+
+	private final CubhuniMappingPlan plan;
+
+	/* corpus-wide dictionary of annotation values, null if values are not interned */
+	private final CubhuniValueDictionary dictionary;
+
+	private int skippedSpans = 0;
+
+	/* rough heap size of a Salt node or relation with its identifier, labels and annotation */
+	private static final int BYTES_PER_ELEMENT = 400;
+
+	/* statistics of the document, see CubhuniImportMetrics */
+	private long bytesRead = 0;
+	private long compressedBytes = 0;
+	private long parseNanos = 0;
+	private int textLength = 0;
+	private int createdTokens = 0;
+	private long createdTokenAnnotations = 0;
+	private int createdSpans = 0;
+	private long spanningRelations = 0;
+	private final Map<String, Integer> spanCounts = new LinkedHashMap<String, Integer>();
+
+	/* initial capacity of the token buffers if the number of tokens is unknown */
+	private static final int INITIAL_CAPACITY = 1024;
+
+	/* average token length used to estimate the number of tokens from the text */
+	private static final int CHARS_PER_TOKEN = 5;
+
+	private Map<?, ?> meta = null;
+	private String text = null;
+
+	/* position of the document among the shards of a split document, see CubhuniSharder */
+	private int shardIndex = -1;
+	private int shardCount = 0;
+
+	/* set while the graph is built in finish(SDocument) */
+	private SDocument document = null;
+	private STextualDS primaryText = null;
+
+	/* staged tokens, created in finish(SDocument) */
+	private int tokenCount = 0;
+	private int[] tokIni = new int[0];
+	private int[] tokEnd = new int[0];
+	private String[] tokStr = new String[0];
+
+	/* staged further token annotations, one column per key of the plan */
+	private String[][] tokAnn;
+
+	/* token index: position of a token in the document to its SToken */
+	private SToken[] tokens = new SToken[0];
+
+	/* spans are created once all tokens are known */
+	private final List<String[]> pendingSpans = new ArrayList<String[]>();
+	private final List<int[]> pendingSpanOffsets = new ArrayList<int[]>();
+
+	public CubhuniDocumentBuilder(CubhuniMappingPlan plan) {
+		this(plan, null);
+	}
+
+	/**
+	 * @param dictionary
+	 *            dictionary the token and span annotation values are interned
+	 *            in, or null
+	 */
+	public CubhuniDocumentBuilder(CubhuniMappingPlan plan, CubhuniValueDictionary dictionary) {
+		this.plan = plan;
+		this.dictionary = dictionary;
+		this.tokAnn = new String[plan.getTokenAnnotations().size()][0];
+	}
+
+	private String intern(String value) {
+		return (dictionary == null) ? value : dictionary.intern(value);
+	}
+
+	/**
+	 * @return true if the given key of the top level JSON object is an
+	 *         annotation group, such as persons or sections
+	 */
+	public boolean isAnnotationGroup(String group) {
+		return plan.isAnnotationGroup(group);
+	}
+
+	/**
+	 * Keeps the meta object of the document.
+	 */
+	public void meta(Map<?, ?> meta) {
+		this.meta = meta;
+	}
+
+	/*
+	 * marks the document as the index-th of count shards, recorded as
+	 * meta-annotations in finish(SDocument)
+	 */
+	void setShard(int index, int count) {
+		this.shardIndex = index;
+		this.shardCount = count;
+	}
+
+	/**
+	 * Keeps the primary text. If the number of tokens is not known yet, it is
+	 * estimated from the length of the text.
+	 */
+	public void text(String text) {
+		this.text = text;
+		if (text != null) {
+			expectTokens(text.length() / CHARS_PER_TOKEN);
+		}
+	}
+
+	/**
+	 * Sizes the token buffers for the given number of tokens, so that they do
+	 * not grow while the tokens are read.
+	 */
+	public void expectTokens(int count) {
+		if (count > tokIni.length) {
+			resize(count);
+		}
+	}
+
+	/**
+	 * Stages a token, it is created in {@link #finish(SDocument)}.
+	 */
+	public void token(String tok, int ini, int end) {
+		token(tok, ini, end, null);
+	}
+
+	/**
+	 * Stages a token with the values of its further annotations, in the order
+	 * of {@link CubhuniMappingPlan#getTokenAnnotations()}. The values are
+	 * copied, so the array can be reused for the next token.
+	 */
+	public void token(String tok, int ini, int end, String[] annotations) {
+		if (tokenCount == tokIni.length) {
+			resize(Math.max(INITIAL_CAPACITY, tokIni.length * 2));
+		}
+		tokIni[tokenCount] = ini;
+		tokEnd[tokenCount] = end;
+		tokStr[tokenCount] = intern(tok);
+		if (annotations != null) {
+			for (int f = 0; f < tokAnn.length; f++) {
+				tokAnn[f][tokenCount] = intern(annotations[f]);
+			}
+		}
+		tokenCount++;
+	}
+
+	/**
+	 * @return the number of tokens read so far
+	 */
+	public int getTokenCount() {
+		return tokenCount;
+	}
+
+	private void resize(int capacity) {
+		tokIni = Arrays.copyOf(tokIni, capacity);
+		tokEnd = Arrays.copyOf(tokEnd, capacity);
+		tokStr = Arrays.copyOf(tokStr, capacity);
+		for (int f = 0; f < tokAnn.length; f++) {
+			tokAnn[f] = Arrays.copyOf(tokAnn[f], capacity);
+		}
+	}
+
+	/**
+	 * Keeps an annotation span over the tokens ini..end (both included) of the
+	 * given annotation group until {@link #finish(SDocument)}.
+	 */
+	public void span(String group, String val, int ini, int end) {
+		pendingSpans.add(new String[] { group, intern(val) });
+		pendingSpanOffsets.add(new int[] { ini, end });
+	}
+
+	/*
+	 * the staged parts, package-private so that the CubhuniSidecar can store
+	 * them before the graph is built
+	 */
+
+	Map<?, ?> getMeta() {
+		return meta;
+	}
+
+	String getText() {
+		return text;
+	}
+
+	String getToken(int i) {
+		return tokStr[i];
+	}
+
+	int getTokenIni(int i) {
+		return tokIni[i];
+	}
+
+	int getTokenEnd(int i) {
+		return tokEnd[i];
+	}
+
+	/* value of the f-th further annotation of the i-th token */
+	String getTokenAnnotation(int i, int f) {
+		return tokAnn[f][i];
+	}
+
+	int getSpanCount() {
+		return pendingSpans.size();
+	}
+
+	/* group and value of the i-th staged span */
+	String[] getSpan(int i) {
+		return pendingSpans.get(i);
+	}
+
+	/* first and last token of the i-th staged span */
+	int[] getSpanOffsets(int i) {
+		return pendingSpanOffsets.get(i);
+	}
+
+	/**
+	 * @return the number of spans that were skipped because their token range
+	 *         is out of the bounds of the document
+	 */
+	public int getSkippedSpans() {
+		return skippedSpans;
+	}
+
+	/**
+	 * Records the size of the document file and the time it took to read and
+	 * parse it.
+	 */
+	public void readStatistics(long bytes, long nanos) {
+		readStatistics(bytes, nanos, bytes);
+	}
+
+	/**
+	 * Records the size of the decompressed document, the time it took to read
+	 * and parse it and the size it has on disk.
+	 */
+	public void readStatistics(long bytes, long nanos, long compressedBytes) {
+		this.bytesRead = bytes;
+		this.parseNanos = nanos;
+		this.compressedBytes = compressedBytes;
+	}
+
+	public long getBytesRead() {
+		return bytesRead;
+	}
+
+	/**
+	 * @return the size of the document on disk, the same as
+	 *         {@link #getBytesRead()} if it is not compressed
+	 */
+	public long getCompressedBytes() {
+		return compressedBytes;
+	}
+
+	public long getParseNanos() {
+		return parseNanos;
+	}
+
+	/**
+	 * @return the number of tokens created in {@link #finish(SDocument)}
+	 */
+	public int getCreatedTokens() {
+		return createdTokens;
+	}
+
+	/**
+	 * @return the number of annotations created in {@link #finish(SDocument)}
+	 *         for each annotation group, in the order the groups were met
+	 */
+	public Map<String, Integer> getSpanCounts() {
+		return spanCounts;
+	}
+
+	/**
+	 * @return an estimate of the heap size of the document graph built in
+	 *         {@link #finish(SDocument)}, counting its primary text, nodes and
+	 *         relations
+	 */
+	public long estimateGraphBytes() {
+		long elements = 1 + 2L * createdTokens + createdTokenAnnotations + createdSpans + spanningRelations;
+		return 2L * textLength + elements * BYTES_PER_ELEMENT;
+	}
+
+	/**
+	 * @return an estimate of the heap size of the graph
+	 *         {@link #finish(SDocument)} will build from the staged document,
+	 *         counting every staged token annotation and two elements per
+	 *         span
+	 */
+	public long estimateBuildBytes() {
+		long elements = 1 + 2L * tokenCount + (long) tokenCount * tokAnn.length + 2L * pendingSpans.size();
+		return 2L * ((text == null) ? 0 : text.length()) + elements * BYTES_PER_ELEMENT;
+	}
+
+	/**
+	 * Builds the document-structure, once the whole document has been read:
+	 * adds the metadata, creates the primary text, the tokens and then the
+	 * annotation spans.
+	 */
+	public void finish(SDocument document) {
+		mapMeta(document);
+		createTokens(document);
+		createSpans(document);
+	}
+
+	/*
+	 * the steps of finish(SDocument), package-private so that they can be
+	 * measured separately
+	 */
+
+	void mapMeta(SDocument document) {
+		this.document = document;
+		plan.mapMeta(meta, document);
+		if (shardIndex >= 0) {
+			document.createMetaAnnotation(null, CubhuniSharder.SHARD_INDEX, shardIndex);
+			document.createMetaAnnotation(null, CubhuniSharder.SHARD_COUNT, shardCount);
+		}
+	}
+
+	/*
+	 * creates the staged spans over range views of the token index. Annotations
+	 * of any group covering exactly the same token range share one SSpan, as
+	 * long as the span has no annotation of the same name yet.
+	 */
+	void createSpans(SDocument document) {
+		this.document = document;
+		SDocumentGraph graph = document.getDocumentGraph();
+		List<SToken> tokenList = Arrays.asList(tokens);
+		Map<Long, SSpan> spansByRange = new HashMap<Long, SSpan>();
+
+		for (int j = 0; j < pendingSpans.size(); j++) {
+			String group = pendingSpans.get(j)[0];
+			String val = pendingSpans.get(j)[1];
+			int ini = pendingSpanOffsets.get(j)[0];
+			int end = pendingSpanOffsets.get(j)[1];
+
+			if (ini < 0 || end >= tokens.length || ini > end) {
+				logger.warn("Skipping {} span '{}' of document {}: tokens {}..{} out of range, the document has {} tokens.",
+						group, val, document.getName(), ini, end, tokens.length);
+				skippedSpans++;
+				continue;
+			}
+
+			String tag = plan.getGroups().get(group);
+			Long range = (((long) ini) << 32) | (end & 0xFFFFFFFFL);
+
+			SSpan annotation = spansByRange.get(range);
+			if (annotation == null || annotation.getAnnotation(tag) != null) {
+				annotation = graph.createSpan(tokenList.subList(ini, end + 1));
+				spansByRange.put(range, annotation);
+				createdSpans++;
+				spanningRelations += end - ini + 1;
+			}
+			annotation.createAnnotation(null, tag, val);
+			Integer count = spanCounts.get(group);
+			spanCounts.put(group, (count == null) ? 1 : count + 1);
+		}
+		pendingSpans.clear();
+		pendingSpanOffsets.clear();
+	}
+
+	/*
+	 * creates the primary text and all staged tokens in one pass, and releases
+	 * the staging buffers
+	 */
+	void createTokens(SDocument document) {
+		this.document = document;
+		if (text != null) {
+			primaryText = document.getDocumentGraph().createTextualDS(text);
+			textLength = text.length();
+		}
+		if (primaryText == null) {
+			if (tokenCount > 0) {
+				throw new IllegalStateException("Document " + document.getName() + " has tokens but no text.");
+			}
+			return;
+		}
+		SDocumentGraph graph = document.getDocumentGraph();
+		String normName = plan.tokNormName;
+		List<String> annNames = plan.getTokenAnnotations();
+
+		tokens = new SToken[tokenCount];
+		for (int i = 0; i < tokenCount; i++) {
+			SToken token = graph.createToken(primaryText, tokIni[i], tokEnd[i]);
+			token.createAnnotation(null, normName, tokStr[i]);
+			for (int f = 0; f < tokAnn.length; f++) {
+				if (tokAnn[f][i] != null) {
+					token.createAnnotation(null, annNames.get(f), tokAnn[f][i]);
+					createdTokenAnnotations++;
+				}
+			}
+			tokens[i] = token;
+		}
+		createdTokens = tokenCount;
+
+		tokIni = new int[0];
+		tokEnd = new int[0];
+		tokStr = new String[0];
+		tokAnn = new String[tokAnn.length][0];
+	}
+}
@@ -0,0 +1,262 @@
+/* Copyright 2017 Alicia Gonzalez Martinez
+ * COBHUNI Project, Universität Hamburg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ ********************************************************************/
+
+package de.uni_hamburg.pepper.cubhuni.json;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Tells how likely a file or a directory contains COBHUNI JSON documents,
+ * without parsing whole documents. Only a bounded prefix and suffix of a
+ * small sample of files are read and searched for the top level
+ * <code>meta</code>, <code>text</code> and <code>tokens</code> keys. The
+ * <code>tokens</code> array usually comes after the text, so it is recognized
+ * in the suffix by the keys of its last token. A zip archive is graded by the
+ * decompressed prefixes of a sample of its json entries.
+ * <br/>
+ * Verdicts are cached per path and modification time by each sniffer, as
+ * they depend on the keys of its mapping plan; the cache keeps the most
+ * recently used verdicts only.
+ *
+ * @author Alicia Gonzalez
+ */
+public class CubhuniFormatSniffer {
+
+	/* bytes read at the beginning and at the end of a file */
+	private static final int PROBE_SIZE = 4 * 1024;
+
+	/* maximal number of files sampled in a directory */
+	private static final int SAMPLE_SIZE = 8;
+
+	/* maximal number of directory entries visited to find the sample */
+	private static final int MAX_VISITED = 1000;
+
+	/* maximal number of verdicts cached */
+	private static final int MAX_VERDICTS = 256;
+
+	/* path and modification time to the verdict, least recently used first */
+	private final Map<String, Double> verdicts = new LinkedHashMap<String, Double>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Double> eldest) {
+			return size() > MAX_VERDICTS;
+		}
+	};
+
+	private final CubhuniMappingPlan plan;
+	private final Pattern metaPattern;
+	private final Pattern textPattern;
+	private final Pattern tokensPattern;
+	private final Pattern tokPattern;
+	private final Pattern iniPattern;
+	private final Pattern endPattern;
+
+	public CubhuniFormatSniffer(CubhuniMappingPlan plan) {
+		this.plan = plan;
+		this.metaPattern = Pattern.compile(keyPattern(plan.metaKey) + "\\s*\\{");
+		this.textPattern = Pattern.compile(keyPattern(plan.textKey) + "\\s*\"");
+		this.tokensPattern = Pattern.compile(keyPattern(plan.tokensKey) + "\\s*\\[");
+		this.tokPattern = Pattern.compile(keyPattern(plan.tokKey));
+		this.iniPattern = Pattern.compile(keyPattern(plan.tokIniKey) + "\\s*\\d");
+		this.endPattern = Pattern.compile(keyPattern(plan.tokEndKey) + "\\s*\\d");
+	}
+
+	private static String keyPattern(String key) {
+		return "\"" + Pattern.quote(key) + "\"\\s*:";
+	}
+
+	/**
+	 * @return 1.0 if the file or the sampled files of the directory have the
+	 *         meta, text and tokens parts of COBHUNI JSON, 0.0 if none is a JSON
+	 *         object, and a value in between for partial matches
+	 */
+	public double sniff(File path) {
+		String cacheKey = path.getAbsolutePath() + "@" + path.lastModified();
+		Double verdict;
+		synchronized (verdicts) {
+			verdict = verdicts.get(cacheKey);
+		}
+		if (verdict == null) {
+			verdict = path.isDirectory() ? sniffDirectory(path) : sniffFile(path);
+			synchronized (verdicts) {
+				verdicts.put(cacheKey, verdict);
+			}
+		}
+		return verdict;
+	}
+
+	/*
+	 * averages the verdicts of a sample of the json files, compressed or not,
+	 * JSON Lines bundles and zip archives found breadth first
+	 */
+	private double sniffDirectory(File dir) {
+		List<Path> sample = new ArrayList<Path>();
+		Deque<Path> dirs = new ArrayDeque<Path>();
+		dirs.add(dir.toPath());
+		int visited = 0;
+
+		while (!dirs.isEmpty() && sample.size() < SAMPLE_SIZE && visited < MAX_VISITED) {
+			try (DirectoryStream<Path> stream = Files.newDirectoryStream(dirs.poll())) {
+				for (Path entry : stream) {
+					if (++visited >= MAX_VISITED || sample.size() >= SAMPLE_SIZE) {
+						break;
+					}
+					String name = entry.getFileName().toString();
+					if (Files.isDirectory(entry)) {
+						dirs.add(entry);
+					} else if ((name.endsWith(".json") || name.endsWith(".json" + CubhuniInput.GZIP_ENDING)
+							|| CubhuniBundle.isBundle(name) || CubhuniArchive.isArchive(name))
+							&& !name.endsWith(plan.metaFileSuffix)
+							&& !name.endsWith(plan.metaFileSuffix + CubhuniInput.GZIP_ENDING)) {
+						sample.add(entry);
+					}
+				}
+			} catch (IOException e) {
+				/* unreadable directories do not contribute to the sample */
+			}
+		}
+
+		if (sample.isEmpty()) {
+			return 0.0;
+		}
+		double sum = 0.0;
+		for (Path file : sample) {
+			sum += sniffFile(file.toFile());
+		}
+		return sum / sample.size();
+	}
+
+	/*
+	 * grades a file by the parts of a COBHUNI document found in its prefix and
+	 * suffix, only the decompressed prefix of a gzip compressed file is searched
+	 */
+	double sniffFile(File file) {
+		String prefix;
+		String suffix;
+		if (CubhuniArchive.isArchive(file.getName())) {
+			return sniffArchive(file);
+		}
+		if (CubhuniInput.isGzip(file)) {
+			try (InputStream in = CubhuniInput.gunzip(file)) {
+				prefix = head(in);
+			} catch (IOException e) {
+				return 0.0;
+			}
+			return grade(prefix, prefix);
+		}
+		try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+			long length = in.length();
+			byte[] head = new byte[(int) Math.min(PROBE_SIZE, length)];
+			in.readFully(head);
+			prefix = new String(head, StandardCharsets.UTF_8);
+			if (length > PROBE_SIZE) {
+				byte[] tail = new byte[(int) Math.min(PROBE_SIZE, length - PROBE_SIZE)];
+				in.seek(length - tail.length);
+				in.readFully(tail);
+				suffix = new String(tail, StandardCharsets.UTF_8);
+			} else {
+				suffix = prefix;
+			}
+		} catch (IOException e) {
+			return 0.0;
+		}
+		return grade(prefix, suffix);
+	}
+
+	/*
+	 * averages the verdicts of the first json entries of a zip archive, of
+	 * which only the decompressed prefix is searched
+	 */
+	private double sniffArchive(File file) {
+		try (CubhuniArchive archive = new CubhuniArchive(file)) {
+			List<String> entries = CubhuniArchive.index(file, plan.metaFileSuffix);
+			if (entries.isEmpty()) {
+				return 0.0;
+			}
+			int sampled = Math.min(SAMPLE_SIZE, entries.size());
+			double sum = 0.0;
+			for (int i = 0; i < sampled; i++) {
+				try (InputStream in = archive.open(entries.get(i))) {
+					String prefix = head(in);
+					sum += grade(prefix, prefix);
+				}
+			}
+			return sum / sampled;
+		} catch (IOException e) {
+			return 0.0;
+		}
+	}
+
+	/* the first bytes of the stream */
+	private static String head(InputStream in) throws IOException {
+		byte[] head = new byte[PROBE_SIZE];
+		int length = 0;
+		int n;
+		while (length < head.length && (n = in.read(head, length, head.length - length)) > 0) {
+			length += n;
+		}
+		return new String(head, 0, length, StandardCharsets.UTF_8);
+	}
+
+	private double grade(String prefix, String suffix) {
+		String start = prefix.trim();
+		if (start.startsWith("\uFEFF")) {
+			start = start.substring(1).trim();
+		}
+		if (!start.startsWith("{")) {
+			return 0.0;
+		}
+
+		int parts = 0;
+		if (metaPattern.matcher(prefix).find() || metaPattern.matcher(suffix).find()) {
+			parts++;
+		}
+		if (textPattern.matcher(prefix).find() || textPattern.matcher(suffix).find()) {
+			parts++;
+		}
+		if (tokensPattern.matcher(prefix).find() || tokensPattern.matcher(suffix).find()
+				|| (tokPattern.matcher(suffix).find() && iniPattern.matcher(suffix).find()
+						&& endPattern.matcher(suffix).find())) {
+			parts++;
+		}
+
+		switch (parts) {
+		case 3:
+			return 1.0;
+		case 2:
+			return 0.7;
+		case 1:
+			return 0.4;
+		default:
+			return 0.1;
+		}
+	}
+}
@@ -0,0 +1,369 @@
+/* Copyright 2017 Alicia Gonzalez Martinez
+ * COBHUNI Project, Universität Hamburg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ ********************************************************************/
+
+package de.uni_hamburg.pepper.cubhuni.json;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Records, for every document mapped by an importer, the bytes read, the
+ * parse and build times, the number of tokens and of annotations per group
+ * and an estimate of the size of its graph. The totals are exposed live as a
+ * JMX MBean while the import runs, and a report of the documents can be
+ * written at the end of the run, to find the documents that dominate the
+ * running time.
+ *
+ * @author Alicia Gonzalez
+ */
+public class CubhuniImportMetrics implements CubhuniImportMetricsMBean {
+
+	private static final Logger logger = LoggerFactory.getLogger(CubhuniImportMetrics.class);
+
+	/* number of slowest and largest documents in the summary */
+	private static final int TOP = 10;
+
+	private static final AtomicInteger instances = new AtomicInteger();
+
+	/** Metrics of one document. */
+	public static final class Document {
+		public final String path;
+		public final long bytes;
+		public final long compressedBytes;
+		public final long parseNanos;
+		public final long buildNanos;
+		public final int tokens;
+		public final Map<String, Integer> spans;
+		public final long graphBytes;
+
+		Document(String path, long bytes, long compressedBytes, long parseNanos, long buildNanos, int tokens,
+				Map<String, Integer> spans, long graphBytes) {
+			this.path = path;
+			this.bytes = bytes;
+			this.compressedBytes = compressedBytes;
+			this.parseNanos = parseNanos;
+			this.buildNanos = buildNanos;
+			this.tokens = tokens;
+			this.spans = spans;
+			this.graphBytes = graphBytes;
+		}
+
+		public long getNanos() {
+			return parseNanos + buildNanos;
+		}
+
+		public int getSpans() {
+			int count = 0;
+			for (Integer n : spans.values()) {
+				count += n;
+			}
+			return count;
+		}
+	}
+
+	private static final Comparator<Document> SLOWEST_FIRST = new Comparator<Document>() {
+		@Override
+		public int compare(Document d1, Document d2) {
+			return Long.compare(d2.getNanos(), d1.getNanos());
+		}
+	};
+
+	private static final Comparator<Document> LARGEST_FIRST = new Comparator<Document>() {
+		@Override
+		public int compare(Document d1, Document d2) {
+			return Long.compare(d2.bytes, d1.bytes);
+		}
+	};
+
+	private final List<Document> documents = new ArrayList<Document>();
+
+	private long bytesRead = 0;
+	private long compressedBytesRead = 0;
+	private long tokens = 0;
+	private long spans = 0;
+	/* in nanoseconds, so that documents mapped in less than a millisecond add up */
+	private long parseNanos = 0;
+	private long buildNanos = 0;
+	private long peakGraphBytes = 0;
+	private Document last = null;
+	private Document slowest = null;
+	private Document largest = null;
+
+	private ObjectName name = null;
+
+	/**
+	 * Records the metrics of a mapped document.
+	 *
+	 * @param builder
+	 *            the builder which read the document and built its graph
+	 * @param buildNanos
+	 *            the time it took to build the graph
+	 */
+	public synchronized Document record(String path, CubhuniDocumentBuilder builder, long buildNanos) {
+		Document document = new Document(path, builder.getBytesRead(), builder.getCompressedBytes(),
+				builder.getParseNanos(), buildNanos, builder.getCreatedTokens(),
+				Collections.unmodifiableMap(new LinkedHashMap<String, Integer>(builder.getSpanCounts())),
+				builder.estimateGraphBytes());
+		documents.add(document);
+
+		bytesRead += document.bytes;
+		compressedBytesRead += document.compressedBytes;
+		tokens += document.tokens;
+		spans += document.getSpans();
+		this.parseNanos += document.parseNanos;
+		this.buildNanos += document.buildNanos;
+		peakGraphBytes = Math.max(peakGraphBytes, document.graphBytes);
+		last = document;
+		if (slowest == null || SLOWEST_FIRST.compare(document, slowest) < 0) {
+			slowest = document;
+		}
+		if (largest == null || LARGEST_FIRST.compare(document, largest) < 0) {
+			largest = document;
+		}
+		return document;
+	}
+
+	/**
+	 * Registers the metrics in the platform MBean server. Failing to register
+	 * does not stop the import.
+	 */
+	public void register() {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			name = new ObjectName(getClass().getPackage().getName() + ":type=" + getClass().getSimpleName()
+					+ ",name=import-" + instances.incrementAndGet());
+			server.registerMBean(this, name);
+			logger.debug("Import metrics registered as {}.", name);
+		} catch (JMException | SecurityException e) {
+			logger.warn("Cannot register the import metrics MBean.", e);
+			name = null;
+		}
+	}
+
+	/**
+	 * Removes the metrics from the platform MBean server.
+	 */
+	public void unregister() {
+		if (name == null) {
+			return;
+		}
+		try {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+		} catch (JMException | SecurityException e) {
+			logger.warn("Cannot unregister the import metrics MBean {}.", name, e);
+		}
+		name = null;
+	}
+
+	/**
+	 * @return the recorded documents, slowest first
+	 */
+	public synchronized List<Document> getSlowest() {
+		List<Document> sorted = new ArrayList<Document>(documents);
+		Collections.sort(sorted, SLOWEST_FIRST);
+		return sorted;
+	}
+
+	/**
+	 * @return the recorded documents, largest first
+	 */
+	public synchronized List<Document> getLargest() {
+		List<Document> sorted = new ArrayList<Document>(documents);
+		Collections.sort(sorted, LARGEST_FIRST);
+		return sorted;
+	}
+
+	/**
+	 * Logs the totals and the slowest and largest documents.
+	 */
+	public synchronized void logSummary() {
+		logger.info("Import metrics: {} documents, {} bytes ({} bytes on disk), {} tokens, {} spans, parse {} ms, "
+				+ "build {} ms.", documents.size(), bytesRead, compressedBytesRead, tokens, spans, millis(parseNanos),
+				millis(buildNanos));
+		List<Document> sorted = getSlowest();
+		for (int i = 0; i < Math.min(5, sorted.size()); i++) {
+			Document document = sorted.get(i);
+			logger.info("Slowest document {}: {} ({} ms, {} bytes).", i + 1, document.path,
+					millis(document.getNanos()), document.bytes);
+		}
+	}
+
+	/**
+	 * Writes a report of the run. A file ending in <code>.json</code> gets the
+	 * totals and the slowest and largest documents as JSON, any other file
+	 * gets one CSV row per document, slowest first.
+	 */
+	public synchronized void writeReport(File file) throws IOException {
+		File dir = file.getAbsoluteFile().getParentFile();
+		if (dir != null && !dir.isDirectory() && !dir.mkdirs()) {
+			throw new IOException("Cannot create the directory of the metrics report " + file);
+		}
+		Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8));
+		try {
+			if (file.getName().endsWith(".json")) {
+				writeJSON(writer);
+			} else {
+				writeCSV(writer);
+			}
+		} finally {
+			writer.close();
+		}
+		logger.info("Import metrics report written to {}.", file);
+	}
+
+	/* milliseconds with three decimals, the unit of the summary and the reports */
+	static String millis(long nanos) {
+		return String.format(Locale.ROOT, "%.3f", nanos / 1e6);
+	}
+
+	private void writeCSV(Writer writer) throws IOException {
+		/* one column per annotation group met in any document */
+		Set<String> groups = new LinkedHashSet<String>();
+		for (Document document : documents) {
+			groups.addAll(document.spans.keySet());
+		}
+
+		writer.write("path,bytes,compressed_bytes,parse_ms,build_ms,tokens,spans");
+		for (String group : groups) {
+			writer.write("," + group);
+		}
+		writer.write(",graph_bytes\n");
+
+		for (Document document : getSlowest()) {
+			writer.write("\"" + document.path.replace("\"", "\"\"") + "\"," + document.bytes + "," + document.compressedBytes
+					+ "," + millis(document.parseNanos) + "," + millis(document.buildNanos) + "," + document.tokens + "," + document.getSpans());
+			for (String group : groups) {
+				Integer count = document.spans.get(group);
+				writer.write("," + ((count == null) ? 0 : count));
+			}
+			writer.write("," + document.graphBytes + "\n");
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private void writeJSON(Writer writer) throws IOException {
+		JSONObject report = new JSONObject();
+		report.put("documents", documents.size());
+		report.put("bytes", bytesRead);
+		report.put("compressed_bytes", compressedBytesRead);
+		report.put("tokens", tokens);
+		report.put("spans", spans);
+		report.put("parse_ms", parseNanos / 1e6);
+		report.put("build_ms", buildNanos / 1e6);
+		report.put("peak_graph_bytes", peakGraphBytes);
+		report.put("slowest", toJSON(getSlowest()));
+		report.put("largest", toJSON(getLargest()));
+		writer.write(report.toJSONString());
+	}
+
+	@SuppressWarnings("unchecked")
+	private static JSONArray toJSON(List<Document> sorted) {
+		JSONArray array = new JSONArray();
+		for (Document document : sorted.subList(0, Math.min(TOP, sorted.size()))) {
+			JSONObject obj = new JSONObject();
+			obj.put("path", document.path);
+			obj.put("bytes", document.bytes);
+			obj.put("compressed_bytes", document.compressedBytes);
+			obj.put("parse_ms", document.parseNanos / 1e6);
+			obj.put("build_ms", document.buildNanos / 1e6);
+			obj.put("tokens", document.tokens);
+			obj.put("spans", document.spans);
+			obj.put("graph_bytes", document.graphBytes);
+			array.add(obj);
+		}
+		return array;
+	}
+
+	@Override
+	public synchronized int getDocuments() {
+		return documents.size();
+	}
+
+	@Override
+	public synchronized long getBytesRead() {
+		return bytesRead;
+	}
+
+	@Override
+	public synchronized long getCompressedBytesRead() {
+		return compressedBytesRead;
+	}
+
+	@Override
+	public synchronized long getTokens() {
+		return tokens;
+	}
+
+	@Override
+	public synchronized long getSpans() {
+		return spans;
+	}
+
+	@Override
+	public synchronized long getParseMillis() {
+		return parseNanos / 1000000;
+	}
+
+	@Override
+	public synchronized long getBuildMillis() {
+		return buildNanos / 1000000;
+	}
+
+	@Override
+	public synchronized long getPeakGraphBytes() {
+		return peakGraphBytes;
+	}
+
+	@Override
+	public synchronized String getLastDocument() {
+		return (last == null) ? null : last.path;
+	}
+
+	@Override
+	public synchronized String getSlowestDocument() {
+		return (slowest == null) ? null : slowest.path + " (" + millis(slowest.getNanos()) + " ms)";
+	}
+
+	@Override
+	public synchronized String getLargestDocument() {
+		return (largest == null) ? null : largest.path + " (" + largest.bytes + " bytes)";
+	}
+}
@@ -0,0 +1,59 @@
+/* Copyright 2017 Alicia Gonzalez Martinez
+ * COBHUNI Project, Universität Hamburg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ ********************************************************************/
+
+package de.uni_hamburg.pepper.cubhuni.json;
+
+/**
+ * Management interface of the {@link CubhuniImportMetrics}, showing the
+ * progress of a running import in a JMX console.
+ *
+ * @author Alicia Gonzalez
+ */
+public interface CubhuniImportMetricsMBean {
+
+	/** @return the number of documents mapped so far */
+	int getDocuments();
+
+	/** @return the number of decompressed bytes of the documents mapped so far */
+	long getBytesRead();
+
+	/** @return the number of bytes the documents mapped so far take on disk, compressed or not */
+	long getCompressedBytesRead();
+
+	/** @return the number of tokens created so far */
+	long getTokens();
+
+	/** @return the number of annotation spans created so far */
+	long getSpans();
+
+	/** @return the time spent reading and parsing documents, in milliseconds */
+	long getParseMillis();
+
+	/** @return the time spent building Salt graphs, in milliseconds */
+	long getBuildMillis();
+
+	/** @return the estimated size in bytes of the largest graph built so far */
+	long getPeakGraphBytes();
+
+	/** @return the last document mapped */
+	String getLastDocument();
+
+	/** @return the document with the longest parse and build time so far */
+	String getSlowestDocument();
+
+	/** @return the largest document mapped so far */
+	String getLargestDocument();
+}
@@ -0,0 +1,287 @@
+/* Copyright 2017 Alicia Gonzalez Martinez
+ * COBHUNI Project, Universität Hamburg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ ********************************************************************/
+
+package de.uni_hamburg.pepper.cubhuni.json;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.corpus_tools.salt.common.SDocument;
+import org.corpus_tools.salt.core.SMetaAnnotation;
+import org.corpus_tools.salt.util.SaltUtil;
+import org.eclipse.emf.common.util.URI;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps the results of previous runs for the incremental import. A manifest
+ * records, for each converted input file, its size, modification time and
+ * content digest, together with the fingerprint of the configuration used.
+ * The document-structure and the meta-annotations produced for each file are
+ * stored next to the manifest.
+ * <br/>
+ * A file is unchanged if its size and modification time are the ones in the
+ * manifest, or if its content digest is, in which case only the modification
+ * time changed. If the configuration changed, no file is unchanged.
+ * <br/>
+ * The manifest can be written while the import runs, as a checkpoint from
+ * which a killed run is resumed.
+ *
+ * <pre>
+ * &lt;dir&gt;/manifest.tsv
+ * &lt;dir&gt;/&lt;digest of input path&gt;.salt
+ * &lt;dir&gt;/&lt;digest of input path&gt;.meta.json
+ * </pre>
+ *
+ * @author Alicia Gonzalez
+ */
+public class CubhuniIncrementalCache {
+
+	private static final Logger logger = LoggerFactory.getLogger(CubhuniIncrementalCache.class);
+
+	private static final String MANIFEST = "manifest.tsv";
+	private static final String CONFIG_PREFIX = "# config ";
+	private static final String GRAPH_SUFFIX = ".salt";
+	private static final String META_SUFFIX = ".meta.json";
+
+	private static final class Entry {
+		final long size;
+		final long lastModified;
+		final String digest;
+
+		Entry(long size, long lastModified, String digest) {
+			this.size = size;
+			this.lastModified = lastModified;
+			this.digest = digest;
+		}
+	}
+
+	private final File dir;
+	private final String fingerprint;
+
+	/* documents stored between two checkpoints, 0 for no checkpoints */
+	private final int checkpointInterval;
+
+	/* input path to its entry, shared by all mappers */
+	private final Map<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+
+	private final AtomicInteger mapped = new AtomicInteger();
+	private final AtomicInteger reused = new AtomicInteger();
+	private int deleted = 0;
+
+	/**
+	 * Opens the cache in the given directory, reading the manifest of the
+	 * previous run. The manifest is ignored if it was written with another
+	 * configuration.
+	 *
+	 * @param checkpointInterval
+	 *            number of stored documents after which the manifest is
+	 *            written, 0 to write it only in {@link #save()}
+	 */
+	public CubhuniIncrementalCache(File dir, String fingerprint, int checkpointInterval) throws IOException {
+		this.dir = dir;
+		this.fingerprint = fingerprint;
+		this.checkpointInterval = checkpointInterval;
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			throw new IOException("Cannot create the incremental import directory " + dir);
+		}
+
+		File manifest = new File(dir, MANIFEST);
+		if (!manifest.isFile()) {
+			return;
+		}
+		BufferedReader reader = new BufferedReader(
+				new InputStreamReader(new FileInputStream(manifest), StandardCharsets.UTF_8));
+		try {
+			String line = reader.readLine();
+			if (line == null || !line.equals(CONFIG_PREFIX + fingerprint)) {
+				logger.info("Configuration changed since the last run, all documents are converted again.");
+				return;
+			}
+			while ((line = reader.readLine()) != null) {
+				String[] fields = line.split("\t");
+				if (fields.length == 4) {
+					entries.put(fields[0],
+							new Entry(Long.parseLong(fields[1]), Long.parseLong(fields[2]), fields[3]));
+				}
+			}
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * @return true if the input file did not change since the last run and its
+	 *         results are available
+	 */
+	public boolean isUnchanged(File input) throws IOException {
+		Entry entry = entries.get(input.getAbsolutePath());
+		if (entry == null) {
+			return false;
+		}
+		String key = key(input);
+		if (!new File(dir, key + GRAPH_SUFFIX).isFile() || !new File(dir, key + META_SUFFIX).isFile()) {
+			return false;
+		}
+		if (entry.size != input.length()) {
+			return false;
+		}
+		if (entry.lastModified == input.lastModified()) {
+			return true;
+		}
+		String digest = CubhuniDigest.sha1(input);
+		if (digest.equals(entry.digest)) {
+			entries.put(input.getAbsolutePath(), new Entry(entry.size, input.lastModified(), digest));
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Restores the document-structure and meta-annotations produced for the
+	 * input file in a previous run.
+	 */
+	public void restore(File input, SDocument document) throws IOException, ParseException {
+		String key = key(input);
+		document.setDocumentGraph(SaltUtil.loadDocumentGraph(URI.createFileURI(new File(dir, key + GRAPH_SUFFIX).getAbsolutePath())));
+
+		Reader reader = CubhuniInput.open(new File(dir, key + META_SUFFIX));
+		try {
+			JSONObject meta = (JSONObject) new JSONParser().parse(reader);
+			for (Object name : meta.keySet()) {
+				document.createMetaAnnotation(null, (String) name, meta.get(name));
+			}
+		} finally {
+			reader.close();
+		}
+		reused.incrementAndGet();
+	}
+
+	/**
+	 * Stores the document-structure and meta-annotations produced for the
+	 * input file, and records the file in the manifest. Every
+	 * <code>checkpointInterval</code> documents, the manifest is written.
+	 */
+	public void store(File input, SDocument document) throws IOException {
+		String key = key(input);
+		SaltUtil.saveDocumentGraph(document.getDocumentGraph(),
+				URI.createFileURI(new File(dir, key + GRAPH_SUFFIX).getAbsolutePath()));
+
+		Map<String, Object> meta = new TreeMap<String, Object>();
+		for (SMetaAnnotation annotation : document.getMetaAnnotations()) {
+			meta.put(annotation.getName(), annotation.getValue());
+		}
+		Writer writer = new OutputStreamWriter(new FileOutputStream(new File(dir, key + META_SUFFIX)),
+				StandardCharsets.UTF_8);
+		try {
+			writer.write(JSONObject.toJSONString(meta));
+		} finally {
+			writer.close();
+		}
+
+		entries.put(input.getAbsolutePath(), new Entry(input.length(), input.lastModified(), CubhuniDigest.sha1(input)));
+		int count = mapped.incrementAndGet();
+		if (checkpointInterval > 0 && count % checkpointInterval == 0) {
+			checkpoint();
+			logger.debug("Incremental import checkpoint after {} documents.", count);
+		}
+	}
+
+	/**
+	 * Forgets the input files of the manifest which are not among the given
+	 * inputs any more, and deletes their results.
+	 *
+	 * @return the paths of the deleted input files
+	 */
+	public List<String> removeDeleted(Collection<File> inputs) {
+		Set<String> current = new HashSet<String>();
+		for (File input : inputs) {
+			current.add(input.getAbsolutePath());
+		}
+		List<String> removed = new ArrayList<String>();
+		for (String path : new ArrayList<String>(entries.keySet())) {
+			if (!current.contains(path)) {
+				entries.remove(path);
+				String key = CubhuniDigest.sha1(path);
+				new File(dir, key + GRAPH_SUFFIX).delete();
+				new File(dir, key + META_SUFFIX).delete();
+				removed.add(path);
+			}
+		}
+		deleted += removed.size();
+		return removed;
+	}
+
+	/**
+	 * Writes the manifest, replacing the one of the previous run, and logs the
+	 * numbers of documents converted, reused and deleted.
+	 */
+	public void save() throws IOException {
+		checkpoint();
+		logger.info("Incremental import: {} documents converted, {} reused, {} inputs deleted.", mapped.get(),
+				reused.get(), deleted);
+	}
+
+	/**
+	 * Writes the manifest of the documents finished so far, so that a run
+	 * which is killed resumes from there: the documents in the manifest are
+	 * restored instead of being converted again. The manifest is written
+	 * aside and moved over the previous one in one step, so that a run killed
+	 * while writing it leaves the previous manifest.
+	 */
+	public synchronized void checkpoint() throws IOException {
+		File tmp = new File(dir, MANIFEST + ".tmp");
+		Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmp), StandardCharsets.UTF_8));
+		try {
+			writer.write(CONFIG_PREFIX + fingerprint + "\n");
+			for (Map.Entry<String, Entry> e : new TreeMap<String, Entry>(entries).entrySet()) {
+				Entry entry = e.getValue();
+				writer.write(e.getKey() + "\t" + entry.size + "\t" + entry.lastModified + "\t" + entry.digest + "\n");
+			}
+		} finally {
+			writer.close();
+		}
+		Files.move(tmp.toPath(), new File(dir, MANIFEST).toPath(), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	private static String key(File input) {
+		return CubhuniDigest.sha1(input.getAbsolutePath());
+	}
+}
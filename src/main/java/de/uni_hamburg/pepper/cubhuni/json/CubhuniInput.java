@@ -0,0 +1,294 @@
+/* Copyright 2017 Alicia Gonzalez Martinez
+ * COBHUNI Project, Universität Hamburg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ ********************************************************************/
+
+package de.uni_hamburg.pepper.cubhuni.json;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Opens the input files of the importer as UTF-8 readers, independently of
+ * the default charset of the machine running the conversion. Malformed UTF-8
+ * is reported as an {@link IOException} instead of being silently replaced.
+ * <br/>
+ * Large files are read through memory-mapped windows of a
+ * {@link FileChannel} and decoded directly from the mapped bytes into one
+ * decode buffer, which avoids a system call and a copy per read. Small files
+ * are read through a buffered stream.
+ * <br/>
+ * Files ending in <code>.gz</code> are decompressed while they are read,
+ * through a stream counting the decompressed bytes.
+ *
+ * @author Alicia Gonzalez
+ */
+public final class CubhuniInput {
+
+	/* files from this size on are memory-mapped */
+	static final long MAPPED_THRESHOLD = 1024 * 1024;
+
+	/* size of the mapped windows, files larger than 2GB are mapped in several windows */
+	private static final int WINDOW_SIZE = 64 * 1024 * 1024;
+
+	/* size in chars of the decode buffer */
+	private static final int DECODE_BUFFER_SIZE = 64 * 1024;
+
+	/* size in bytes of the buffer for small files */
+	private static final int STREAM_BUFFER_SIZE = 64 * 1024;
+
+	/** ending of gzip compressed files */
+	public static final String GZIP_ENDING = ".gz";
+
+	private CubhuniInput() {
+	}
+
+	/**
+	 * Counts the bytes read through it, such as the decompressed bytes of a
+	 * compressed file.
+	 */
+	public static final class CountingInputStream extends FilterInputStream {
+
+		private long count = 0;
+
+		CountingInputStream(InputStream in) {
+			super(in);
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = super.read();
+			if (b >= 0) {
+				count++;
+			}
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int n = super.read(b, off, len);
+			if (n > 0) {
+				count += n;
+			}
+			return n;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			long skipped = super.skip(n);
+			count += skipped;
+			return skipped;
+		}
+
+		@Override
+		public boolean markSupported() {
+			return false;
+		}
+
+		/**
+		 * @return the number of bytes read so far
+		 */
+		public long getCount() {
+			return count;
+		}
+	}
+
+	/**
+	 * @return true if the file is gzip compressed
+	 */
+	public static boolean isGzip(File file) {
+		return file.getName().endsWith(GZIP_ENDING);
+	}
+
+	/**
+	 * @return the name of a document file without its directory, its
+	 *         <code>.gz</code> ending and its extension, e.g.
+	 *         <code>x_original</code> for <code>dir/x_original.json.gz</code>
+	 */
+	public static String baseName(String path) {
+		String name = path.substring(Math.max(path.lastIndexOf('/'), path.lastIndexOf(File.separatorChar)) + 1);
+		if (name.endsWith(GZIP_ENDING)) {
+			name = name.substring(0, name.length() - GZIP_ENDING.length());
+		}
+		int dot = name.lastIndexOf('.');
+		return (dot > 0) ? name.substring(0, dot) : name;
+	}
+
+	/**
+	 * Opens a gzip compressed file, decompressing it while it is read.
+	 */
+	public static CountingInputStream gunzip(File file) throws IOException {
+		FileInputStream in = new FileInputStream(file);
+		try {
+			return new CountingInputStream(new GZIPInputStream(in, STREAM_BUFFER_SIZE));
+		} catch (IOException e) {
+			in.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Opens the given file for reading as UTF-8.
+	 */
+	public static Reader open(File file) throws IOException {
+		if (file.length() >= MAPPED_THRESHOLD) {
+			return new MappedUTF8Reader(file);
+		}
+		return open(new FileInputStream(file));
+	}
+
+	/**
+	 * Opens the given stream for reading as UTF-8.
+	 */
+	public static Reader open(InputStream stream) throws IOException {
+		BufferedInputStream in = new BufferedInputStream(stream, STREAM_BUFFER_SIZE);
+
+		/* skip a byte order mark */
+		in.mark(3);
+		if (in.read() != 0xEF || in.read() != 0xBB || in.read() != 0xBF) {
+			in.reset();
+		}
+		return new InputStreamReader(in, newDecoder());
+	}
+
+	/**
+	 * Opens the given byte range of a channel for reading as UTF-8, such as a
+	 * line of a {@link CubhuniBundle}. The range is read at once with
+	 * positional reads, which do not move the channel.
+	 */
+	public static Reader open(FileChannel channel, long offset, int length) throws IOException {
+		ByteBuffer bytes = ByteBuffer.allocate(length);
+		while (bytes.hasRemaining()) {
+			if (channel.read(bytes, offset + bytes.position()) < 0) {
+				throw new EOFException("Range " + offset + "+" + length + " is out of the file.");
+			}
+		}
+		return new InputStreamReader(new ByteArrayInputStream(bytes.array()), newDecoder());
+	}
+
+	private static CharsetDecoder newDecoder() {
+		return StandardCharsets.UTF_8.newDecoder().onMalformedInput(CodingErrorAction.REPORT)
+				.onUnmappableCharacter(CodingErrorAction.REPORT);
+	}
+
+	/**
+	 * Decodes UTF-8 from memory-mapped windows of a file.
+	 */
+	private static final class MappedUTF8Reader extends Reader {
+
+		private final RandomAccessFile file;
+		private final FileChannel channel;
+		private final long size;
+		private final CharsetDecoder decoder = newDecoder();
+
+		/* decoded chars not returned yet */
+		private final CharBuffer chars = CharBuffer.allocate(DECODE_BUFFER_SIZE);
+
+		private MappedByteBuffer window = null;
+		private long windowStart = 0;
+		private boolean lastWindow = false;
+		private boolean flushed = false;
+		private boolean started = false;
+
+		MappedUTF8Reader(File file) throws IOException {
+			this.file = new RandomAccessFile(file, "r");
+			this.channel = this.file.getChannel();
+			this.size = channel.size();
+			chars.flip();
+			map(0);
+		}
+
+		@Override
+		public int read(char[] cbuf, int off, int len) throws IOException {
+			if (len == 0) {
+				return 0;
+			}
+			while (!chars.hasRemaining()) {
+				if (flushed) {
+					return -1;
+				}
+				fill();
+			}
+			int n = Math.min(len, chars.remaining());
+			chars.get(cbuf, off, n);
+			return n;
+		}
+
+		@Override
+		public void close() throws IOException {
+			window = null;
+			file.close();
+		}
+
+		/*
+		 * maps the window starting at the given position of the file
+		 */
+		private void map(long start) throws IOException {
+			long length = Math.min(WINDOW_SIZE, size - start);
+			window = channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+			windowStart = start;
+			lastWindow = start + length >= size;
+		}
+
+		/*
+		 * decodes the next chars into the decode buffer
+		 */
+		private void fill() throws IOException {
+			chars.clear();
+			while (!flushed) {
+				CoderResult result = decoder.decode(window, chars, lastWindow);
+				if (result.isError()) {
+					result.throwException();
+				}
+				if (result.isOverflow()) {
+					break;
+				}
+				if (lastWindow) {
+					decoder.flush(chars);
+					flushed = true;
+				} else {
+					/* bytes of a char split between windows are mapped again */
+					map(windowStart + window.position());
+				}
+			}
+			chars.flip();
+
+			/* skip a byte order mark */
+			if (!started) {
+				started = true;
+				if (chars.hasRemaining() && chars.get(chars.position()) == '\uFEFF') {
+					chars.get();
+				}
+			}
+		}
+	}
+}
@@ -17,21 +17,22 @@
 package de.uni_hamburg.pepper.cubhuni.json;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
-import org.json.simple.JSONArray;
-import org.json.simple.JSONObject;
-import org.json.simple.parser.JSONParser;
 import org.json.simple.parser.ParseException;
 
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.IOException;
-import java.util.Iterator;
 
 import org.apache.commons.io.FilenameUtils;
 import org.corpus_tools.pepper.common.DOCUMENT_STATUS;
@@ -48,9 +49,6 @@ import org.corpus_tools.salt.SaltFactory;
 import org.corpus_tools.salt.common.SCorpus;
 import org.corpus_tools.salt.common.SCorpusGraph;
 import org.corpus_tools.salt.common.SDocument;
-import org.corpus_tools.salt.common.SSpan;
-import org.corpus_tools.salt.common.STextualDS;
-import org.corpus_tools.salt.common.SToken;
 import org.corpus_tools.salt.graph.Identifier;
 import org.eclipse.emf.common.util.URI;
 import org.osgi.service.component.annotations.Component;
@@ -58,74 +56,110 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * This is a dummy implementation of a {@link PepperImporter}, which can be used
- * as a template to create your own module from. The current implementation
- * creates a corpus-structure looking like this:
- * 
- * <pre>
- *       c1
- *    /      \
- *   c2      c3
- *  /  \    /  \
- * d1  d2  d3  d4
- * </pre>
- * 
- * For each document d1, d2, d3 and d4 the same document-structure is created.
- * The document-structure contains the following structure and annotations:
- * <ol>
- * <li>primary data</li>
- * <li>tokenization</li>
- * <li>part-of-speech annotation for tokenization</li>
- * <li>information structure annotation via spans</li>
- * <li>anaphoric relation via pointing relation</li>
- * <li>syntactic annotations</li>
- * </ol>
- * This dummy implementation is supposed to give you an impression, of how
- * Pepper works and how you can create your own implementation along that dummy.
- * It further shows some basics of creating a simple Salt model. <br/>
- * <strong>This code contains a lot of TODO's. Please have a look at them and
- * adapt the code for your needs </strong> At least, a list of not used but
- * helpful methods:
- * <ul>
- * <li>the salt model to fill can be accessed via {@link #getSaltProject()}</li>
- * <li>customization properties can be accessed via {@link #getPro	private static String KEY_POS_IN;
-	private static String KEY_LEMMA_IN;
-	private static String KEY_ROOT_IN;
-perties()}
- * </li>
- * <li>a place where resources of this bundle are, can be accessed via
- * {@link #getResources()}</li>
- * </ul>
- * If this is the first time, you are implementing a Pepper module, we strongly
- * recommend, to take a look into the 'Developer's Guide for Pepper modules',
- * you will find on
- * <a href="http://corpus-tools.org/pepper/">http://corpus-tools.org/pepper</a>.
- * 
- * @author Alicia Gonzalez 
+ * Imports a corpus of COBHUNI JSON documents into Salt. Each document holds
+ * a text, its tokens with their offsets and annotations, spans of annotation
+ * groups such as persons, motives, sections and pages, and a metadata
+ * object; which keys these are is read from a configuration file compiled
+ * once into a {@link CubhuniMappingPlan}.
+ * <br/>
+ * The corpus-structure follows the directories of the corpus, scanned in
+ * parallel by a {@link CubhuniCorpusScanner}: each directory becomes a
+ * corpus, whose metadata are read from the metadata file named after it,
+ * and each JSON file a document. A file may be gzip compressed, a {@link CubhuniBundle} of
+ * JSON lines or a {@link CubhuniArchive}, whose lines or entries become
+ * documents of a sub-corpus. A file larger than <code>shardBytes</code> is
+ * split by the {@link CubhuniSharder} into shards mapped as documents of
+ * their own, and the documents not meeting the <code>metaFilter</code> are
+ * left out.
+ * <br/>
+ * Each mapper reads its document with a {@link CubhuniJSONReader}, as a
+ * JSON tree or as a stream of events, possibly read ahead by a
+ * {@link CubhuniReadAhead} and under the heap budget of a
+ * {@link CubhuniAdmission}, and builds its document-graph from the staged
+ * parts. The documents are mapped largest first if a
+ * {@link CubhuniScheduleIndex} is set. The results of unchanged files are
+ * restored from the {@link CubhuniIncrementalCache}, documents which fail
+ * are recorded by the {@link CubhuniQuarantine}, and the metrics of each
+ * document are reported by the {@link CubhuniImportMetrics} at the end of
+ * the run.
+ * <br/>
+ * The customization properties are described in
+ * {@link CubhuniJSONImporterProperties}.
+ *
+ * @author Alicia Gonzalez
  */
 @Component(name = "CubhuniJSONImporterComponent", factory = "PepperImporterComponentFactory")
 public class CubhuniJSONImporter extends PepperImporterImpl implements PepperImporter {
 	
 	private static final Logger logger = LoggerFactory.getLogger(CubhuniJSONImporter.class);
 	
-	private static final Properties props = new Properties();
-    private static final Map<String, String> ANNOTATIONS = new HashMap<String, String>();
+	/* immutable mapping plan shared by all mappers, loaded once in getPlan() */
+	private volatile CubhuniMappingPlan plan = null;
+	
+	/* reader shared by all mappers of this importer */
+	private CubhuniJSONReader reader = null;
+	
+	/* corpus-wide dictionary of annotation values, null if values are not interned */
+	private CubhuniValueDictionary dictionary = null;
+	
+	/* binary copies of the documents, null if sidecars are disabled */
+	private CubhuniSidecar sidecar = null;
+	
+	/* read-ahead stage, null if reading ahead is disabled */
+	private CubhuniReadAhead readAhead = null;
+	
+	/* corpus metadata files parsed by the mappers of this importer */
+	private final CubhuniMetaCache metaCache = new CubhuniMetaCache();
+	
+	/* results of previous runs, null if the import is not incremental */
+	private CubhuniIncrementalCache incremental = null;
+	
+	/* error records of failed documents, null if not kept */
+	private CubhuniQuarantine quarantine = null;
+	
+	/* shards of the oversized documents, null if sharding is disabled */
+	private CubhuniSharder sharder = null;
+	
+	/* per-document metrics of the current run */
+	private CubhuniImportMetrics metrics = null;
+	
+	/* heap budget of the documents being mapped, null if admission control is disabled */
+	private CubhuniAdmission admission = null;
+	
+	/* recognizes COBHUNI JSON in isImportable(), created on first use */
+	private CubhuniFormatSniffer sniffer = null;
+	
+	/* measured mapping times of the documents, null if documents are not scheduled largest-first */
+	private CubhuniScheduleIndex schedule = null;
+	
+	/* documents must meet it to be imported, null if all documents are imported */
+	private CubhuniMetaFilter metaFilter = null;
+	private int filtered = 0;
 	
 	/**
-	 * Load constants
-	 * @throws IOException 
+	 * @return the mapping plan of the configuration file set in the
+	 *         <code>mappingConfig</code> property, or of the configuration
+	 *         bundled on the classpath, with the mapping keys set as
+	 *         customization properties replaced, loaded on the first call only
+	 * @throws IllegalArgumentException
+	 *             if a key needed by the mapping is missing
 	 */
-	private static void loadConfig() throws IOException {
-		String configfilepath = "/home/alicia/COBHUNI/development/corpus/visualization/processing/pepperModules-CUBHUNIModules/config.properties"; //FIXME
-		File configFile = new File(configfilepath);
-		FileReader configReader = new FileReader(configFile);
-		props.load(configReader);
-		
-	    ANNOTATIONS.put(props.getProperty("persons"), props.getProperty("key_person"));
-	    ANNOTATIONS.put(props.getProperty("metamotives"), props.getProperty("key_metamotive"));
-	    ANNOTATIONS.put(props.getProperty("motives"), props.getProperty("key_motive"));
-	    ANNOTATIONS.put(props.getProperty("sections"), props.getProperty("key_section"));
-	    ANNOTATIONS.put(props.getProperty("pages"), props.getProperty("key_page"));
+	private synchronized CubhuniMappingPlan getPlan() throws IOException {
+		if (plan == null) {
+			CubhuniJSONImporterProperties properties = (CubhuniJSONImporterProperties) getProperties();
+			String config = properties.getMappingConfig();
+			Properties overrides = properties.getMappingOverrides();
+			if (config == null) {
+				plan = CubhuniMappingPlan.loadDefault(overrides);
+			} else {
+				plan = CubhuniMappingPlan.load(new File(config), overrides);
+				logger.info("COBHUNI configuration loaded from {}.", config);
+			}
+			if (!overrides.isEmpty()) {
+				logger.info("COBHUNI configuration keys {} replaced by customization properties.", overrides.keySet());
+			}
+		}
+		return plan;
 	}
 	
 
@@ -139,14 +173,10 @@ public class CubhuniJSONImporter extends PepperImporterImpl implements PepperImp
 	public CubhuniJSONImporter() {
 		super();
 		
-		try {
-			loadConfig();
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
-		
 		setName("CubhuniJSONImporter");
 		
+		setProperties(new CubhuniJSONImporterProperties());
+		
 		// TODO change suppliers e-mail address
 		setSupplierContact(URI.createURI(PepperConfiguration.EMAIL));
 		
@@ -160,7 +190,12 @@ public class CubhuniJSONImporter extends PepperImporterImpl implements PepperImp
 		addSupportedFormat("json", "1.0", null);
 		
 		// TODO change the endings in endings of files you want to import, see  also predefined endings beginning with 'ENDING_'
-		getDocumentEndings().add("json");		
+		getDocumentEndings().add("json");
+		getDocumentEndings().add("json" + CubhuniInput.GZIP_ENDING);
+		getDocumentEndings().add(CubhuniArchive.ENDING);
+		for (String ending : CubhuniBundle.ENDINGS) {
+			getDocumentEndings().add(ending);
+		}
 	}
 	
 
@@ -204,20 +239,132 @@ public class CubhuniJSONImporter extends PepperImporterImpl implements PepperImp
 	 * <li>salt:/c1/c3/d4</li>
 	 * </ul>
 	 * 
+	 * Here the input tree is walked in parallel by a
+	 * {@link CubhuniCorpusScanner}: directories become corpora and
+	 * sub-corpora, and json files become documents, except the corpus
+	 * metadata files, which are excluded before they become documents. If
+	 * sharding is enabled, an oversized json file is read here to find its
+	 * cuts and becomes a sub-corpus of its shards, see {@link CubhuniSharder}. A JSON Lines
+	 * bundle becomes a sub-corpus of its lines, see {@link CubhuniBundle},
+	 * and a zip archive a sub-corpus of its json entries, see
+	 * {@link CubhuniArchive}. Gzip compressed json files are documents.
+	 * 
 	 * @param corpusGraph
 	 *            the CorpusGraph object, which has to be filled.
 	 */
-	//FIXME lo unico que faltaria es crear la estructura correcta del corpus con subcorpus. pero los subcorpus pueden tener metadatos?? merece la pena??
 	@Override
 	public void importCorpusStructure(SCorpusGraph sCorpusGraph) throws PepperModuleException {
-		/**
-		 * TODO this implementation is just a showcase, in production you might
-		 * want to use the default. If yes, uncomment the following line and
-		 * delete the rest of the implementation, or delete the entire method to
-		 * trigger the default method.
-		 */
+		CubhuniJSONImporterProperties properties = (CubhuniJSONImporterProperties) getProperties();
+		try {
+			getPlan();
+		} catch (IOException | IllegalArgumentException e) {
+			throw new PepperModuleException(this, "Cannot load the COBHUNI configuration.", e);
+		}
+
+		/* documents in the order of the corpus graph, metadata files are never documents */
+		List<URI> resources = new ArrayList<URI>();
+		/* all files scanned, before the metadata filter and the split of oversized files */
+		List<File> inputs = new ArrayList<File>();
+		List<PendingDocument> documents = new ArrayList<PendingDocument>();
+
+		if (properties.getShardBytes() > 0) {
+			getReader();
+			sharder = new CubhuniSharder(plan, dictionary, properties.getShardTokens(),
+					properties.getShardBoundaries());
+		}
+		
+		if (properties.getMetaFilter() != null) {
+			try {
+				metaFilter = CubhuniMetaFilter.parse(properties.getMetaFilter(), plan);
+			} catch (IllegalArgumentException e) {
+				throw new PepperModuleException(this, "Cannot read the metadata filter.", e);
+			}
+		}
+
+		File corpusPath = new File(getCorpusDesc().getCorpusPath().toFileString());
+		long start = System.currentTimeMillis();
+		try {
+			CubhuniCorpusScanner scanner = new CubhuniCorpusScanner(getDocumentEndings(), plan.metaFileSuffix,
+					Runtime.getRuntime().availableProcessors());
+			CubhuniCorpusScanner.Dir root;
+			if (corpusPath.isDirectory()) {
+				root = scanner.scan(corpusPath);
+			} else {
+				/* a single document in a corpus named after its directory */
+				root = new CubhuniCorpusScanner.Dir(corpusPath.getAbsoluteFile().getParentFile());
+				if (scanner.isDocument(corpusPath.getName())) {
+					root.documents.add(corpusPath);
+				}
+			}
+			root.collectDocuments(inputs);
+			createCorpusStructure(sCorpusGraph, null, root, documents);
+			if (properties.getScheduleIndex() != null) {
+				schedule = new CubhuniScheduleIndex(new File(properties.getScheduleIndex()), plan);
+				schedule(documents);
+			}
+			createDocuments(sCorpusGraph, documents, resources);
+			logger.info("Corpus-structure of {} built in {} ms: {} documents, {} metadata files excluded.", corpusPath,
+					System.currentTimeMillis() - start, root.countDocuments(), root.countMetaFiles());
+			if (metaFilter != null) {
+				logger.info("{} documents left out by the metadata filter '{}'.", filtered, metaFilter);
+			}
+		} catch (IOException e) {
+			throw new PepperModuleException(this, "Cannot read the corpus-structure of " + corpusPath, e);
+		}
+
+		if (properties.getIncrementalDir() != null) {
+			try {
+				incremental = new CubhuniIncrementalCache(new File(properties.getIncrementalDir()), plan.getFingerprint(),
+						properties.getCheckpointInterval());
+				
+				/* a file left out by the metadata filter is not deleted, its results are kept */
+				for (String path : incremental.removeDeleted(inputs)) {
+					logger.warn("Input file {} was deleted since the last run.", path);
+				}
+				
+				/* unchanged documents are restored, not read */
+				List<URI> changed = new ArrayList<URI>();
+				for (URI resource : resources) {
+					if (!incremental.isUnchanged(new File(resource.path()))) {
+						changed.add(resource);
+					}
+				}
+				resources = changed;
+				
+			} catch (IOException e) {
+				throw new PepperModuleException(this, "Cannot open the incremental import directory " + properties.getIncrementalDir(), e);
+			}
+		}
 		
-		super.importCorpusStructure(sCorpusGraph);
+		if (properties.getQuarantineDir() != null) {
+			try {
+				quarantine = new CubhuniQuarantine(new File(properties.getQuarantineDir()), plan.getFingerprint(),
+						getVersion());
+			} catch (IOException e) {
+				throw new PepperModuleException(this, "Cannot open the quarantine directory " + properties.getQuarantineDir(), e);
+			}
+			
+			/* documents which failed in a previous run are not read ahead */
+			List<URI> readable = new ArrayList<URI>();
+			for (URI resource : resources) {
+				if (!quarantine.isQuarantined(new File(resource.path()))) {
+					readable.add(resource);
+				}
+			}
+			resources = readable;
+		}
+		
+		metrics = new CubhuniImportMetrics();
+		metrics.register();
+		
+		if (properties.getHeapBudget() > 0) {
+			admission = new CubhuniAdmission(CubhuniAdmission.budgetOf(properties.getHeapBudget()));
+		}
+		
+		if (properties.getPrefetchDepth() > 0) {
+			readAhead = new CubhuniReadAhead(getReader(), resources, properties.getPrefetchDepth(),
+					properties.getPrefetchThreads(), admission);
+		}
 
 		/*
 		setCorpusGraph(sCorpusGraph);
@@ -248,6 +395,256 @@ public class CubhuniJSONImporter extends PepperImporterImpl implements PepperImp
 		*/
 	}
 
+	/*
+	 * a document of the corpus-structure, created once all corpora are, so
+	 * that documents can be created in the order they are to be mapped
+	 */
+	private static final class PendingDocument {
+		final SCorpus corpus;
+		final String name;
+		final URI resource;
+		final String sourceType;
+
+		/* number of tokens of a shard, known from its cuts, -1 for other documents */
+		final int tokens;
+
+		long cost = 0;
+
+		PendingDocument(SCorpus corpus, String name, URI resource, String sourceType, int tokens) {
+			this.corpus = corpus;
+			this.name = name;
+			this.resource = resource;
+			this.sourceType = sourceType;
+			this.tokens = tokens;
+		}
+	}
+
+	/*
+	 * orders the documents by their estimated mapping time, longest first,
+	 * keeping the corpus-structure order of documents estimated alike; Pepper
+	 * maps the documents in the order they are created in, the schedule index
+	 * logs the documents whose mapping started out of this order; while the
+	 * index scans the documents to estimate them, they are estimated on as
+	 * many threads as the corpus is scanned on
+	 */
+	private void schedule(List<PendingDocument> documents) {
+		if (schedule.isScanning() && documents.size() > 1) {
+			ExecutorService pool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+			try {
+				List<Future<?>> estimates = new ArrayList<Future<?>>(documents.size());
+				for (final PendingDocument document : documents) {
+					estimates.add(pool.submit(new Runnable() {
+						@Override
+						public void run() {
+							document.cost = schedule.estimate(document.resource, document.tokens);
+						}
+					}));
+				}
+				for (Future<?> estimate : estimates) {
+					estimate.get();
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new PepperModuleException(this, "Interrupted while the documents were scheduled.", e);
+			} catch (ExecutionException e) {
+				throw new PepperModuleException(this, "Cannot schedule the documents.", e.getCause());
+			} finally {
+				pool.shutdownNow();
+			}
+		} else {
+			for (PendingDocument document : documents) {
+				document.cost = schedule.estimate(document.resource, document.tokens);
+			}
+		}
+		Collections.sort(documents, new Comparator<PendingDocument>() {
+			@Override
+			public int compare(PendingDocument d1, PendingDocument d2) {
+				return Long.compare(d2.cost, d1.cost);
+			}
+		});
+		List<URI> order = new ArrayList<URI>(documents.size());
+		for (PendingDocument document : documents) {
+			order.add(document.resource);
+		}
+		schedule.order(order);
+		if (!documents.isEmpty()) {
+			logger.info("{} documents scheduled largest first, the first one is {} with an estimated {} ms.",
+					documents.size(), documents.get(0).resource, documents.get(0).cost / 1000000);
+		}
+	}
+
+	/*
+	 * creates the documents and registers their resources; the resources are
+	 * appended to the given list in creation order, except the shards, which
+	 * are read by the sharder
+	 */
+	private void createDocuments(SCorpusGraph sCorpusGraph, List<PendingDocument> documents, List<URI> resources) {
+		for (PendingDocument pending : documents) {
+			SDocument document = sCorpusGraph.createDocument(pending.corpus, pending.name);
+			if (pending.sourceType != null) {
+				document.createMetaAnnotation(null, plan.sourceTypeKey, pending.sourceType);
+			}
+			getIdentifier2ResourceTable().put(document.getIdentifier(), pending.resource);
+			if (pending.tokens < 0) {
+				resources.add(pending.resource);
+			}
+		}
+	}
+
+	/**
+	 * Maps the scanned directory to a corpus and its subdirectories to
+	 * sub-corpora, and registers the resource of each corpus. The documents
+	 * are appended to the given list in corpus-structure order, to be created
+	 * once all corpora are.
+	 */
+	private void createCorpusStructure(SCorpusGraph sCorpusGraph, SCorpus parent, CubhuniCorpusScanner.Dir dir,
+			List<PendingDocument> documents) throws IOException {
+		String name = dir.dir.getName();
+		SCorpus corpus = (parent == null) ? sCorpusGraph.createCorpus(URI.createURI("salt:/" + name)).get(0)
+				: sCorpusGraph.createCorpus(parent, name);
+		getIdentifier2ResourceTable().put(corpus.getIdentifier(), URI.createFileURI(dir.dir.getAbsolutePath()));
+
+		for (File file : dir.documents) {
+			if (CubhuniBundle.isBundle(file.getName())) {
+				createBundle(sCorpusGraph, corpus, file, documents);
+				continue;
+			}
+			if (CubhuniArchive.isArchive(file.getName())) {
+				createArchive(sCorpusGraph, corpus, file, documents);
+				continue;
+			}
+			if (!accept(URI.createFileURI(file.getAbsolutePath()), sourceTypeOf(CubhuniInput.baseName(file.getName())))) {
+				continue;
+			}
+			if (sharder != null && file.length() > ((CubhuniJSONImporterProperties) getProperties()).getShardBytes()
+					&& createShards(sCorpusGraph, corpus, file, documents)) {
+				continue;
+			}
+			documents.add(new PendingDocument(corpus, CubhuniInput.baseName(file.getName()),
+					URI.createFileURI(file.getAbsolutePath()), null, -1));
+		}
+		for (CubhuniCorpusScanner.Dir subdir : dir.subdirs) {
+			createCorpusStructure(sCorpusGraph, corpus, subdir, documents);
+		}
+	}
+
+	/**
+	 * Indexes a JSON Lines bundle and creates a sub-corpus named after it with
+	 * one document per line. A document is named after its id, or after its
+	 * line if it has none, and gets the source type of its line.
+	 */
+	private void createBundle(SCorpusGraph sCorpusGraph, SCorpus parent, File file, List<PendingDocument> documents)
+			throws IOException {
+		CubhuniJSONImporterProperties properties = (CubhuniJSONImporterProperties) getProperties();
+		List<CubhuniBundle.Entry> entries = CubhuniBundle.index(file, properties.getBundleIdKey(), plan.sourceTypeKey);
+
+		URI bundle = URI.createFileURI(file.getAbsolutePath());
+		SCorpus corpus = sCorpusGraph.createCorpus(parent, FilenameUtils.getBaseName(file.getName()));
+		getIdentifier2ResourceTable().put(corpus.getIdentifier(), bundle);
+
+		Set<String> names = new HashSet<String>();
+		for (CubhuniBundle.Entry entry : entries) {
+			URI resource = CubhuniBundle.resourceOf(bundle, entry);
+			if (!accept(resource, entry.sourceType)) {
+				continue;
+			}
+			String name = (entry.id == null) ? "line" + entry.line : entry.id.replaceAll("[^\\p{L}\\p{N}_.-]", "_");
+			if (!names.add(name)) {
+				logger.warn("Duplicate document id {} in line {} of {}.", entry.id, entry.line, file);
+				name = name + "_line" + entry.line;
+				names.add(name);
+			}
+			documents.add(new PendingDocument(corpus, name, resource, entry.sourceType, -1));
+		}
+		logger.info("Indexed {} documents in the bundle {}.", entries.size(), file);
+	}
+
+	/**
+	 * Creates a sub-corpus named after a zip archive with one document per
+	 * json entry, named after the path of the entry in the archive.
+	 */
+	private void createArchive(SCorpusGraph sCorpusGraph, SCorpus parent, File file, List<PendingDocument> documents)
+			throws IOException {
+		URI archive = URI.createFileURI(file.getAbsolutePath());
+		SCorpus corpus = sCorpusGraph.createCorpus(parent, FilenameUtils.getBaseName(file.getName()));
+		getIdentifier2ResourceTable().put(corpus.getIdentifier(), archive);
+
+		List<String> entries = CubhuniArchive.index(file, plan.metaFileSuffix);
+		for (String entry : entries) {
+			URI resource = CubhuniArchive.resourceOf(archive, entry);
+			if (!accept(resource, sourceTypeOf(CubhuniInput.baseName(entry)))) {
+				continue;
+			}
+			String name = entry.substring(0, entry.length() - ".json".length()).replaceAll("[^\\p{L}\\p{N}_.-]", "_");
+			documents.add(new PendingDocument(corpus, name, resource, null, -1));
+		}
+		logger.info("Indexed {} documents in the archive {}.", entries.size(), file);
+	}
+
+	/*
+	 * true if the document meets the metadata filter, of which only the meta
+	 * object is read. A document whose meta object cannot be read is kept, so
+	 * that it fails and is reported when it is mapped.
+	 */
+	private boolean accept(URI resource, String sourceType) {
+		if (metaFilter == null) {
+			return true;
+		}
+		try {
+			if (metaFilter.matches(getReader().readMeta(resource), sourceType)) {
+				return true;
+			}
+		} catch (IOException | ParseException | RuntimeException e) {
+			logger.warn("Cannot read the metadata of {} for the metadata filter, it is imported.", resource, e);
+			return true;
+		}
+		filtered++;
+		return false;
+	}
+
+	/* the source type a document file is named after, or null */
+	private String sourceTypeOf(String source) {
+		if (source.endsWith(plan.commentary)) {
+			return plan.commentary;
+		}
+		return source.endsWith(plan.original) ? plan.original : null;
+	}
+
+	/**
+	 * Reads an oversized file to find its cuts and, if it is split, creates a
+	 * sub-corpus named after it with one document per shard. The resource of
+	 * a shard is the file URI with the fragment <code>shard&lt;index&gt;</code>.
+	 * Only the cuts are kept, the file is read again when its first shard is
+	 * mapped.
+	 * 
+	 * @return false if the file is not split and is to be mapped as one
+	 *         document
+	 */
+	private boolean createShards(SCorpusGraph sCorpusGraph, SCorpus parent, File file, List<PendingDocument> documents) {
+		URI resource = URI.createFileURI(file.getAbsolutePath());
+		int[] tokens;
+		try {
+			tokens = sharder.register(resource, getReader().read(resource));
+		} catch (IOException | ParseException | RuntimeException e) {
+			logger.warn("Cannot read the oversized file {} to split it, it is mapped as one document.", file, e);
+			return false;
+		}
+		if (tokens == null) {
+			return false;
+		}
+
+		String name = CubhuniInput.baseName(file.getName());
+		SCorpus corpus = sCorpusGraph.createCorpus(parent, name);
+		getIdentifier2ResourceTable().put(corpus.getIdentifier(), resource);
+		String format = "%s_%0" + String.valueOf(tokens.length - 1).length() + "d";
+		for (int i = 0; i < tokens.length; i++) {
+			documents.add(new PendingDocument(corpus, String.format(format, name, i),
+					CubhuniSharder.shardOf(resource, i), null, tokens[i]));
+		}
+		logger.info("Split {} into {} shards.", file, tokens.length);
+		return true;
+	}
+
 	/**
 	 * <strong>OVERRIDE THIS METHOD FOR CUSTOMIZATION</strong> <br/>
 	 * This method creates a customized {@link PepperMapper} object and returns
@@ -282,8 +679,97 @@ public class CubhuniJSONImporter extends PepperImporterImpl implements PepperImp
 		 * line
 		 */
 		mapper.setResourceURI(getIdentifier2ResourceTable().get(Identifier));
+		mapper.setProperties(getProperties());
+		mapper.plan = plan;
+		mapper.reader = getReader();
+		mapper.readAhead = readAhead;
+		mapper.metaCache = metaCache;
+		mapper.incremental = incremental;
+		mapper.quarantine = quarantine;
+		mapper.sharder = sharder;
+		mapper.metrics = metrics;
+		mapper.admission = admission;
+		mapper.schedule = schedule;
 		return (mapper);
 	}
+	
+	/**
+	 * @return the reader shared by all mappers, created on first use
+	 */
+	private synchronized CubhuniJSONReader getReader() {
+		if (reader == null) {
+			CubhuniJSONImporterProperties properties = (CubhuniJSONImporterProperties) getProperties();
+			if (properties.getInternCapacity() > 0) {
+				dictionary = new CubhuniValueDictionary(properties.getInternCapacity());
+			}
+			if (properties.isSidecar()) {
+				sidecar = new CubhuniSidecar(plan, dictionary);
+			}
+			reader = new CubhuniJSONReader(plan, properties.isStreaming(), sidecar, dictionary);
+		}
+		return reader;
+	}
+	
+	/**
+	 * Stops reading documents ahead once all documents are mapped, logs the
+	 * corpus metadata cache statistics and the import metrics, and writes the
+	 * metrics report and the manifest of the incremental import.
+	 */
+	@Override
+	public void end() throws PepperModuleException {
+		if (readAhead != null) {
+			readAhead.shutdown();
+			readAhead = null;
+		}
+		metaCache.logStatistics();
+		if (sidecar != null) {
+			sidecar.logStatistics();
+		}
+		if (dictionary != null) {
+			dictionary.logStatistics();
+		}
+		if (quarantine != null) {
+			quarantine.logStatistics();
+		}
+		if (admission != null) {
+			admission.logStatistics();
+		}
+		if (reader != null) {
+			reader.close();
+		}
+		/*
+		 * the manifest first, as a run is only resumable with it; each file is
+		 * saved on its own, so that one failing does not lose the others
+		 */
+		if (incremental != null) {
+			try {
+				incremental.save();
+			} catch (IOException e) {
+				logger.error("Cannot write the manifest of the incremental import, "
+						+ "the next run converts all documents again.", e);
+			}
+		}
+		if (schedule != null) {
+			try {
+				schedule.save();
+			} catch (IOException e) {
+				logger.error("Cannot write the schedule index.", e);
+			}
+		}
+		if (metrics != null) {
+			metrics.unregister();
+			metrics.logSummary();
+			String report = ((CubhuniJSONImporterProperties) getProperties()).getMetricsReport();
+			if (report != null) {
+				try {
+					metrics.writeReport(new File(report));
+				} catch (IOException e) {
+					logger.error("Cannot write the import metrics report {}.", report, e);
+				}
+			}
+		}
+		super.end();
+	}
 
 	/**
 	 * This class is a dummy implementation for a mapper, to show how it works.
@@ -297,6 +783,18 @@ public class CubhuniJSONImporter extends PepperImporterImpl implements PepperImp
 	 *
 	 */
 	public static class CubhuniJSONMapper extends PepperMapperImpl {
+		
+		private CubhuniMappingPlan plan = null;
+		private CubhuniJSONReader reader = null;
+		private CubhuniReadAhead readAhead = null;
+		private CubhuniMetaCache metaCache = null;
+		private CubhuniIncrementalCache incremental = null;
+		private CubhuniQuarantine quarantine = null;
+		private CubhuniSharder sharder = null;
+		private CubhuniImportMetrics metrics = null;
+		private CubhuniAdmission admission = null;
+		private CubhuniScheduleIndex schedule = null;
+		
 		/**
 		 * <strong>OVERRIDE THIS METHOD FOR CUSTOMIZATION</strong> <br/>
 		 * If you need to make any adaptations to the corpora like adding
@@ -311,18 +809,28 @@ public class CubhuniJSONImporter extends PepperImporterImpl implements PepperImp
 		public DOCUMENT_STATUS mapSCorpus() {
 			
 			/* add all corpus metadata */
-			String metapath = this.getResourceURI().path() + "/" +
-                              FilenameUtils.getBaseName(this.getResourceURI().path()) +
-                              CubhuniJSONImporter.props.getProperty("meta_file_suf");
+			File metaFile = new File(this.getResourceURI().path(),
+			                         FilenameUtils.getBaseName(this.getResourceURI().path()) + plan.metaFileSuffix);
 			
-			JSONParser parser = new JSONParser();
-			JSONObject jsonObj;
 			try {
-				jsonObj = (JSONObject) parser.parse(new FileReader(metapath));
-				getCorpus().createMetaAnnotation(null, "ProjectURI", (String) jsonObj.get("ProjectURI"));
+				Map<String, Object> meta = (metaCache != null) ? metaCache.get(metaFile) : new CubhuniMetaCache().get(metaFile);
+				if (meta == null) {
+					logger.debug("No corpus metadata file {}.", metaFile);
+				} else {
+					for (Map.Entry<String, Object> entry : meta.entrySet()) {
+						if (entry.getValue() != null) {
+							Object value = entry.getValue();
+							if (!(value instanceof String || value instanceof Number || value instanceof Boolean)) {
+								value = value.toString();
+							}
+							getCorpus().createMetaAnnotation(null, entry.getKey(), value);
+						}
+					}
+				}
 				
-			} catch (IOException | ParseException e) {
-				e.printStackTrace();
+			} catch (IOException | ParseException | RuntimeException e) {
+				logger.error("Cannot read the corpus metadata file {}, the corpus {} has no metadata.", metaFile,
+						getCorpus().getName(), e);
 			}
 			
 			return (DOCUMENT_STATUS.COMPLETED);
@@ -355,249 +863,151 @@ public class CubhuniJSONImporter extends PepperImporterImpl implements PepperImp
 			URI resource = getResourceURI();
 			
 			logger.debug("Importing the file {}.", resource);
+			if (schedule != null) {
+				schedule.started(resource);
+			}
+
+			File input = new File(resource.path());
 			
-			/* skip metadata files */
-			if (resource.path().endsWith(CubhuniJSONImporter.props.getProperty("meta_file_suf"))) {
-				return (DOCUMENT_STATUS.COMPLETED);
+			/*
+			 * a shard, a line of a bundle or an entry of an archive is a part of a
+			 * file, it is neither quarantined nor kept incrementally
+			 */
+			boolean part = resource.hasFragment();
+			CubhuniQuarantine quarantine = part ? null : this.quarantine;
+			if (quarantine != null && quarantine.isQuarantined(input)) {
+				quarantine.skip(input);
+				return (DOCUMENT_STATUS.FAILED);
 			}
 			
-			System.err.println("\033[0;31m::DEBUG::" + " FILE=" + resource + "\033[0m"); //DEBUG
+			/* a shard is read with the other shards of its file when the first of them is taken */
+			boolean shard = sharder != null && sharder.isShard(resource);
+			if (!part && incremental != null) {
+				try {
+					if (incremental.isUnchanged(input)) {
+						incremental.restore(input, getDocument());
+						return (DOCUMENT_STATUS.COMPLETED);
+					}
+				} catch (IOException | ParseException | RuntimeException e) {
+					logger.warn("Cannot restore the results of the last run for {}, converting it again.", resource, e);
+					this.getDocument().setDocumentGraph(SaltFactory.createSDocumentGraph());
+				}
+			}
 			
-			if (resource.trimFileExtension().toString().endsWith(CubhuniJSONImporter.props.getProperty("original"))) {
-				this.getDocument().createMetaAnnotation(null, (String) CubhuniJSONImporter.props.getProperty("source_type_key"),
-						                                      (String) CubhuniJSONImporter.props.getProperty("original"));
+			/* the source type of a line of a bundle was set with the corpus-structure */
+			String entry = CubhuniArchive.entryOf(resource);
+			String source = CubhuniInput.baseName((entry != null) ? entry : resource.path());
+			boolean typed = this.getDocument().getMetaAnnotation(plan.sourceTypeKey) != null;
+			if (!typed && source.endsWith(plan.original)) {
+				this.getDocument().createMetaAnnotation(null, plan.sourceTypeKey, plan.original);
 			}
 			
-			if (resource.trimFileExtension().toString().endsWith(CubhuniJSONImporter.props.getProperty("commentary"))) {
-				this.getDocument().createMetaAnnotation(null, (String) CubhuniJSONImporter.props.getProperty("source_type_key"),
-                                                              (String) CubhuniJSONImporter.props.getProperty("commentary"));
+			if (!typed && source.endsWith(plan.commentary)) {
+				this.getDocument().createMetaAnnotation(null, plan.sourceTypeKey, plan.commentary);
 			}
 			
-			JSONParser parser = new JSONParser();
+			/* a failing document is reported as failed, the other documents go on */
+			String stage = "read";
+			boolean streaming = ((CubhuniJSONImporterProperties) getProperties()).isStreaming();
+			long held = 0;
 	        try {
-	            Object obj = parser.parse(new FileReader(resource.path()));
-	            JSONObject jsonObject = (JSONObject) obj;
-	            
-	            /*
-	             * add document metadata
-                 */
-	            
-	            JSONObject meta = (JSONObject) jsonObject.get(CubhuniJSONImporter.props.getProperty("meta"));
-	            
-	            
-	            String madhab_name = (String) meta.get((String) CubhuniJSONImporter.props.getProperty("madhab_name"));
-	            if (madhab_name != null) {
-	            	this.getDocument().createMetaAnnotation(null, (String) CubhuniJSONImporter.props.getProperty("madhab_name"), madhab_name);
-	            }
-	            
-	            if (meta.containsKey((String) CubhuniJSONImporter.props.getProperty("madhab_id"))) {
-	            	long madhab_id = (long) meta.get((String) CubhuniJSONImporter.props.getProperty("madhab_id"));
-	            	this.getDocument().createMetaAnnotation(null, (String) CubhuniJSONImporter.props.getProperty("madhab_id"), madhab_id);
-	            }
-	            
-	            String tafsir_name = (String) meta.get((String) CubhuniJSONImporter.props.getProperty("tafsir_name"));
-	            if (tafsir_name != null) {
-	            	this.getDocument().createMetaAnnotation(null, (String) CubhuniJSONImporter.props.getProperty("tafsir_name"), tafsir_name);
-	            }
-	            
-	            if (meta.containsKey((String) CubhuniJSONImporter.props.getProperty("tafsir_id"))) {
-	            	long tafsir_id = (long) meta.get((String) CubhuniJSONImporter.props.getProperty("tafsir_id"));
-	            	this.getDocument().createMetaAnnotation(null, (String) CubhuniJSONImporter.props.getProperty("tafsir_id"), tafsir_id);
-	            }
-	            
-	            if (meta.containsKey((String) CubhuniJSONImporter.props.getProperty("sura"))) {
-	            	long sura = (long) meta.get((String) CubhuniJSONImporter.props.getProperty("sura"));
-	            	this.getDocument().createMetaAnnotation(null, (String) CubhuniJSONImporter.props.getProperty("sura"), sura);
-	            }
-	            
-	            if (meta.containsKey((String) CubhuniJSONImporter.props.getProperty("aya_ini"))) {
-	            	long aya_ini = (long) meta.get((String) CubhuniJSONImporter.props.getProperty("aya_ini"));
-	            	this.getDocument().createMetaAnnotation(null, (String) CubhuniJSONImporter.props.getProperty("aya_ini"), aya_ini);
-	            }
-	            
-	            if (meta.containsKey((String) CubhuniJSONImporter.props.getProperty("aya_end"))) {
-	            	long aya_end = (long) meta.get((String) CubhuniJSONImporter.props.getProperty("aya_end"));
-	            	this.getDocument().createMetaAnnotation(null, (String) CubhuniJSONImporter.props.getProperty("aya_end"), aya_end);
-	            }
-	            
-	            if (meta.containsKey((String) CubhuniJSONImporter.props.getProperty("book_id"))) {
-	            	long book_id = (long) meta.get((String) CubhuniJSONImporter.props.getProperty("book_id"));
-	            	this.getDocument().createMetaAnnotation(null, (String) CubhuniJSONImporter.props.getProperty("book_id"), book_id);
-	            }
-	            
-	            String book_name = (String) meta.get((String) CubhuniJSONImporter.props.getProperty("book_name"));
-	            if (book_name != null) {
-	            	this.getDocument().createMetaAnnotation(null, (String) CubhuniJSONImporter.props.getProperty("book_name"), book_name);
-	            }
-	            	            
-	            if (meta.containsKey((String) CubhuniJSONImporter.props.getProperty("chapter_id"))) {
-	            	long chapter_id = (long) meta.get((String) CubhuniJSONImporter.props.getProperty("chapter_id"));
-	            	this.getDocument().createMetaAnnotation(null, (String) CubhuniJSONImporter.props.getProperty("chapter_id"), chapter_id);
-	            }
-	            
-	            String chapter_name = (String) meta.get((String) CubhuniJSONImporter.props.getProperty("chapter_name"));
-	            if (chapter_name != null) {
-	            	this.getDocument().createMetaAnnotation(null, (String) CubhuniJSONImporter.props.getProperty("chapter_name"), chapter_name);
-	            }
-	            
-	            if (meta.containsKey((String) CubhuniJSONImporter.props.getProperty("subchapter_id"))) {
-	            	if (meta.get((String) CubhuniJSONImporter.props.getProperty("subchapter_id")) != null) {
-	            		long subchapter_id = (long) meta.get((String) CubhuniJSONImporter.props.getProperty("subchapter_id"));
-	            		this.getDocument().createMetaAnnotation(null, (String) CubhuniJSONImporter.props.getProperty("subchapter_id"), subchapter_id);
-	            	}
-	            }
-	            
-	            String subchapter_name = (String) meta.get((String) CubhuniJSONImporter.props.getProperty("subchapter_name"));
-	            if (subchapter_name != null) {
-	            	this.getDocument().createMetaAnnotation(null, (String) CubhuniJSONImporter.props.getProperty("subchapter_name"), subchapter_name);
-	            }
-	            
-	            if (meta.containsKey((String) CubhuniJSONImporter.props.getProperty("section_id"))) {
-	            	if (meta.get((String) CubhuniJSONImporter.props.getProperty("section_id")) != null ) {
-	            		long section_id = (long) meta.get((String) CubhuniJSONImporter.props.getProperty("section_id"));
-	            		this.getDocument().createMetaAnnotation(null, (String) CubhuniJSONImporter.props.getProperty("section_id"), section_id);
-	            	}
-	            }
-	            
-	            String section_name = (String) meta.get((String) CubhuniJSONImporter.props.getProperty("section_name"));
-	            if (section_name != null) {
-	            	this.getDocument().createMetaAnnotation(null, (String) CubhuniJSONImporter.props.getProperty("section_name"), section_name);
-	            }
-	            
-	            String pages = (String) meta.get((String) CubhuniJSONImporter.props.getProperty("pages"));
-	            if (pages != null) {
-	            	this.getDocument().createMetaAnnotation(null, (String) CubhuniJSONImporter.props.getProperty("pages"), pages);
-	            }
-	            
-	            String title = (String) meta.get((String) CubhuniJSONImporter.props.getProperty("title"));
-	            if (title != null) {
-	            	this.getDocument().createMetaAnnotation(null, (String) CubhuniJSONImporter.props.getProperty("title"), title);
-	            }
-	            
-	            String author = (String) meta.get((String) CubhuniJSONImporter.props.getProperty("author"));
-	            if (author != null) {
-	            	this.getDocument().createMetaAnnotation(null, (String) CubhuniJSONImporter.props.getProperty("author"), author);
-	            }
-	            
-	            String date = (String) meta.get((String) CubhuniJSONImporter.props.getProperty("date"));
-	            if (date != null) {
-	            	this.getDocument().createMetaAnnotation(null, (String) CubhuniJSONImporter.props.getProperty("date"), date);
-	            }
-	            
-	            String url = (String) meta.get((String) CubhuniJSONImporter.props.getProperty("url"));
-	            if (url != null) {
-	            	this.getDocument().createMetaAnnotation(null, (String) CubhuniJSONImporter.props.getProperty("url"), url);
-	            }
-
-	            /*
-	             * finish adding metadata
-                 */
-	            
-	            String text = (String) jsonObject.get(CubhuniJSONImporter.props.getProperty("text"));
-	            STextualDS primaryText = getDocument().getDocumentGraph().createTextualDS(text);
-	            //System.err.println("\033[0;31m::DEBUG::" + " text=" + text + "\033[0m"); //DEBUG
-
-	            JSONArray tokens = (JSONArray) jsonObject.get((String) CubhuniJSONImporter.props.getProperty("tokens"));
-	            
-	            Iterator<JSONObject> iterTokens = tokens.iterator();
-	            List<SToken> alltokens = new ArrayList<SToken>();
-	            while(iterTokens.hasNext())
-	            {
-	            	JSONObject tokenObj = iterTokens.next();
-	            	String tok = (String) tokenObj.get((String) CubhuniJSONImporter.props.getProperty("tok_tok"));
-	            	String pos = (String) tokenObj.get((String) CubhuniJSONImporter.props.getProperty("tok_pos"));
-	            	// String lemma = (String) tokenObj.get((String) CubhuniJSONImporter.props.getProperty("tok_lemma"));  //FIXME
-	            	// String root = (String) tokenObj.get((String) CubhuniJSONImporter.props.getProperty("tok_root"));  //FIXME
-	            	
-	            	Integer ini = new Integer(((Long)tokenObj.get((String) CubhuniJSONImporter.props.getProperty("tok_ini"))).intValue());
-	            	Integer end = new Integer(((Long)tokenObj.get((String) CubhuniJSONImporter.props.getProperty("tok_end"))).intValue());
-	            	
-	            	SToken token = getDocument().getDocumentGraph().createToken(primaryText, ini, end);
-	            	token.createAnnotation(null, (String) CubhuniJSONImporter.props.getProperty("tok_norm"), tok);
-	            	//token.createAnnotation(null, (String) CubhuniJSONImporter.props.getProperty("tok_pos"), pos);  //FIXME
-	            	//createdToken.createAnnotation(null, (String) CubhuniJSONImporter.props.getProperty("tok_lemma"), lemma);  //FIXME
-	            	//createdToken.createAnnotation(null, (String) CubhuniJSONImporter.props.getProperty("tok_root"), root);  //FIXME
-	            	
-	            	alltokens.add(token);
-	            	
-	            	//System.err.println("\033[0;31m::DEBUG tokens:: tok=" + tok + " pos=" + pos + " ini=" + ini + " end=" + end + "\033[0m"); //DEBUG
-	            	addProgress(0.16);
-	            }
-	            
-	            Iterator it = ANNOTATIONS.entrySet().iterator();
-	            while (it.hasNext())
-	            {	
-	                Map.Entry pair = (Map.Entry)it.next();
-	                String group = (String) pair.getKey();
-	                String tag = (String) pair.getValue();
-	                
-	            	JSONArray annInstance = (JSONArray) jsonObject.get(group);
-	            	
-	            	if(annInstance == null || annInstance.isEmpty()) continue;
-	            	
-	            	Iterator<JSONObject> iterAnnotations = annInstance.iterator();
-	            	while(iterAnnotations.hasNext())
-	            	{
-	            		JSONObject annObj = iterAnnotations.next();
-	            		String val = (String) annObj.get((String) CubhuniJSONImporter.props.getProperty("annotation_val"));
-	            		Integer ini = new Integer(((Long)annObj.get((String) CubhuniJSONImporter.props.getProperty("annotation_ini"))).intValue());
-	            		Integer end = new Integer(((Long)annObj.get((String) CubhuniJSONImporter.props.getProperty("annotation_end"))).intValue());
-
-	            		// create new annotation span instance
-	            		List<SToken> annotation_set = new ArrayList<SToken>();
-	            		
-	            		for(int i=ini; i<=end; i++)
-	            		{
-	            			try
-	            			{
-	            				annotation_set.add(alltokens.get(i));
-	            			}
-	            			catch (IndexOutOfBoundsException e)  //DEBUG
-	            			{
-	            				System.out.println("\033[0;31m::TRACE ERROR" + e + "\033[0m");  //DEBUG
-	            				System.out.println("\033[0;31m::DEBUG tokens:: tokens size=" + alltokens.size() + "\033[0m"); //DEBUG
-	            				System.out.println("\033[0;31m::DEBUG group=" + group + "  val=" + val + "  ini=" + ini + "  end=" + end + "\033[0m");  //DEBUG
-	            				System.exit(1); //DEBUG
-	            			}
-	            		}
-	            		
-	            		SSpan annotation = getDocument().getDocumentGraph().createSpan(annotation_set);
-	            		annotation.createAnnotation(null, tag, val);
-	    			
-	            		//System.err.println("\033[0;31m::DEBUG "+ tag +":: val=" + val + " ini=" + ini + " end=" + end + "\033[0m"); //DEBUG
-	            		addProgress(0.16);
-	            	} 
-	            }
-
-	        } catch (FileNotFoundException e) {
-	            e.printStackTrace();
-	        } catch (IOException e) {
-	            e.printStackTrace();
-	        } catch (ParseException e) {
-	            e.printStackTrace();
+	        	if (reader == null) {
+	        		reader = new CubhuniJSONReader(plan, streaming);
+	        	}
+	        	
+	        	/*
+	        	 * a document read ahead holds its reservation already, any other
+	        	 * waits until its estimated heap cost fits into the budget
+	        	 */
+	        	CubhuniReadAhead.Prefetched prefetched = (!shard && readAhead != null) ? readAhead.take(resource) : null;
+	        	CubhuniDocumentBuilder builder;
+	        	if (prefetched != null) {
+	        		held = prefetched.held;
+	        		builder = prefetched.builder;
+	        	} else {
+	        		if (admission != null) {
+	        			held = admission.acquire(shard ? sharder.estimateRead(resource, streaming)
+	        					: CubhuniAdmission.estimateRead(resource, streaming), held);
+	        		}
+	        		builder = shard ? sharder.take(resource, reader) : reader.read(resource);
+	        	}
+	        	if (admission != null) {
+	        		held = admission.acquire(builder.estimateBuildBytes(), held);
+	        	}
+	        	stage = "build";
+	        	long start = System.nanoTime();
+	        	builder.finish(getDocument());
+	        	long buildNanos = System.nanoTime() - start;
+	        	if (metrics != null) {
+	        		metrics.record(resource.hasFragment() ? resource.path() + "#" + resource.fragment() : resource.path(),
+	        				builder, buildNanos);
+	        	}
+	        	if (schedule != null) {
+	        		schedule.measured(resource, builder, buildNanos);
+	        	}
+	        	stage = "store";
+	        	if (!part && incremental != null) {
+	        		incremental.store(input, getDocument());
+	        	}
+	        	if (quarantine != null) {
+	        		quarantine.release(input);
+	        	}
+	        	addProgress(1.0);
+
+	        } catch (IOException | ParseException | RuntimeException e) {
+	        	logger.error("Cannot import the document {} ({} failed), it is skipped.", resource, stage, e);
+	        	this.getDocument().setDocumentGraph(SaltFactory.createSDocumentGraph());
+	        	if (quarantine != null) {
+	        		quarantine.quarantine(input, stage, e);
+	        	}
+	        	return (DOCUMENT_STATUS.FAILED);
+	        } catch (InterruptedException e) {
+	        	Thread.currentThread().interrupt();
+	        	logger.error("Interrupted while the document {} waited for admission.", resource);
+	        	this.getDocument().setDocumentGraph(SaltFactory.createSDocumentGraph());
+	        	return (DOCUMENT_STATUS.FAILED);
+	        } finally {
+	        	if (admission != null) {
+	        		admission.release(held);
+	        	}
 	        }
 
 			return (DOCUMENT_STATUS.COMPLETED);
 			
-		}  
+		}
+
 	}
 
 	/**
-	 * <strong>OVERRIDE THIS METHOD FOR CUSTOMIZATION</strong> <br/>
 	 * This method is called by the pepper framework and returns if a corpus
-	 * located at the given {@link URI} is importable by this importer. If yes,
-	 * 1 must be returned, if no 0 must be returned. If it is not quite sure, if
-	 * the given corpus is importable by this importer any value between 0 and 1
-	 * can be returned. If this method is not overridden, null is returned.
+	 * located at the given {@link URI} is importable by this importer. Only a
+	 * bounded prefix and suffix of a sample of the files are searched for the
+	 * top level <code>meta</code>, <code>text</code> and <code>tokens</code>
+	 * keys, see {@link CubhuniFormatSniffer}.
 	 * 
 	 * @return 1 if corpus is importable, 0 if corpus is not importable, 0 < X <
-	 *         1, if no definitive answer is possible, null if method is not
-	 *         overridden
+	 *         1, if no definitive answer is possible, null if the configuration
+	 *         could not be loaded
 	 */
 	public Double isImportable(URI corpusPath) {
-		// TODO some code to analyze the given corpus-structure
-		//return (null);
-		return (1.0); //DEBUG
+		CubhuniMappingPlan plan;
+		try {
+			plan = getPlan();
+		} catch (IOException | IllegalArgumentException e) {
+			logger.warn("Cannot load the COBHUNI configuration.", e);
+			return (null);
+		}
+		if (corpusPath == null || !corpusPath.isFile()) {
+			return (0.0);
+		}
+		File path = new File(corpusPath.toFileString());
+		if (!path.exists()) {
+			return (0.0);
+		}
+		if (sniffer == null) {
+			sniffer = new CubhuniFormatSniffer(plan);
+		}
+		return (sniffer.sniff(path));
 	}
 
 	// =================================================== optional
@@ -617,7 +1027,22 @@ public class CubhuniJSONImporter extends PepperImporterImpl implements PepperImp
 	 */
 	@Override
 	public boolean isReadyToStart() throws PepperModuleNotReadyException {
-		// TODO make some initializations if necessary
+		/* the configuration is checked before any document is read */
+		try {
+			getPlan();
+		} catch (IOException | IllegalArgumentException e) {
+			logger.error("Cannot load the COBHUNI configuration.", e);
+			throw new PepperModuleNotReadyException(this, "Cannot load the COBHUNI configuration: " + e.getMessage());
+		}
+		String filter = ((CubhuniJSONImporterProperties) getProperties()).getMetaFilter();
+		if (filter != null) {
+			try {
+				CubhuniMetaFilter.parse(filter, plan);
+			} catch (IllegalArgumentException e) {
+				logger.error("Cannot read the metadata filter.", e);
+				throw new PepperModuleNotReadyException(this, "Cannot read the metadata filter: " + e.getMessage());
+			}
+		}
 		return (super.isReadyToStart());
 	}
 }
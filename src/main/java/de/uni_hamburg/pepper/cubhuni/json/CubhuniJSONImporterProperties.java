@@ -0,0 +1,364 @@
+/* Copyright 2017 Alicia Gonzalez Martinez
+ * COBHUNI Project, Universität Hamburg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ ********************************************************************/
+
+package de.uni_hamburg.pepper.cubhuni.json;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+import org.corpus_tools.pepper.modules.PepperModuleProperties;
+import org.corpus_tools.pepper.modules.PepperModuleProperty;
+
+/**
+ * Customization properties of the {@link CubhuniJSONImporter}. They can be set
+ * in the <code>customization</code> block of the importer in a
+ * <code>*.pepper</code> workflow file.
+ * <br/>
+ * The mapping properties replace the keys of the same meaning in the
+ * configuration file, so that the JSON keys of a corpus can be set in its
+ * workflow file. They are checked with the other properties, before the
+ * import starts.
+ *
+ * @author Alicia Gonzalez
+ */
+public class CubhuniJSONImporterProperties extends PepperModuleProperties {
+
+	/** configuration file overriding the config.properties bundled with the importer */
+	public static final String PROP_MAPPING_CONFIG = "mappingConfig";
+
+	/** read documents as a stream of JSON events instead of a whole JSON tree */
+	public static final String PROP_STREAMING = "streaming";
+
+	/** number of documents read ahead of the mappers, 0 disables reading ahead */
+	public static final String PROP_PREFETCH_DEPTH = "prefetchDepth";
+
+	/** number of threads reading documents ahead of the mappers */
+	public static final String PROP_PREFETCH_THREADS = "prefetchThreads";
+
+	/** directory keeping the results of previous runs for the incremental import */
+	public static final String PROP_INCREMENTAL_DIR = "incrementalDir";
+
+	/** directory the error records of failed documents are written to */
+	public static final String PROP_QUARANTINE_DIR = "quarantineDir";
+
+	/** number of documents between two checkpoints of the incremental import */
+	public static final String PROP_CHECKPOINT_INTERVAL = "checkpointInterval";
+
+	/** maximal number of distinct annotation values kept in the corpus-wide dictionary */
+	public static final String PROP_INTERN_CAPACITY = "internCapacity";
+
+	/** keep a binary copy of each document next to its source and load it on later runs */
+	public static final String PROP_SIDECAR = "sidecar";
+
+	/** input files larger than this number of bytes are split into shards, 0 disables sharding */
+	public static final String PROP_SHARD_BYTES = "shardBytes";
+
+	/** maximal number of tokens of a shard */
+	public static final String PROP_SHARD_TOKENS = "shardTokens";
+
+	/** annotation groups a document is split along */
+	public static final String PROP_SHARD_BOUNDARIES = "shardBoundaries";
+
+	/** percentage of the maximal heap the documents being mapped may take together, 0 disables admission control */
+	public static final String PROP_HEAP_BUDGET = "heapBudget";
+
+	/** top level key of the id of a document in a JSON Lines bundle */
+	public static final String PROP_BUNDLE_ID_KEY = "bundleIdKey";
+
+	/** file the per-document import metrics are written to at the end of the run */
+	public static final String PROP_METRICS_REPORT = "metricsReport";
+
+	/** filter expression over the metadata fields, only the documents meeting it are imported */
+	public static final String PROP_META_FILTER = "metaFilter";
+
+	/** file of the measured mapping times, documents are mapped largest first if it is set */
+	public static final String PROP_SCHEDULE_INDEX = "scheduleIndex";
+
+	/** key of the text of a document, replaces <code>text</code> of the configuration */
+	public static final String PROP_TEXT_KEY = "textKey";
+
+	/** key of the metadata object of a document, replaces <code>meta</code> of the configuration */
+	public static final String PROP_META_KEY = "metaKey";
+
+	/** key of the tokens of a document, replaces <code>tokens</code> of the configuration */
+	public static final String PROP_TOKENS_KEY = "tokensKey";
+
+	/** token annotations mapped, replaces <code>tok_annotations</code> of the configuration */
+	public static final String PROP_TOKEN_ANNOTATIONS = "tokenAnnotations";
+
+	/** suffix of the metadata files, replaces <code>meta_file_suf</code> of the configuration */
+	public static final String PROP_META_FILE_SUFFIX = "metaFileSuffix";
+
+	/** metadata key of the source type, replaces <code>source_type_key</code> of the configuration */
+	public static final String PROP_SOURCE_TYPE_KEY = "sourceTypeKey";
+
+	/* mapping properties and the configuration keys they replace */
+	private static final String[][] MAPPING_KEYS = { { PROP_TEXT_KEY, "text" }, { PROP_META_KEY, "meta" },
+			{ PROP_TOKENS_KEY, "tokens" }, { PROP_TOKEN_ANNOTATIONS, "tok_annotations" },
+			{ PROP_META_FILE_SUFFIX, "meta_file_suf" }, { PROP_SOURCE_TYPE_KEY, "source_type_key" } };
+
+	/* configuration keys of the token annotations which may be mapped */
+	private static final List<String> TOKEN_ANNOTATION_KEYS = Arrays.asList("tok_pos", "tok_lemma", "tok_root");
+
+	public CubhuniJSONImporterProperties() {
+		this.addProperty(new PepperModuleProperty<String>(PROP_MAPPING_CONFIG, String.class,
+				"Path of a config.properties file mapping the COBHUNI JSON keys to Salt, used instead of "
+						+ "the one bundled with the importer. It is loaded and checked once, before the import "
+						+ "starts.",
+				null, false));
+		this.addProperty(new PepperModuleProperty<Boolean>(PROP_STREAMING, Boolean.class,
+				"If true, each document is read as a stream of JSON events and passed to the Salt "
+						+ "graph builder as it is read, without a JSON tree of the document. If false, the whole "
+						+ "document is parsed into a JSON tree first.",
+				false, false));
+		this.addProperty(new PepperModuleProperty<Integer>(PROP_PREFETCH_DEPTH, Integer.class,
+				"Maximal number of documents read and parsed ahead of the mappers on a separate pool of "
+						+ "threads. Bounds the memory used by documents waiting to be mapped. 0 disables "
+						+ "reading ahead.",
+				0, false));
+		this.addProperty(new PepperModuleProperty<Integer>(PROP_PREFETCH_THREADS, Integer.class,
+				"Number of threads reading documents ahead of the mappers.", 1, false));
+		this.addProperty(new PepperModuleProperty<String>(PROP_INCREMENTAL_DIR, String.class,
+				"Directory keeping a manifest of the converted input files and their results. If set, only "
+						+ "new or changed documents are converted and the results of the last run are reused "
+						+ "for the others. Deleted input files are reported.",
+				null, false));
+		this.addProperty(new PepperModuleProperty<String>(PROP_QUARANTINE_DIR, String.class,
+				"Directory a structured error record is written to for each document which fails to "
+						+ "import. Failed documents are skipped on later runs until their file changes.",
+				null, false));
+		this.addProperty(new PepperModuleProperty<Integer>(PROP_CHECKPOINT_INTERVAL, Integer.class,
+				"Number of converted documents after which the manifest of the incremental import is "
+						+ "written, so that a killed run resumes where it stopped. Needs incrementalDir. "
+						+ "0 writes the manifest only at the end of the run.",
+				100, false));
+		this.addProperty(new PepperModuleProperty<Integer>(PROP_INTERN_CAPACITY, Integer.class,
+				"Maximal number of distinct token and span annotation values kept in a dictionary shared "
+						+ "by all documents, so that a repeated value such as a part-of-speech tag is kept once "
+						+ "on the heap. Values met once the dictionary is full are not shared. 0 disables the "
+						+ "dictionary.",
+				1000000, false));
+		this.addProperty(new PepperModuleProperty<Boolean>(PROP_SIDECAR, Boolean.class,
+				"If true, a compact binary copy of each document is written next to its source as "
+						+ "<source>.cbin, and loaded instead of parsing the JSON on later runs, as long as "
+						+ "neither the source nor the configuration changed.",
+				false, false));
+		this.addProperty(new PepperModuleProperty<Long>(PROP_SHARD_BYTES, Long.class,
+				"Input files larger than this number of bytes and with more than shardTokens tokens are "
+						+ "split into several documents, the shards, under a sub-corpus named after the file, so "
+						+ "that they are mapped concurrently. 0 disables sharding.",
+				0L, false));
+		this.addProperty(new PepperModuleProperty<Integer>(PROP_SHARD_TOKENS, Integer.class,
+				"Maximal number of tokens of a shard. A section longer than that is a shard of its own.",
+				50000, false));
+		this.addProperty(new PepperModuleProperty<String>(PROP_SHARD_BOUNDARIES, String.class,
+				"Comma separated keys of the annotation groups a document is split along, the first group "
+						+ "the document has spans of is used. A shard starts with the first token of a span.",
+				"sections,pages", false));
+		this.addProperty(new PepperModuleProperty<Integer>(PROP_HEAP_BUDGET, Integer.class,
+				"Percentage of the maximal heap (-Xmx) the documents being mapped may take together. The "
+						+ "heap cost of each document is estimated from its file size and then from its number "
+						+ "of tokens and spans, and a mapper waits until its document fits, while smaller "
+						+ "documents go on. 0 disables admission control.",
+				0, false));
+		this.addProperty(new PepperModuleProperty<String>(PROP_BUNDLE_ID_KEY, String.class,
+				"Top level key of the id of each document of a JSON Lines bundle (.ndjson or .jsonl). The id "
+						+ "names the document, a document without id is named after its line.",
+				"id", false));
+		this.addProperty(new PepperModuleProperty<String>(PROP_METRICS_REPORT, String.class,
+				"File the import metrics of each document (bytes read, parse and build time, tokens, spans "
+						+ "per annotation group and estimated graph size) are written to at the end of the run. "
+						+ "A file ending in .json gets the totals and the slowest and largest documents, any "
+						+ "other file gets one CSV row per document, slowest first.",
+				null, false));
+		this.addProperty(new PepperModuleProperty<String>(PROP_META_FILTER, String.class,
+				"Conditions on the metadata fields of config.properties or the source type, separated by ';', "
+						+ "such as 'madhab_id = 3; sura in 2..5; source_type = commentary'. Only the meta object "
+						+ "of each document is read to check them, and the documents not meeting all of them are "
+						+ "left out of the corpus-structure.",
+				null, false));
+		this.addProperty(new PepperModuleProperty<String>(PROP_SCHEDULE_INDEX, String.class,
+				"File keeping the size, tokens, spans and measured mapping time of each document between runs. "
+						+ "If it is set, the documents are mapped in the order of their estimated mapping time, "
+						+ "longest first, so that no large document is left for the end of the import.",
+				null, false));
+		this.addProperty(new PepperModuleProperty<String>(PROP_TEXT_KEY, String.class,
+				"Key of the text of a document. Replaces the key 'text' of the configuration file.", null,
+				false));
+		this.addProperty(new PepperModuleProperty<String>(PROP_META_KEY, String.class,
+				"Key of the metadata object of a document. Replaces the key 'meta' of the configuration file.",
+				null, false));
+		this.addProperty(new PepperModuleProperty<String>(PROP_TOKENS_KEY, String.class,
+				"Key of the tokens of a document. Replaces the key 'tokens' of the configuration file.", null,
+				false));
+		this.addProperty(new PepperModuleProperty<String>(PROP_TOKEN_ANNOTATIONS, String.class,
+				"Comma separated token annotations mapped, of tok_pos, tok_lemma and tok_root; empty maps "
+						+ "none. Replaces the key 'tok_annotations' of the configuration file.",
+				null, false));
+		this.addProperty(new PepperModuleProperty<String>(PROP_META_FILE_SUFFIX, String.class,
+				"Suffix of the metadata files, ending in .json. Replaces the key 'meta_file_suf' of the "
+						+ "configuration file.",
+				null, false));
+		this.addProperty(new PepperModuleProperty<String>(PROP_SOURCE_TYPE_KEY, String.class,
+				"Metadata key of the source type of a document. Replaces the key 'source_type_key' of the "
+						+ "configuration file.",
+				null, false));
+	}
+
+	@Override
+	public boolean checkProperty(PepperModuleProperty<?> prop) {
+		if (PROP_PREFETCH_DEPTH.equals(prop.getName()) && prop.getValue() != null && ((Integer) prop.getValue()) < 0) {
+			return false;
+		}
+		if (PROP_CHECKPOINT_INTERVAL.equals(prop.getName()) && prop.getValue() != null && ((Integer) prop.getValue()) < 0) {
+			return false;
+		}
+		if (PROP_INTERN_CAPACITY.equals(prop.getName()) && prop.getValue() != null && ((Integer) prop.getValue()) < 0) {
+			return false;
+		}
+		if (PROP_SHARD_BYTES.equals(prop.getName()) && prop.getValue() != null && ((Long) prop.getValue()) < 0) {
+			return false;
+		}
+		if (PROP_SHARD_TOKENS.equals(prop.getName()) && prop.getValue() != null && ((Integer) prop.getValue()) < 1) {
+			return false;
+		}
+		if (PROP_HEAP_BUDGET.equals(prop.getName()) && prop.getValue() != null
+				&& (((Integer) prop.getValue()) < 0 || ((Integer) prop.getValue()) > 100)) {
+			return false;
+		}
+		if (PROP_PREFETCH_THREADS.equals(prop.getName()) && prop.getValue() != null && ((Integer) prop.getValue()) < 1) {
+			return false;
+		}
+		if (PROP_TOKEN_ANNOTATIONS.equals(prop.getName()) && prop.getValue() != null) {
+			for (String key : ((String) prop.getValue()).split(",")) {
+				if (!key.trim().isEmpty() && !TOKEN_ANNOTATION_KEYS.contains(key.trim())) {
+					return false;
+				}
+			}
+		} else if (PROP_META_FILE_SUFFIX.equals(prop.getName()) && prop.getValue() != null
+				&& !((String) prop.getValue()).trim().endsWith(".json")) {
+			return false;
+		} else if (isMappingKey(prop.getName()) && prop.getValue() != null
+				&& !((String) prop.getValue()).trim().matches("[^\\s]+")) {
+			/* a JSON key is neither empty nor has blanks */
+			return false;
+		}
+		return super.checkProperty(prop);
+	}
+
+	private static boolean isMappingKey(String name) {
+		for (String[] mapping : MAPPING_KEYS) {
+			if (mapping[0].equals(name)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return the mapping properties set, by the configuration keys they
+	 *         replace
+	 */
+	public Properties getMappingOverrides() {
+		Properties overrides = new Properties();
+		for (String[] mapping : MAPPING_KEYS) {
+			Object value = this.getProperty(mapping[0]).getValue();
+			if (value != null) {
+				overrides.setProperty(mapping[1], ((String) value).trim());
+			}
+		}
+		return overrides;
+	}
+
+	public String getMappingConfig() {
+		return ((String) this.getProperty(PROP_MAPPING_CONFIG).getValue());
+	}
+
+	public Boolean isStreaming() {
+		return ((Boolean) this.getProperty(PROP_STREAMING).getValue());
+	}
+
+	public Integer getPrefetchDepth() {
+		return ((Integer) this.getProperty(PROP_PREFETCH_DEPTH).getValue());
+	}
+
+	public Integer getPrefetchThreads() {
+		return ((Integer) this.getProperty(PROP_PREFETCH_THREADS).getValue());
+	}
+
+	public String getIncrementalDir() {
+		return ((String) this.getProperty(PROP_INCREMENTAL_DIR).getValue());
+	}
+
+	public String getQuarantineDir() {
+		return ((String) this.getProperty(PROP_QUARANTINE_DIR).getValue());
+	}
+
+	public Integer getCheckpointInterval() {
+		return ((Integer) this.getProperty(PROP_CHECKPOINT_INTERVAL).getValue());
+	}
+
+	public Integer getInternCapacity() {
+		return ((Integer) this.getProperty(PROP_INTERN_CAPACITY).getValue());
+	}
+
+	public Boolean isSidecar() {
+		return ((Boolean) this.getProperty(PROP_SIDECAR).getValue());
+	}
+
+	public Long getShardBytes() {
+		return ((Long) this.getProperty(PROP_SHARD_BYTES).getValue());
+	}
+
+	public Integer getShardTokens() {
+		return ((Integer) this.getProperty(PROP_SHARD_TOKENS).getValue());
+	}
+
+	public List<String> getShardBoundaries() {
+		List<String> groups = new ArrayList<String>();
+		String value = (String) this.getProperty(PROP_SHARD_BOUNDARIES).getValue();
+		if (value != null) {
+			for (String group : value.split(",")) {
+				if (!group.trim().isEmpty()) {
+					groups.add(group.trim());
+				}
+			}
+		}
+		return groups;
+	}
+
+	public Integer getHeapBudget() {
+		return ((Integer) this.getProperty(PROP_HEAP_BUDGET).getValue());
+	}
+
+	public String getBundleIdKey() {
+		return ((String) this.getProperty(PROP_BUNDLE_ID_KEY).getValue());
+	}
+
+	public String getMetricsReport() {
+		return ((String) this.getProperty(PROP_METRICS_REPORT).getValue());
+	}
+
+	public String getMetaFilter() {
+		return ((String) this.getProperty(PROP_META_FILTER).getValue());
+	}
+
+	public String getScheduleIndex() {
+		return ((String) this.getProperty(PROP_SCHEDULE_INDEX).getValue());
+	}
+}
@@ -0,0 +1,342 @@
+/* Copyright 2017 Alicia Gonzalez Martinez
+ * COBHUNI Project, Universität Hamburg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ ********************************************************************/
+
+package de.uni_hamburg.pepper.cubhuni.json;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.eclipse.emf.common.util.URI;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.ContentHandler;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reads a COBHUNI JSON document into a {@link CubhuniDocumentBuilder}, either
+ * as a whole JSON tree or as a stream of JSON events. Reading does not touch
+ * Salt, so it is safe to read documents on other threads than the mappers.
+ * <br/>
+ * If sidecars are enabled, a document with an up to date
+ * {@link CubhuniSidecar} is loaded from it without parsing any JSON, and the
+ * sidecar of any other document is written once it has been read.
+ *
+ * @author Alicia Gonzalez
+ */
+public class CubhuniJSONReader {
+
+	private static final Logger logger = LoggerFactory.getLogger(CubhuniJSONReader.class);
+
+	private final CubhuniMappingPlan plan;
+	private final boolean streaming;
+
+	/* binary copies of the documents, null if disabled */
+	private final CubhuniSidecar sidecar;
+
+	/* dictionary annotation values are interned in, null if disabled */
+	private final CubhuniValueDictionary dictionary;
+
+	/* bundles and archives of documents opened so far, by path */
+	private final Map<String, Closeable> containers = new ConcurrentHashMap<String, Closeable>();
+
+	public CubhuniJSONReader(CubhuniMappingPlan plan, boolean streaming) {
+		this(plan, streaming, null, null);
+	}
+
+	public CubhuniJSONReader(CubhuniMappingPlan plan, boolean streaming, CubhuniSidecar sidecar,
+			CubhuniValueDictionary dictionary) {
+		this.plan = plan;
+		this.streaming = streaming;
+		this.sidecar = sidecar;
+		this.dictionary = dictionary;
+	}
+
+	public boolean isStreaming() {
+		return streaming;
+	}
+
+	/**
+	 * Reads the document at the given location: a file, which may be gzip
+	 * compressed, a line of a {@link CubhuniBundle} or an entry of a
+	 * {@link CubhuniArchive}.
+	 */
+	public CubhuniDocumentBuilder read(URI resource) throws IOException, ParseException {
+		File file = new File(resource.path());
+		long[] range = CubhuniBundle.rangeOf(resource);
+		if (range != null) {
+			return read(((CubhuniBundle) container(file)).open(range[0], (int) range[1]), range[1]);
+		}
+		String entry = CubhuniArchive.entryOf(resource);
+		if (entry != null) {
+			CubhuniArchive archive = (CubhuniArchive) container(file);
+			CubhuniInput.CountingInputStream in = archive.open(entry);
+			CubhuniDocumentBuilder builder = read(CubhuniInput.open(in), 0);
+			builder.readStatistics(in.getCount(), builder.getParseNanos(), archive.getCompressedSize(entry));
+			return builder;
+		}
+		return read(file);
+	}
+
+	/**
+	 * Reads the document file, which may be gzip compressed.
+	 */
+	public CubhuniDocumentBuilder read(File file) throws IOException, ParseException {
+		if (sidecar != null) {
+			CubhuniDocumentBuilder builder = sidecar.load(file);
+			if (builder != null) {
+				return builder;
+			}
+		}
+
+		CubhuniDocumentBuilder builder;
+		if (CubhuniInput.isGzip(file)) {
+			CubhuniInput.CountingInputStream in = CubhuniInput.gunzip(file);
+			builder = read(CubhuniInput.open(in), 0);
+			builder.readStatistics(in.getCount(), builder.getParseNanos(), file.length());
+		} else {
+			builder = read(CubhuniInput.open(file), file.length());
+		}
+
+		if (sidecar != null) {
+			try {
+				sidecar.store(file, builder);
+			} catch (IOException e) {
+				logger.warn("Cannot write the sidecar of {}.", file, e);
+			}
+		}
+		return builder;
+	}
+
+	/**
+	 * Reads only the meta object of the document at the given location, see
+	 * {@link #read(URI)}. Parsing stops as soon as the meta object is read, so
+	 * the text and tokens which follow it are never read.
+	 *
+	 * @return the meta object, or null if the document has none
+	 */
+	public Map<String, Object> readMeta(URI resource) throws IOException, ParseException {
+		File file = new File(resource.path());
+		long[] range = CubhuniBundle.rangeOf(resource);
+		String entry = CubhuniArchive.entryOf(resource);
+		Reader reader;
+		if (range != null) {
+			reader = ((CubhuniBundle) container(file)).open(range[0], (int) range[1]);
+		} else if (entry != null) {
+			reader = CubhuniInput.open(((CubhuniArchive) container(file)).open(entry));
+		} else if (CubhuniInput.isGzip(file)) {
+			reader = CubhuniInput.open(CubhuniInput.gunzip(file));
+		} else {
+			reader = CubhuniInput.open(file);
+		}
+		MetaHandler handler = new MetaHandler(plan.metaKey);
+		try {
+			new JSONParser().parse(reader, handler);
+		} finally {
+			reader.close();
+		}
+		return handler.meta;
+	}
+
+	/*
+	 * collects the entries of the top level meta object and stops the parser
+	 * at its end
+	 */
+	private static final class MetaHandler implements ContentHandler {
+		private final String metaKey;
+		private int depth = 0;
+		private String topKey = null;
+		private String entryKey = null;
+		private Map<String, Object> meta = null;
+
+		MetaHandler(String metaKey) {
+			this.metaKey = metaKey;
+		}
+
+		@Override
+		public void startJSON() {
+		}
+
+		@Override
+		public void endJSON() {
+		}
+
+		@Override
+		public boolean startObject() {
+			depth++;
+			if (depth == 2 && metaKey.equals(topKey)) {
+				meta = new LinkedHashMap<String, Object>();
+			}
+			return true;
+		}
+
+		@Override
+		public boolean endObject() {
+			depth--;
+			return !(depth == 1 && meta != null);
+		}
+
+		@Override
+		public boolean startObjectEntry(String key) {
+			if (depth == 1) {
+				topKey = key;
+			} else {
+				entryKey = key;
+			}
+			return true;
+		}
+
+		@Override
+		public boolean endObjectEntry() {
+			if (depth == 1) {
+				topKey = null;
+			}
+			return true;
+		}
+
+		@Override
+		public boolean startArray() {
+			depth++;
+			return true;
+		}
+
+		@Override
+		public boolean endArray() {
+			depth--;
+			return true;
+		}
+
+		@Override
+		public boolean primitive(Object value) {
+			if (depth == 2 && meta != null) {
+				meta.put(entryKey, value);
+			}
+			return true;
+		}
+	}
+
+	/*
+	 * parses the document from the reader and closes it
+	 */
+	private CubhuniDocumentBuilder read(Reader reader, long bytes) throws IOException, ParseException {
+		CubhuniDocumentBuilder builder = new CubhuniDocumentBuilder(plan, dictionary);
+		JSONParser parser = new JSONParser();
+		long start = System.nanoTime();
+		try {
+			if (streaming) {
+				/* parts of the document are passed to the builder while they are read, no JSON tree is kept */
+				parser.parse(reader, new CubhuniJSONStreamHandler(builder, plan));
+			} else {
+				readJSONTree(builder, parser.parse(reader));
+			}
+		} finally {
+			reader.close();
+		}
+		builder.readStatistics(bytes, System.nanoTime() - start);
+		return builder;
+	}
+
+	/*
+	 * the open bundle or archive of the given file, opened on first use
+	 */
+	private Closeable container(File file) throws IOException {
+		String path = file.getAbsolutePath();
+		Closeable container = containers.get(path);
+		if (container == null) {
+			synchronized (containers) {
+				container = containers.get(path);
+				if (container == null) {
+					container = CubhuniArchive.isArchive(file.getName()) ? new CubhuniArchive(file)
+							: new CubhuniBundle(file);
+					containers.put(path, container);
+				}
+			}
+		}
+		return container;
+	}
+
+	/**
+	 * Closes the bundles and archives opened by this reader.
+	 */
+	public void close() {
+		for (Map.Entry<String, Closeable> entry : containers.entrySet()) {
+			try {
+				entry.getValue().close();
+			} catch (IOException e) {
+				logger.warn("Cannot close {}.", entry.getKey(), e);
+			}
+		}
+		containers.clear();
+	}
+
+	/**
+	 * Passes the parts of a document parsed as a whole JSON tree to the
+	 * {@link CubhuniDocumentBuilder}.
+	 */
+	private void readJSONTree(CubhuniDocumentBuilder builder, Object obj) {
+		JSONObject jsonObject = (JSONObject) obj;
+
+		/* add document metadata */
+		builder.meta((JSONObject) jsonObject.get(plan.metaKey));
+
+		builder.text(CubhuniMappingPlan.toStr(jsonObject.get(plan.textKey)));
+
+		JSONArray tokens = (JSONArray) jsonObject.get(plan.tokensKey);
+		builder.expectTokens(tokens.size());
+
+		List<String> annKeys = plan.getTokenAnnotations();
+		String[] annotations = new String[annKeys.size()];
+
+		Iterator<JSONObject> iterTokens = tokens.iterator();
+		while (iterTokens.hasNext()) {
+			JSONObject tokenObj = iterTokens.next();
+			String tok = CubhuniMappingPlan.toStr(tokenObj.get(plan.tokKey));
+			int ini = CubhuniMappingPlan.toOffset(tokenObj.get(plan.tokIniKey));
+			int end = CubhuniMappingPlan.toOffset(tokenObj.get(plan.tokEndKey));
+			for (int f = 0; f < annotations.length; f++) {
+				annotations[f] = CubhuniMappingPlan.toStr(tokenObj.get(annKeys.get(f)));
+			}
+
+			builder.token(tok, ini, end, annotations);
+		}
+
+		for (String group : plan.getGroups().keySet()) {
+			JSONArray annInstance = (JSONArray) jsonObject.get(group);
+
+			if (annInstance == null || annInstance.isEmpty())
+				continue;
+
+			Iterator<JSONObject> iterAnnotations = annInstance.iterator();
+			while (iterAnnotations.hasNext()) {
+				JSONObject annObj = iterAnnotations.next();
+				String val = CubhuniMappingPlan.toStr(annObj.get(plan.annValKey));
+				int ini = CubhuniMappingPlan.toOffset(annObj.get(plan.annIniKey));
+				int end = CubhuniMappingPlan.toOffset(annObj.get(plan.annEndKey));
+
+				builder.span(group, val, ini, end);
+			}
+		}
+	}
+}
@@ -0,0 +1,179 @@
+/* Copyright 2017 Alicia Gonzalez Martinez
+ * COBHUNI Project, Universität Hamburg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ ********************************************************************/
+
+package de.uni_hamburg.pepper.cubhuni.json;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.json.simple.parser.ContentHandler;
+import org.json.simple.parser.ParseException;
+
+/**
+ * Reads a COBHUNI JSON document as a stream of events of the
+ * {@link org.json.simple.parser.JSONParser} and passes its parts to a
+ * {@link CubhuniDocumentBuilder} as soon as they are read, without building a
+ * JSON tree of the whole document. Only the small meta object is collected in
+ * a map. Values nested deeper than expected are skipped.
+ *
+ * <pre>
+ * depth 1: { "meta": ..., "text": ..., "tokens": [...], "persons": [...], ... }
+ * depth 2:   "meta": { key: value, ... }, "tokens": [ ... ]
+ * depth 3:     { "tok": ..., "ini": ..., "end": ... }
+ * </pre>
+ *
+ * @author Alicia Gonzalez
+ */
+public class CubhuniJSONStreamHandler implements ContentHandler {
+
+	private final CubhuniDocumentBuilder builder;
+	private final CubhuniMappingPlan plan;
+
+	/* nesting level of the current value, 1 is the top level object */
+	private int depth = 0;
+
+	/* key of the current entry of the top level object */
+	private String topKey = null;
+
+	/* key of the current entry at depth 2 (meta) or depth 3 (token, annotation) */
+	private String entryKey = null;
+
+	private Map<String, Object> meta = null;
+
+	/* fields of the token or annotation being read */
+	private String str;
+	private int ini;
+	private int end;
+
+	/* further annotations of the token being read, reused for all tokens */
+	private final List<String> annKeys;
+	private final String[] annotations;
+
+	public CubhuniJSONStreamHandler(CubhuniDocumentBuilder builder, CubhuniMappingPlan plan) {
+		this.builder = builder;
+		this.plan = plan;
+		this.annKeys = plan.getTokenAnnotations();
+		this.annotations = new String[annKeys.size()];
+	}
+
+	@Override
+	public void startJSON() throws ParseException, IOException {
+		depth = 0;
+		topKey = null;
+	}
+
+	@Override
+	public void endJSON() throws ParseException, IOException {
+	}
+
+	@Override
+	public boolean startObject() throws ParseException, IOException {
+		depth++;
+		if (depth == 2 && plan.metaKey.equals(topKey)) {
+			meta = new HashMap<String, Object>();
+		} else if (depth == 3) {
+			str = null;
+			ini = -1;
+			end = -1;
+			Arrays.fill(annotations, null);
+		}
+		return true;
+	}
+
+	@Override
+	public boolean endObject() throws ParseException, IOException {
+		if (depth == 2 && meta != null) {
+			builder.meta(meta);
+			meta = null;
+		} else if (depth == 3) {
+			if (plan.tokensKey.equals(topKey)) {
+				builder.token(str, ini, end, annotations);
+			} else if (builder.isAnnotationGroup(topKey)) {
+				builder.span(topKey, str, ini, end);
+			}
+		}
+		depth--;
+		return true;
+	}
+
+	@Override
+	public boolean startObjectEntry(String key) throws ParseException, IOException {
+		if (depth == 1) {
+			topKey = key;
+		} else {
+			entryKey = key;
+		}
+		return true;
+	}
+
+	@Override
+	public boolean endObjectEntry() throws ParseException, IOException {
+		if (depth == 1) {
+			topKey = null;
+		}
+		return true;
+	}
+
+	@Override
+	public boolean startArray() throws ParseException, IOException {
+		depth++;
+		return true;
+	}
+
+	@Override
+	public boolean endArray() throws ParseException, IOException {
+		depth--;
+		return true;
+	}
+
+	@Override
+	public boolean primitive(Object value) throws ParseException, IOException {
+		if (depth == 1) {
+			if (plan.textKey.equals(topKey)) {
+				builder.text(CubhuniMappingPlan.toStr(value));
+			}
+		} else if (depth == 2 && meta != null) {
+			meta.put(entryKey, value);
+		} else if (depth == 3) {
+			if (plan.tokensKey.equals(topKey)) {
+				if (plan.tokKey.equals(entryKey)) {
+					str = CubhuniMappingPlan.toStr(value);
+				} else if (plan.tokIniKey.equals(entryKey)) {
+					ini = CubhuniMappingPlan.toOffset(value);
+				} else if (plan.tokEndKey.equals(entryKey)) {
+					end = CubhuniMappingPlan.toOffset(value);
+				} else {
+					int f = annKeys.indexOf(entryKey);
+					if (f >= 0) {
+						annotations[f] = CubhuniMappingPlan.toStr(value);
+					}
+				}
+			} else {
+				if (plan.annValKey.equals(entryKey)) {
+					str = CubhuniMappingPlan.toStr(value);
+				} else if (plan.annIniKey.equals(entryKey)) {
+					ini = CubhuniMappingPlan.toOffset(value);
+				} else if (plan.annEndKey.equals(entryKey)) {
+					end = CubhuniMappingPlan.toOffset(value);
+				}
+			}
+		}
+		return true;
+	}
+}
@@ -0,0 +1,408 @@
+/* Copyright 2017 Alicia Gonzalez Martinez
+ * COBHUNI Project, Universität Hamburg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ ********************************************************************/
+
+package de.uni_hamburg.pepper.cubhuni.json;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeSet;
+
+import org.corpus_tools.salt.common.SDocument;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Immutable mapping plan compiled once from the keys of
+ * <code>config.properties</code>. It holds the resolved JSON keys of the
+ * document parts and a table of metadata field descriptors, so that mapping a
+ * document does not need any lookup in {@link Properties}.
+ * <br/>
+ * Values are coerced tolerantly: a number stored as a string or as a double is
+ * still mapped as a long, and a value that cannot be coerced is skipped with a
+ * warning instead of throwing a {@link ClassCastException}.
+ * <br/>
+ * The default configuration is the <code>config.properties</code> bundled on
+ * the classpath. It is loaded and compiled once and shared by all importers,
+ * a plan being safe to read from any thread without locking.
+ *
+ * @author Alicia Gonzalez
+ */
+public final class CubhuniMappingPlan {
+
+	private static final Logger logger = LoggerFactory.getLogger(CubhuniMappingPlan.class);
+
+	/** classpath resource holding the default configuration */
+	public static final String DEFAULT_CONFIG = "/config.properties";
+
+	/* plan of the default configuration, loaded on first use */
+	private static volatile CubhuniMappingPlan defaultPlan = null;
+
+	/** Type of the value of a metadata field. */
+	public enum ValueType {
+		LONG, STRING
+	}
+
+	/**
+	 * Describes how one key of the meta object is mapped to a meta-annotation
+	 * of the document.
+	 */
+	public static final class MetaField {
+		public final String key;
+		public final String annotationName;
+		public final ValueType type;
+		public final boolean nullable;
+
+		MetaField(String key, String annotationName, ValueType type, boolean nullable) {
+			this.key = key;
+			this.annotationName = annotationName;
+			this.type = type;
+			this.nullable = nullable;
+		}
+	}
+
+	/*
+	 * config key, value type and whether null is an expected value, in the
+	 * order the meta-annotations are created
+	 */
+	private static final Object[][] META_FIELDS = {
+			{ "madhab_name", ValueType.STRING, true },
+			{ "madhab_id", ValueType.LONG, false },
+			{ "tafsir_name", ValueType.STRING, true },
+			{ "tafsir_id", ValueType.LONG, false },
+			{ "sura", ValueType.LONG, false },
+			{ "aya_ini", ValueType.LONG, false },
+			{ "aya_end", ValueType.LONG, false },
+			{ "book_id", ValueType.LONG, false },
+			{ "book_name", ValueType.STRING, true },
+			{ "chapter_id", ValueType.LONG, false },
+			{ "chapter_name", ValueType.STRING, true },
+			{ "subchapter_id", ValueType.LONG, true },
+			{ "subchapter_name", ValueType.STRING, true },
+			{ "section_id", ValueType.LONG, true },
+			{ "section_name", ValueType.STRING, true },
+			{ "pages", ValueType.STRING, true },
+			{ "title", ValueType.STRING, true },
+			{ "author", ValueType.STRING, true },
+			{ "date", ValueType.STRING, true },
+			{ "url", ValueType.STRING, true } };
+
+	/* annotation group config key and config key of its name in Annis */
+	private static final String[][] GROUPS = {
+			{ "persons", "key_person" },
+			{ "metamotives", "key_metamotive" },
+			{ "motives", "key_motive" },
+			{ "sections", "key_section" },
+			{ "pages", "key_page" } };
+
+	public final String metaFileSuffix;
+	public final String metaKey;
+	public final String textKey;
+	public final String tokensKey;
+
+	public final String tokKey;
+	public final String tokIniKey;
+	public final String tokEndKey;
+	public final String tokNormName;
+
+	/* keys of the further token annotations, also their names in Annis */
+	private final List<String> tokAnnotations;
+
+	public final String annValKey;
+	public final String annIniKey;
+	public final String annEndKey;
+
+	public final String original;
+	public final String commentary;
+	public final String sourceTypeKey;
+
+	private final List<MetaField> metaFields;
+	private final Map<String, String> groups;
+
+	/* digest of the whole configuration the plan was compiled from */
+	private final String fingerprint;
+
+	private CubhuniMappingPlan(Properties props) {
+		metaFileSuffix = require(props, "meta_file_suf");
+		metaKey = require(props, "meta");
+		textKey = require(props, "text");
+		tokensKey = require(props, "tokens");
+
+		tokKey = require(props, "tok_tok");
+		tokIniKey = require(props, "tok_ini");
+		tokEndKey = require(props, "tok_end");
+		tokNormName = require(props, "tok_norm");
+
+		List<String> tokAnns = new ArrayList<String>();
+		for (String name : props.getProperty("tok_annotations", "").split(",")) {
+			if (!name.trim().isEmpty()) {
+				tokAnns.add(require(props, name.trim()));
+			}
+		}
+		tokAnnotations = Collections.unmodifiableList(tokAnns);
+
+		annValKey = require(props, "annotation_val");
+		annIniKey = require(props, "annotation_ini");
+		annEndKey = require(props, "annotation_end");
+
+		original = require(props, "original");
+		commentary = require(props, "commentary");
+		sourceTypeKey = require(props, "source_type_key");
+
+		List<MetaField> fields = new ArrayList<MetaField>(META_FIELDS.length);
+		for (Object[] desc : META_FIELDS) {
+			String key = require(props, (String) desc[0]);
+			fields.add(new MetaField(key, key, (ValueType) desc[1], (Boolean) desc[2]));
+		}
+		metaFields = Collections.unmodifiableList(fields);
+
+		Map<String, String> grps = new LinkedHashMap<String, String>();
+		for (String[] desc : GROUPS) {
+			grps.put(require(props, desc[0]), require(props, desc[1]));
+		}
+		groups = Collections.unmodifiableMap(grps);
+
+		StringBuilder config = new StringBuilder();
+		for (String key : new TreeSet<String>(props.stringPropertyNames())) {
+			config.append(key).append('=').append(props.getProperty(key).trim()).append('\n');
+		}
+		fingerprint = CubhuniDigest.sha1(config.toString());
+	}
+
+	/**
+	 * Compiles the mapping plan from the given configuration.
+	 *
+	 * @throws IllegalArgumentException
+	 *             if a key needed by the mapping is missing
+	 */
+	public static CubhuniMappingPlan compile(Properties props) {
+		return new CubhuniMappingPlan(props);
+	}
+
+	/**
+	 * Loads and compiles the given configuration file.
+	 *
+	 * @throws IllegalArgumentException
+	 *             if a key needed by the mapping is missing
+	 */
+	public static CubhuniMappingPlan load(File file) throws IOException {
+		return load(file, new Properties());
+	}
+
+	/**
+	 * Loads the given configuration file, replaces the keys it shares with
+	 * the given overrides and compiles it.
+	 *
+	 * @throws IllegalArgumentException
+	 *             if a key needed by the mapping is missing
+	 */
+	public static CubhuniMappingPlan load(File file, Properties overrides) throws IOException {
+		try (InputStream in = new FileInputStream(file)) {
+			return load(in, overrides);
+		}
+	}
+
+	/**
+	 * @return the plan of the configuration bundled on the classpath, loaded
+	 *         and compiled on the first call only
+	 * @throws IllegalArgumentException
+	 *             if a key needed by the mapping is missing
+	 */
+	public static CubhuniMappingPlan loadDefault() throws IOException {
+		CubhuniMappingPlan plan = defaultPlan;
+		if (plan == null) {
+			synchronized (CubhuniMappingPlan.class) {
+				plan = defaultPlan;
+				if (plan == null) {
+					try (InputStream in = CubhuniMappingPlan.class.getResourceAsStream(DEFAULT_CONFIG)) {
+						if (in == null) {
+							throw new FileNotFoundException("No " + DEFAULT_CONFIG + " on the classpath.");
+						}
+						plan = load(in, new Properties());
+					}
+					defaultPlan = plan;
+					logger.debug("Default COBHUNI configuration loaded from the classpath.");
+				}
+			}
+		}
+		return plan;
+	}
+
+	/**
+	 * @return the plan of the configuration bundled on the classpath with the
+	 *         keys it shares with the given overrides replaced; the default
+	 *         plan if there are none
+	 * @throws IllegalArgumentException
+	 *             if a key needed by the mapping is missing
+	 */
+	public static CubhuniMappingPlan loadDefault(Properties overrides) throws IOException {
+		if (overrides.isEmpty()) {
+			return loadDefault();
+		}
+		try (InputStream in = CubhuniMappingPlan.class.getResourceAsStream(DEFAULT_CONFIG)) {
+			if (in == null) {
+				throw new FileNotFoundException("No " + DEFAULT_CONFIG + " on the classpath.");
+			}
+			return load(in, overrides);
+		}
+	}
+
+	/* properties are read as ISO-8859-1, like the bundled file */
+	private static CubhuniMappingPlan load(InputStream in, Properties overrides) throws IOException {
+		Properties props = new Properties();
+		props.load(in);
+		props.putAll(overrides);
+		return compile(props);
+	}
+
+	private static String require(Properties props, String key) {
+		String value = props.getProperty(key);
+		if (value == null) {
+			throw new IllegalArgumentException("Missing key '" + key + "' in the COBHUNI configuration.");
+		}
+		return value.trim();
+	}
+
+	/**
+	 * @return a digest of the configuration, which changes whenever any key of
+	 *         the configuration changes
+	 */
+	public String getFingerprint() {
+		return fingerprint;
+	}
+
+	/**
+	 * @return the keys of the token annotations mapped besides the normalized
+	 *         token, such as pos, lemma or root, as enabled by
+	 *         <code>tok_annotations</code>. The annotation has the name of its
+	 *         key in Annis.
+	 */
+	public List<String> getTokenAnnotations() {
+		return tokAnnotations;
+	}
+
+	public List<MetaField> getMetaFields() {
+		return metaFields;
+	}
+
+	/**
+	 * @return the annotation groups of the top level JSON object mapped to
+	 *         their annotation name in Annis, in configuration order
+	 */
+	public Map<String, String> getGroups() {
+		return groups;
+	}
+
+	public boolean isAnnotationGroup(String key) {
+		return groups.containsKey(key);
+	}
+
+	/**
+	 * Runs the metadata part of the plan: adds a meta-annotation to the
+	 * document for each field present in the meta object.
+	 */
+	public void mapMeta(Map<?, ?> meta, SDocument document) {
+		for (Map.Entry<String, Object> entry : metaValues(meta, document.getName()).entrySet()) {
+			document.createMetaAnnotation(null, entry.getKey(), entry.getValue());
+		}
+	}
+
+	/**
+	 * Reads the fields present in the meta object, without Salt.
+	 *
+	 * @return the value of each field by its annotation name, in
+	 *         configuration order
+	 */
+	public Map<String, Object> metaValues(Map<?, ?> meta, String documentName) {
+		Map<String, Object> values = new LinkedHashMap<String, Object>();
+		if (meta == null) {
+			return values;
+		}
+		for (int i = 0; i < metaFields.size(); i++) {
+			MetaField field = metaFields.get(i);
+			Object raw = meta.get(field.key);
+			if (raw == null) {
+				if (!field.nullable && meta.containsKey(field.key)) {
+					logger.warn("Null value for metadata field '{}' in document {}.", field.key, documentName);
+				}
+				continue;
+			}
+			Object value = (field.type == ValueType.LONG) ? toLong(raw) : toStr(raw);
+			if (value == null) {
+				logger.warn("Cannot read value '{}' of metadata field '{}' in document {} as {}.", raw, field.key,
+						documentName, field.type);
+				continue;
+			}
+			values.put(field.annotationName, value);
+		}
+		return values;
+	}
+
+	/**
+	 * @return the value as a long, or null if it cannot be read as a number
+	 */
+	public static Long toLong(Object value) {
+		if (value instanceof Long) {
+			return (Long) value;
+		}
+		if (value instanceof Number) {
+			return ((Number) value).longValue();
+		}
+		if (value instanceof String) {
+			String str = ((String) value).trim();
+			try {
+				return Long.valueOf(str);
+			} catch (NumberFormatException e) {
+				try {
+					return (long) Double.parseDouble(str);
+				} catch (NumberFormatException e2) {
+					return null;
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return the value as an int offset, or -1 if it cannot be read as a
+	 *         number
+	 */
+	public static int toOffset(Object value) {
+		if (value instanceof Long) {
+			return ((Long) value).intValue();
+		}
+		Long l = toLong(value);
+		return (l == null) ? -1 : l.intValue();
+	}
+
+	/**
+	 * @return the value as a string, or null for a null value
+	 */
+	public static String toStr(Object value) {
+		if (value == null || value instanceof String) {
+			return (String) value;
+		}
+		return String.valueOf(value);
+	}
+}
@@ -0,0 +1,113 @@
+/* Copyright 2017 Alicia Gonzalez Martinez
+ * COBHUNI Project, Universität Hamburg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ ********************************************************************/
+
+package de.uni_hamburg.pepper.cubhuni.json;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Cache of the parsed corpus metadata files (<code>*_meta.json</code>),
+ * shared by all mappers of an importer. Entries are keyed by path and
+ * invalidated when the modification time of the file changes, so each
+ * metadata file is parsed at most once per run.
+ *
+ * @author Alicia Gonzalez
+ */
+public class CubhuniMetaCache {
+
+	private static final Logger logger = LoggerFactory.getLogger(CubhuniMetaCache.class);
+
+	private static final class Entry {
+		final long lastModified;
+		final Map<String, Object> meta;
+
+		Entry(long lastModified, Map<String, Object> meta) {
+			this.lastModified = lastModified;
+			this.meta = meta;
+		}
+	}
+
+	private final Map<String, Entry> entries = new HashMap<String, Entry>();
+
+	private long hits = 0;
+	private long misses = 0;
+
+	/**
+	 * Returns the top level entries of the metadata file, parsing it only if
+	 * it is not cached or it changed since it was parsed.
+	 *
+	 * @return an unmodifiable map of the metadata, or null if the file does
+	 *         not exist
+	 */
+	public synchronized Map<String, Object> get(File metaFile) throws IOException, ParseException {
+		if (!metaFile.isFile()) {
+			return null;
+		}
+		String path = metaFile.getAbsolutePath();
+		long lastModified = metaFile.lastModified();
+
+		Entry entry = entries.get(path);
+		if (entry != null && entry.lastModified == lastModified) {
+			hits++;
+			logger.debug("Corpus metadata cache hit for {}.", path);
+			return entry.meta;
+		}
+
+		misses++;
+		logger.debug("Corpus metadata cache miss for {}.", path);
+
+		Map<String, Object> meta = new LinkedHashMap<String, Object>();
+		Reader reader = CubhuniInput.open(metaFile);
+		try {
+			JSONObject jsonObj = (JSONObject) new JSONParser().parse(reader);
+			for (Object key : jsonObj.keySet()) {
+				meta.put((String) key, jsonObj.get(key));
+			}
+		} finally {
+			reader.close();
+		}
+		meta = Collections.unmodifiableMap(meta);
+		entries.put(path, new Entry(lastModified, meta));
+		return meta;
+	}
+
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * Logs the number of cache hits and misses.
+	 */
+	public synchronized void logStatistics() {
+		logger.info("Corpus metadata cache: {} hits, {} misses, {} files cached.", hits, misses, entries.size());
+	}
+}
@@ -0,0 +1,228 @@
+/* Copyright 2017 Alicia Gonzalez Martinez
+ * COBHUNI Project, Universität Hamburg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ ********************************************************************/
+
+
+package de.uni_hamburg.pepper.cubhuni.json;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Filter of documents on their metadata, so that a sub-corpus can be imported
+ * without converting the whole corpus. The filter is a list of conditions
+ * separated by <code>;</code>, all of which a document has to meet. A
+ * condition compares a metadata field of <code>config.properties</code>, or
+ * the source type, with a value or a list of values:
+ *
+ * <pre>
+ * madhab_id = 3
+ * sura &gt;= 2; sura &lt;= 5
+ * aya_ini in 1..7, 255
+ * source_type = commentary
+ * tafsir_name != unknown
+ * </pre>
+ *
+ * Numeric fields are compared as numbers and take all operators
+ * (<code>= != &lt; &lt;= &gt; &gt;= in</code>) and ranges <code>a..b</code>
+ * in lists, text fields take <code>=</code>, <code>!=</code> and
+ * <code>in</code>. A document lacking a field of a condition does not meet
+ * it.
+ *
+ * @author Alicia Gonzalez
+ */
+public final class CubhuniMetaFilter {
+
+	private static final Pattern COMPARISON = Pattern.compile("([\\w.-]+)\\s*(!=|<=|>=|=|<|>)\\s*(.*)");
+	private static final Pattern LIST = Pattern.compile("([\\w.-]+)\\s+in\\s+(.*)");
+	private static final Pattern RANGE = Pattern.compile("(-?\\d+)\\s*\\.\\.\\s*(-?\\d+)");
+
+	/* one condition of the filter */
+	private static final class Condition {
+		final String key;
+		final boolean numeric;
+		final boolean negated;
+
+		/* ranges of a numeric field, first and last value of each, both included */
+		final List<long[]> ranges = new ArrayList<long[]>();
+
+		/* values of a text field */
+		final Set<String> values = new HashSet<String>();
+
+		Condition(String key, boolean numeric, boolean negated) {
+			this.key = key;
+			this.numeric = numeric;
+			this.negated = negated;
+		}
+
+		boolean matches(Object raw) {
+			if (raw == null) {
+				return false;
+			}
+			boolean found = false;
+			if (numeric) {
+				Long value = CubhuniMappingPlan.toLong(raw);
+				if (value == null) {
+					return false;
+				}
+				for (long[] range : ranges) {
+					found |= range[0] <= value && value <= range[1];
+				}
+			} else {
+				found = values.contains(CubhuniMappingPlan.toStr(raw));
+			}
+			return found != negated;
+		}
+	}
+
+	private final String expression;
+	private final String sourceTypeKey;
+	private final List<Condition> conditions = new ArrayList<Condition>();
+
+	private CubhuniMetaFilter(String expression, String sourceTypeKey) {
+		this.expression = expression;
+		this.sourceTypeKey = sourceTypeKey;
+	}
+
+	/**
+	 * Parses the filter expression over the metadata fields of the plan.
+	 *
+	 * @throws IllegalArgumentException
+	 *             if the expression cannot be parsed or names a field which is
+	 *             not in the plan
+	 */
+	public static CubhuniMetaFilter parse(String expression, CubhuniMappingPlan plan) {
+		CubhuniMetaFilter filter = new CubhuniMetaFilter(expression, plan.sourceTypeKey);
+		for (String part : expression.split(";")) {
+			part = part.trim();
+			if (part.isEmpty()) {
+				continue;
+			}
+			Matcher list = LIST.matcher(part);
+			Matcher comparison = COMPARISON.matcher(part);
+			String key;
+			String op;
+			String value;
+			if (list.matches()) {
+				key = list.group(1);
+				op = "in";
+				value = list.group(2);
+			} else if (comparison.matches()) {
+				key = comparison.group(1);
+				op = comparison.group(2);
+				value = comparison.group(3).trim();
+			} else {
+				throw new IllegalArgumentException("Cannot read the condition '" + part + "' of the metadata filter.");
+			}
+			filter.conditions.add(condition(part, key, op, value, isNumeric(key, plan)));
+		}
+		if (filter.conditions.isEmpty()) {
+			throw new IllegalArgumentException("The metadata filter '" + expression + "' has no condition.");
+		}
+		return filter;
+	}
+
+	private static boolean isNumeric(String key, CubhuniMappingPlan plan) {
+		if (key.equals(plan.sourceTypeKey)) {
+			return false;
+		}
+		for (CubhuniMappingPlan.MetaField field : plan.getMetaFields()) {
+			if (field.key.equals(key)) {
+				return field.type == CubhuniMappingPlan.ValueType.LONG;
+			}
+		}
+		throw new IllegalArgumentException("Unknown metadata field '" + key + "' in the metadata filter.");
+	}
+
+	private static Condition condition(String part, String key, String op, String value, boolean numeric) {
+		Condition condition = new Condition(key, numeric, "!=".equals(op));
+		if (!numeric) {
+			if (!"=".equals(op) && !"!=".equals(op) && !"in".equals(op)) {
+				throw new IllegalArgumentException("The text field '" + key + "' cannot be compared with " + op
+						+ " in the metadata filter.");
+			}
+			for (String item : "in".equals(op) ? value.split(",") : new String[] { value }) {
+				condition.values.add(item.trim());
+			}
+			return condition;
+		}
+		try {
+			if ("in".equals(op)) {
+				for (String item : value.split(",")) {
+					Matcher range = RANGE.matcher(item.trim());
+					if (range.matches()) {
+						condition.ranges.add(new long[] { Long.parseLong(range.group(1)), Long.parseLong(range.group(2)) });
+					} else {
+						long number = Long.parseLong(item.trim());
+						condition.ranges.add(new long[] { number, number });
+					}
+				}
+				return condition;
+			}
+			long number = Long.parseLong(value);
+			switch (op) {
+			case "<":
+				condition.ranges.add(new long[] { Long.MIN_VALUE, number - 1 });
+				break;
+			case "<=":
+				condition.ranges.add(new long[] { Long.MIN_VALUE, number });
+				break;
+			case ">":
+				condition.ranges.add(new long[] { number + 1, Long.MAX_VALUE });
+				break;
+			case ">=":
+				condition.ranges.add(new long[] { number, Long.MAX_VALUE });
+				break;
+			default:
+				condition.ranges.add(new long[] { number, number });
+			}
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("The numeric field '" + key + "' is compared with a text in the "
+					+ "condition '" + part + "' of the metadata filter.", e);
+		}
+		return condition;
+	}
+
+	/**
+	 * @param meta
+	 *            the meta object of the document, or null
+	 * @param sourceType
+	 *            the source type of the document, or null to take it from
+	 *            the meta object
+	 * @return true if the document meets all conditions
+	 */
+	public boolean matches(Map<?, ?> meta, String sourceType) {
+		for (Condition condition : conditions) {
+			Object raw = (meta == null) ? null : meta.get(condition.key);
+			if (sourceType != null && condition.key.equals(sourceTypeKey)) {
+				raw = sourceType;
+			}
+			if (!condition.matches(raw)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public String toString() {
+		return expression;
+	}
+}
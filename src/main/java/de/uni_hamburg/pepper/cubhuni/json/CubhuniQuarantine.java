@@ -0,0 +1,187 @@
+/* Copyright 2017 Alicia Gonzalez Martinez
+ * COBHUNI Project, Universität Hamburg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ ********************************************************************/
+
+package de.uni_hamburg.pepper.cubhuni.json;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.TimeZone;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps a structured error record for each document that failed to import,
+ * so that a batch run goes on with the other documents and the failures can
+ * be looked at afterwards. Each record is a JSON file named after the digest
+ * of the input path:
+ *
+ * <pre>
+ * { "path": ..., "size": ..., "lastModified": ..., "fingerprint": ..., "version": ...,
+ *   "stage": "read" | "build" | "store", "exception": ..., "message": ...,
+ *   "stackTrace": [...], "time": ... }
+ * </pre>
+ *
+ * An input file whose record was written for its current size and
+ * modification time is still quarantined on the next run and is not read
+ * again, until it changes. A record written with another configuration or
+ * another version of the module does not quarantine the file, since the
+ * failure may have been caused by either of them.
+ *
+ * @author Alicia Gonzalez
+ */
+public class CubhuniQuarantine {
+
+	private static final Logger logger = LoggerFactory.getLogger(CubhuniQuarantine.class);
+
+	private static final String SUFFIX = ".error.json";
+
+	/* number of stack trace elements kept in a record */
+	private static final int STACK_DEPTH = 20;
+
+	private final File dir;
+	private final String fingerprint;
+	private final String version;
+
+	private final AtomicInteger quarantined = new AtomicInteger();
+	private final AtomicInteger skipped = new AtomicInteger();
+
+	/**
+	 * @param fingerprint
+	 *            fingerprint of the configuration, see
+	 *            {@link CubhuniMappingPlan#getFingerprint()}
+	 * @param version
+	 *            version of the module, or null if it is not known
+	 */
+	public CubhuniQuarantine(File dir, String fingerprint, String version) throws IOException {
+		this.dir = dir;
+		this.fingerprint = fingerprint;
+		this.version = String.valueOf(version);
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			throw new IOException("Cannot create the quarantine directory " + dir);
+		}
+	}
+
+	private File recordOf(File input) {
+		return new File(dir, CubhuniDigest.sha1(input.getAbsolutePath()) + SUFFIX);
+	}
+
+	/**
+	 * @return true if the input file failed in a previous run with the same
+	 *         configuration and version of the module, and did not change
+	 *         since
+	 */
+	public boolean isQuarantined(File input) {
+		File record = recordOf(input);
+		if (!record.isFile()) {
+			return false;
+		}
+		try {
+			Reader reader = CubhuniInput.open(record);
+			try {
+				JSONObject obj = (JSONObject) new JSONParser().parse(reader);
+				if (Long.valueOf(input.length()).equals(CubhuniMappingPlan.toLong(obj.get("size")))
+						&& Long.valueOf(input.lastModified()).equals(CubhuniMappingPlan.toLong(obj.get("lastModified")))
+						&& fingerprint.equals(obj.get("fingerprint")) && version.equals(obj.get("version"))) {
+					return true;
+				}
+			} finally {
+				reader.close();
+			}
+		} catch (IOException | ParseException | RuntimeException e) {
+			logger.warn("Cannot read the error record {}.", record, e);
+		}
+		return false;
+	}
+
+	/**
+	 * Counts a quarantined input file which is not read again in this run.
+	 */
+	public void skip(File input) {
+		logger.warn("Skipping {}, it failed in a previous run and did not change since, see {}.", input,
+				recordOf(input));
+		skipped.incrementAndGet();
+	}
+
+	/**
+	 * Writes the error record of a document which failed at the given stage.
+	 */
+	@SuppressWarnings("unchecked")
+	public void quarantine(File input, String stage, Throwable error) {
+		JSONObject obj = new JSONObject();
+		obj.put("path", input.getAbsolutePath());
+		obj.put("size", input.length());
+		obj.put("lastModified", input.lastModified());
+		obj.put("fingerprint", fingerprint);
+		obj.put("version", version);
+		obj.put("stage", stage);
+		obj.put("exception", error.getClass().getName());
+		obj.put("message", error.getMessage());
+		JSONArray stack = new JSONArray();
+		StackTraceElement[] elements = error.getStackTrace();
+		for (int i = 0; i < Math.min(STACK_DEPTH, elements.length); i++) {
+			stack.add(elements[i].toString());
+		}
+		obj.put("stackTrace", stack);
+		SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'");
+		format.setTimeZone(TimeZone.getTimeZone("UTC"));
+		obj.put("time", format.format(new Date()));
+
+		File record = recordOf(input);
+		try {
+			Writer writer = new OutputStreamWriter(new FileOutputStream(record), StandardCharsets.UTF_8);
+			try {
+				writer.write(obj.toJSONString());
+			} finally {
+				writer.close();
+			}
+		} catch (IOException e) {
+			logger.warn("Cannot write the error record {}.", record, e);
+		}
+		quarantined.incrementAndGet();
+	}
+
+	/**
+	 * Removes the error record of an input file which was imported.
+	 */
+	public void release(File input) {
+		File record = recordOf(input);
+		if (record.isFile() && !record.delete()) {
+			logger.warn("Cannot delete the error record {}.", record);
+		}
+	}
+
+	/**
+	 * Logs the number of documents quarantined in this run and skipped because
+	 * they failed in a previous run.
+	 */
+	public void logStatistics() {
+		logger.info("Quarantine {}: {} documents failed, {} unchanged failed documents skipped.", dir,
+				quarantined.get(), skipped.get());
+	}
+}
@@ -0,0 +1,213 @@
+/* Copyright 2017 Alicia Gonzalez Martinez
+ * COBHUNI Project, Universität Hamburg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ ********************************************************************/
+
+package de.uni_hamburg.pepper.cubhuni.json;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.emf.common.util.URI;
+import org.json.simple.parser.ParseException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Read-ahead stage of the import: reads the next documents on a separate pool
+ * of threads while the mappers build the Salt graphs of the current ones, so
+ * that file I/O and JSON parsing overlap with graph building.
+ * <br/>
+ * At most <code>depth</code> documents are read ahead and not yet taken by a
+ * mapper, which bounds the heap used by prefetched documents. Under an
+ * admission budget, a document is read ahead only once its estimated cost is
+ * reserved, which it does without waiting, and its reservation passes to the
+ * mapper taking it. A document which does not fit yet, or which a mapper asks
+ * for before it was scheduled, is read by the mapper itself.
+ *
+ * @author Alicia Gonzalez
+ */
+public class CubhuniReadAhead {
+
+	private static final Logger logger = LoggerFactory.getLogger(CubhuniReadAhead.class);
+
+	private final CubhuniJSONReader reader;
+	private final CubhuniAdmission admission;
+	private final int depth;
+	private final ExecutorService pool;
+
+	/* documents not scheduled yet, in the order they are expected to be mapped */
+	private final LinkedHashSet<URI> queue;
+
+	/* documents scheduled or read, and not taken yet */
+	private final Map<URI, Future<CubhuniDocumentBuilder>> prefetched = new HashMap<URI, Future<CubhuniDocumentBuilder>>();
+
+	/* costs reserved for the documents scheduled and not taken yet */
+	private final Map<URI, Long> reservations = new HashMap<URI, Long>();
+
+	/**
+	 * A document read ahead, with the cost reserved for it.
+	 */
+	public static final class Prefetched {
+		public final CubhuniDocumentBuilder builder;
+		public final long held;
+
+		Prefetched(CubhuniDocumentBuilder builder, long held) {
+			this.builder = builder;
+			this.held = held;
+		}
+	}
+
+	private boolean closed = false;
+
+	/**
+	 * @param reader
+	 *            reader used to read the documents
+	 * @param resources
+	 *            the documents to read, in the order they are expected to be
+	 *            mapped
+	 * @param depth
+	 *            maximal number of documents read ahead
+	 * @param threads
+	 *            number of threads reading documents
+	 * @param admission
+	 *            heap budget the documents read ahead are reserved in, or null
+	 */
+	public CubhuniReadAhead(CubhuniJSONReader reader, List<URI> resources, int depth, int threads,
+			CubhuniAdmission admission) {
+		this.reader = reader;
+		this.admission = admission;
+		this.depth = depth;
+		this.queue = new LinkedHashSet<URI>(resources);
+		this.pool = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "cubhuni-read-ahead-" + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		fill();
+	}
+
+	/**
+	 * Returns the read document at the given location with the cost reserved
+	 * for it, waiting for it if it is still being read.
+	 *
+	 * @return the document read ahead, or null if it was not scheduled, in
+	 *         which case the caller reserves its cost and reads it
+	 */
+	public Prefetched take(URI resource) throws IOException, ParseException {
+		Future<CubhuniDocumentBuilder> future;
+		long held = 0;
+		synchronized (this) {
+			future = prefetched.remove(resource);
+			if (future == null) {
+				queue.remove(resource);
+			} else if (reservations.containsKey(resource)) {
+				held = reservations.remove(resource);
+			}
+			fill();
+		}
+
+		if (future == null) {
+			logger.debug("Document {} was not read ahead.", resource);
+			return null;
+		}
+
+		boolean taken = false;
+		try {
+			Prefetched read = new Prefetched(future.get(), held);
+			taken = true;
+			return read;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for document " + resource, e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			}
+			if (cause instanceof ParseException) {
+				throw (ParseException) cause;
+			}
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			throw new IOException("Cannot read document " + resource, cause);
+		} finally {
+			if (!taken && admission != null) {
+				admission.release(held);
+			}
+		}
+	}
+
+	/**
+	 * Stops reading ahead and discards the documents not taken, releasing
+	 * their reservations.
+	 */
+	public synchronized void shutdown() {
+		closed = true;
+		queue.clear();
+		for (Future<CubhuniDocumentBuilder> future : prefetched.values()) {
+			future.cancel(true);
+		}
+		prefetched.clear();
+		if (admission != null) {
+			for (long held : reservations.values()) {
+				admission.release(held);
+			}
+		}
+		reservations.clear();
+		pool.shutdownNow();
+	}
+
+	/*
+	 * schedules documents until depth documents are read ahead, or until the
+	 * next one does not fit into the budget
+	 */
+	private void fill() {
+		while (!closed && prefetched.size() < depth && !queue.isEmpty()) {
+			Iterator<URI> next = queue.iterator();
+			final URI resource = next.next();
+			if (admission != null) {
+				long held = admission.tryAcquire(CubhuniAdmission.estimateRead(resource, reader.isStreaming()));
+				if (held == 0) {
+					return;
+				}
+				reservations.put(resource, held);
+			}
+			next.remove();
+			prefetched.put(resource, pool.submit(new Callable<CubhuniDocumentBuilder>() {
+				@Override
+				public CubhuniDocumentBuilder call() throws Exception {
+					return reader.read(resource);
+				}
+			}));
+		}
+	}
+}
@@ -0,0 +1,302 @@
+/* Copyright 2017 Alicia Gonzalez Martinez
+ * COBHUNI Project, Universität Hamburg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ ********************************************************************/
+
+
+package de.uni_hamburg.pepper.cubhuni.json;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.json.simple.parser.ParseException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Converts a COBHUNI corpus directory straight into relANNIS with the
+ * {@link CubhuniRelANNISWriter}, as a faster alternative to the
+ * {@link CubhuniJSONImporter} followed by the ANNIS exporter. Documents are
+ * read one at a time, as a stream of JSON events, and written out before the
+ * next one is read, so no Salt graph is ever built.
+ * <br/>
+ * The corpus-structure is the one of the importer: a corpus per directory,
+ * with the metadata of its <code>*_meta.json</code> file, and a document per
+ * <code>.json</code> or <code>.json.gz</code> file. A document that cannot be
+ * read is logged and left out, the other documents go on.
+ * <br/>
+ * A converter kept between conversions of the same corpus, as by the
+ * {@link CubhuniWatchService}, may be given a directory for the rows of each
+ * document. It then reads and maps again only the documents below the paths
+ * which changed since the last conversion, and appends the rows of the other
+ * documents from their fragments as they were written; a corpus metadata
+ * file is parsed again only if it changed.
+ *
+ * <pre>
+ * java -cp ... de.uni_hamburg.pepper.cubhuni.json.CubhuniRelANNISConverter &lt;input dir&gt; &lt;output dir&gt; [config.properties]
+ * </pre>
+ *
+ * @author Alicia Gonzalez
+ */
+public class CubhuniRelANNISConverter {
+
+	private static final Logger logger = LoggerFactory.getLogger(CubhuniRelANNISConverter.class);
+
+	private final CubhuniMappingPlan plan;
+	private final CubhuniJSONReader reader;
+	private final CubhuniMetaCache metaCache = new CubhuniMetaCache();
+
+	/* rows of the documents converted, by path, null if every conversion maps all documents */
+	private final File fragmentDir;
+	private final Map<String, Fragment> fragments = new HashMap<String, Fragment>();
+	private final CubhuniRelANNISWriter.Ids ids = new CubhuniRelANNISWriter.Ids();
+
+	/* rows of a converted document, valid while its file keeps its size and modification time */
+	private static final class Fragment {
+		final int id;
+		final long bytes;
+		final long lastModified;
+		final File dir;
+
+		Fragment(int id, long bytes, long lastModified, File dir) {
+			this.id = id;
+			this.bytes = bytes;
+			this.lastModified = lastModified;
+			this.dir = dir;
+		}
+	}
+
+	/* documents of the current or last conversion, read by other threads for progress */
+	private volatile int converted = 0;
+	private volatile int failed = 0;
+	private volatile int reused = 0;
+	private int skippedSpans = 0;
+
+	public CubhuniRelANNISConverter(CubhuniMappingPlan plan) {
+		this(plan, null);
+	}
+
+	/**
+	 * @param sidecar
+	 *            binary copies documents are loaded from instead of being
+	 *            parsed while they are up to date, or null
+	 */
+	public CubhuniRelANNISConverter(CubhuniMappingPlan plan, CubhuniSidecar sidecar) {
+		this(plan, sidecar, null);
+	}
+
+	/**
+	 * @param fragmentDir
+	 *            directory the rows of each document are kept in between
+	 *            conversions, so that only the documents which changed are
+	 *            mapped again, or null
+	 */
+	public CubhuniRelANNISConverter(CubhuniMappingPlan plan, CubhuniSidecar sidecar, File fragmentDir) {
+		this.plan = plan;
+		this.reader = new CubhuniJSONReader(plan, true, sidecar, null);
+		this.fragmentDir = fragmentDir;
+	}
+
+	/**
+	 * Converts the corpus below the input directory into the relANNIS files
+	 * of the output directory.
+	 */
+	public void convert(File input, File outputDir) throws IOException {
+		convert(input, outputDir, null);
+	}
+
+	/**
+	 * Converts the corpus below the input directory into the relANNIS files
+	 * of the output directory. With a fragment directory, only the documents
+	 * below the changed paths, and those whose file changed or which have no
+	 * fragment yet, are read and mapped again.
+	 *
+	 * @param changes
+	 *            absolute paths of the documents and directories changed since
+	 *            the last conversion, or null if all documents are to be mapped
+	 */
+	public void convert(File input, File outputDir, Set<Path> changes) throws IOException {
+		converted = 0;
+		failed = 0;
+		reused = 0;
+		skippedSpans = 0;
+		CubhuniCorpusScanner scanner = new CubhuniCorpusScanner(Arrays.asList("json", "json" + CubhuniInput.GZIP_ENDING),
+				plan.metaFileSuffix, Runtime.getRuntime().availableProcessors());
+		CubhuniCorpusScanner.Dir root = scanner.scan(input);
+		Set<String> seen = new HashSet<String>();
+		CubhuniRelANNISWriter writer = (fragmentDir == null) ? new CubhuniRelANNISWriter(outputDir, plan)
+				: new CubhuniRelANNISWriter(outputDir, plan, ids);
+		try {
+			convert(writer, root, -1, changes, seen);
+		} finally {
+			writer.close();
+		}
+
+		/* the fragments of the documents which are gone */
+		for (Iterator<Map.Entry<String, Fragment>> i = fragments.entrySet().iterator(); i.hasNext();) {
+			Map.Entry<String, Fragment> entry = i.next();
+			if (!seen.contains(entry.getKey())) {
+				delete(entry.getValue());
+				i.remove();
+			}
+		}
+		logger.info("Converted {} documents into {}, {} kept from the last conversion, {} failed, {} spans skipped.",
+				converted, outputDir, reused, failed, skippedSpans + writer.getSkippedSpans());
+	}
+
+	private void convert(CubhuniRelANNISWriter writer, CubhuniCorpusScanner.Dir dir, int parent, Set<Path> changes,
+			Set<String> seen) throws IOException {
+		String name = dir.dir.getName();
+		int corpus = writer.corpus(name, parent, corpusMeta(new File(dir.dir, name + plan.metaFileSuffix)));
+		for (CubhuniCorpusScanner.Dir subdir : dir.subdirs) {
+			convert(writer, subdir, corpus, changes, seen);
+		}
+		for (File file : dir.documents) {
+			String key = file.getAbsolutePath();
+			String source = CubhuniInput.baseName(file.getName());
+			seen.add(key);
+			Fragment fragment = fragments.get(key);
+			if (fragment != null && !isChanged(file, changes) && fragment.bytes == file.length()
+					&& fragment.lastModified == file.lastModified()) {
+				writer.document(fragment.id, source, corpus, fragment.dir);
+				reused++;
+				continue;
+			}
+
+			CubhuniDocumentBuilder builder;
+			try {
+				builder = reader.read(file);
+			} catch (IOException | ParseException | RuntimeException e) {
+				logger.error("Cannot read the document {}, it is left out.", file, e);
+				if (fragments.remove(key) != null) {
+					delete(fragment);
+				}
+				failed++;
+				continue;
+			}
+			Map<String, Object> meta = new LinkedHashMap<String, Object>();
+			if (source.endsWith(plan.original)) {
+				meta.put(plan.sourceTypeKey, plan.original);
+			}
+			if (source.endsWith(plan.commentary)) {
+				meta.put(plan.sourceTypeKey, plan.commentary);
+			}
+			if (fragmentDir == null) {
+				writer.document(source, corpus, builder, meta);
+			} else {
+				File rows = new File(fragmentDir, CubhuniDigest.sha1(key));
+				CubhuniRelANNISWriter part = CubhuniRelANNISWriter.fragment(rows, plan, ids);
+				int id;
+				try {
+					id = part.document(source, corpus, builder, meta);
+				} finally {
+					part.close();
+				}
+				skippedSpans += part.getSkippedSpans();
+				fragments.put(key, new Fragment(id, file.length(), file.lastModified(), rows));
+				writer.document(id, source, corpus, rows);
+			}
+			converted++;
+		}
+	}
+
+	/* deletes the files of a fragment, which has no directories, and its directory */
+	private static void delete(Fragment fragment) throws IOException {
+		File[] files = fragment.dir.listFiles();
+		if (files == null) {
+			return;
+		}
+		for (File file : files) {
+			Files.delete(file.toPath());
+		}
+		Files.delete(fragment.dir.toPath());
+	}
+
+	/* true if the file or a directory above it is one of the changes */
+	private static boolean isChanged(File file, Set<Path> changes) {
+		if (changes == null) {
+			return true;
+		}
+		for (Path path = file.toPath().toAbsolutePath(); path != null; path = path.getParent()) {
+			if (changes.contains(path)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/*
+	 * the entries of the corpus metadata file, values which are not a string,
+	 * number or boolean as strings, as in CubhuniJSONImporter
+	 */
+	private Map<String, Object> corpusMeta(File metaFile) {
+		Map<String, Object> meta = new LinkedHashMap<String, Object>();
+		try {
+			Map<String, Object> entries = metaCache.get(metaFile);
+			if (entries == null) {
+				logger.debug("No corpus metadata file {}.", metaFile);
+				return meta;
+			}
+			for (Map.Entry<String, Object> entry : entries.entrySet()) {
+				Object value = entry.getValue();
+				if (value != null && !(value instanceof String || value instanceof Number || value instanceof Boolean)) {
+					value = value.toString();
+				}
+				meta.put(entry.getKey(), value);
+			}
+		} catch (IOException | ParseException | RuntimeException e) {
+			logger.error("Cannot read the corpus metadata file {}, the corpus has no metadata.", metaFile, e);
+		}
+		return meta;
+	}
+
+	public int getConverted() {
+		return converted;
+	}
+
+	public int getFailed() {
+		return failed;
+	}
+
+	/**
+	 * @return the number of documents of the current or last conversion
+	 *         whose rows were kept from the conversion before
+	 */
+	public int getReused() {
+		return reused;
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 2 || args.length > 3) {
+			System.err.println("usage: CubhuniRelANNISConverter <input dir> <output dir> [config.properties]");
+			System.exit(2);
+		}
+		CubhuniMappingPlan plan = (args.length == 3) ? CubhuniMappingPlan.load(new File(args[2]))
+				: CubhuniMappingPlan.loadDefault();
+		CubhuniRelANNISConverter converter = new CubhuniRelANNISConverter(plan);
+		converter.convert(new File(args[0]), new File(args[1]));
+		if (converter.getFailed() > 0) {
+			System.exit(1);
+		}
+	}
+}
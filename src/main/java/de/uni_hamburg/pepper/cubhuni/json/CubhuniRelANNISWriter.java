@@ -0,0 +1,429 @@
+/* Copyright 2017 Alicia Gonzalez Martinez
+ * COBHUNI Project, Universität Hamburg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ ********************************************************************/
+
+
+package de.uni_hamburg.pepper.cubhuni.json;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Writes COBHUNI documents straight into the tab separated files of the
+ * relANNIS 3.3 format, without building a Salt graph. A COBHUNI document is
+ * flat: one primary text, its tokens and spans over ranges of tokens, so each
+ * staged {@link CubhuniDocumentBuilder} is written out row by row as soon as
+ * it has been read, and only the corpus tree is kept until {@link #close()}
+ * computes its pre and post order.
+ * <br/>
+ * The rows follow the Salt route through the ANNIS exporter: tokens and spans
+ * are nodes of the namespace <code>default_ns</code>, annotations of any
+ * group covering exactly the same token range share one span, and each span
+ * is the root of its own coverage component. Spans with a token range out of
+ * the document are skipped with a warning.
+ * <br/>
+ * The rows of a document may also be written into a fragment of their own,
+ * a directory with one file per table, by a writer made by
+ * {@link #fragment(File, CubhuniMappingPlan, Ids)}, and appended later to the
+ * files of a corpus as they are. Writers sharing their {@link Ids} never give
+ * two rows the same id, so a fragment stays valid in any later corpus
+ * written with the same ids.
+ *
+ * @author Alicia Gonzalez
+ */
+public class CubhuniRelANNISWriter implements Closeable {
+
+	private static final Logger logger = LoggerFactory.getLogger(CubhuniRelANNISWriter.class);
+
+	public static final String VERSION = "3.3";
+
+	/* namespace and layer of the nodes and annotations Salt creates without one */
+	public static final String DEFAULT_NS = "default_ns";
+
+	private static final String NULL = "NULL";
+
+	/* tables holding the rows of a document, and so the files of a fragment */
+	private static final String[] DOCUMENT_TABLES = { "corpus_annotation.annis", "text.annis", "node.annis",
+			"node_annotation.annis", "component.annis", "rank.annis" };
+
+	/**
+	 * The next free ids of the corpora and documents, texts, nodes, components
+	 * and ranks, shared by the writers of the fragments and of the corpus they
+	 * are appended to.
+	 */
+	public static final class Ids {
+		private int corpus = 0;
+		private long node = 0;
+		private long text = 0;
+		private long component = 0;
+		private long rank = 0;
+		private long pre = 0;
+	}
+
+	private final CubhuniMappingPlan plan;
+
+	private final Writer corpusAnnotation;
+	private final Writer text;
+	private final Writer node;
+	private final Writer nodeAnnotation;
+	private final Writer component;
+	private final Writer rank;
+	private final Writer edgeAnnotation;
+	private final File outputDir;
+
+	/* whether only the rows of documents are written, without the corpus tree */
+	private final boolean fragment;
+
+	/* the corpus tree by id, written to corpus.annis on close */
+	private final Map<Integer, String> names = new HashMap<Integer, String>();
+	private final Map<Integer, Boolean> documents = new HashMap<Integer, Boolean>();
+	private final Map<Integer, List<Integer>> children = new HashMap<Integer, List<Integer>>();
+	private final List<Integer> roots = new ArrayList<Integer>();
+
+	private final Ids ids;
+
+	private int skippedSpans = 0;
+
+	public CubhuniRelANNISWriter(File outputDir, CubhuniMappingPlan plan) throws IOException {
+		this(outputDir, plan, new Ids(), false);
+	}
+
+	/**
+	 * @param ids
+	 *            ids shared with the writers of the fragments appended to the
+	 *            corpus
+	 */
+	public CubhuniRelANNISWriter(File outputDir, CubhuniMappingPlan plan, Ids ids) throws IOException {
+		this(outputDir, plan, ids, false);
+	}
+
+	private CubhuniRelANNISWriter(File outputDir, CubhuniMappingPlan plan, Ids ids, boolean fragment)
+			throws IOException {
+		if (!outputDir.isDirectory() && !outputDir.mkdirs()) {
+			throw new IOException("Cannot create the directory " + outputDir + ".");
+		}
+		this.outputDir = outputDir;
+		this.plan = plan;
+		this.ids = ids;
+		this.fragment = fragment;
+		this.corpusAnnotation = open("corpus_annotation.annis");
+		this.text = open("text.annis");
+		this.node = open("node.annis");
+		this.nodeAnnotation = open("node_annotation.annis");
+		this.component = open("component.annis");
+		this.rank = open("rank.annis");
+		this.edgeAnnotation = open("edge_annotation.annis");
+	}
+
+	/**
+	 * @return a writer of the rows of documents into a fragment directory,
+	 *         to be appended to a corpus by
+	 *         {@link #document(int, String, int, File)}
+	 */
+	public static CubhuniRelANNISWriter fragment(File dir, CubhuniMappingPlan plan, Ids ids) throws IOException {
+		return new CubhuniRelANNISWriter(dir, plan, ids, true);
+	}
+
+	private Writer open(String fileName) throws IOException {
+		return new BufferedWriter(new OutputStreamWriter(new FileOutputStream(new File(outputDir, fileName)),
+				StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Adds a corpus with its metadata.
+	 *
+	 * @param parent
+	 *            id of the parent corpus, or -1 for a top level corpus
+	 * @return the id of the corpus
+	 */
+	public int corpus(String name, int parent, Map<String, Object> meta) throws IOException {
+		int id = ids.corpus++;
+		add(id, name, parent, false);
+		writeMeta(id, meta);
+		return id;
+	}
+
+	/**
+	 * Writes a document read into the builder: its metadata, primary text,
+	 * tokens and spans.
+	 *
+	 * @param parent
+	 *            id of the corpus of the document
+	 * @param meta
+	 *            further meta-annotations of the document, such as its source
+	 *            type
+	 * @return the id of the document
+	 */
+	public int document(String name, int parent, CubhuniDocumentBuilder builder, Map<String, Object> meta)
+			throws IOException {
+		int id = ids.corpus++;
+		add(id, name, parent, true);
+		writeMeta(id, plan.metaValues(builder.getMeta(), name));
+		writeMeta(id, meta);
+
+		String str = builder.getText();
+		int tokenCount = builder.getTokenCount();
+		if (str == null) {
+			if (tokenCount > 0) {
+				throw new IllegalStateException("Document " + name + " has tokens but no text.");
+			}
+			return id;
+		}
+		long txt = ids.text++;
+		row(text, id, txt, "sText1", str);
+
+		/* annotations covering the same token range share one span, as long as it has no annotation of that name */
+		List<int[]> ranges = new ArrayList<int[]>();
+		List<List<String[]>> annotations = new ArrayList<List<String[]>>();
+		Map<Long, Integer> spansByRange = new HashMap<Long, Integer>();
+		boolean[] covered = new boolean[tokenCount];
+		for (int j = 0; j < builder.getSpanCount(); j++) {
+			String group = builder.getSpan(j)[0];
+			String val = builder.getSpan(j)[1];
+			int ini = builder.getSpanOffsets(j)[0];
+			int end = builder.getSpanOffsets(j)[1];
+			if (ini < 0 || end >= tokenCount || ini > end) {
+				logger.warn("Skipping {} span '{}' of document {}: tokens {}..{} out of range, the document has {} tokens.",
+						group, val, name, ini, end, tokenCount);
+				skippedSpans++;
+				continue;
+			}
+			String tag = plan.getGroups().get(group);
+			Long range = (((long) ini) << 32) | (end & 0xFFFFFFFFL);
+			Integer span = spansByRange.get(range);
+			if (span == null || has(annotations.get(span), tag)) {
+				span = ranges.size();
+				ranges.add(new int[] { ini, end });
+				annotations.add(new ArrayList<String[]>(1));
+				spansByRange.put(range, span);
+				for (int i = ini; i <= end; i++) {
+					covered[i] = true;
+				}
+			}
+			annotations.get(span).add(new String[] { tag, val });
+		}
+
+		long firstToken = ids.node;
+		List<String> annNames = plan.getTokenAnnotations();
+		for (int i = 0; i < tokenCount; i++) {
+			long tok = ids.node++;
+			int ini = builder.getTokenIni(i);
+			int end = builder.getTokenEnd(i);
+			row(node, tok, txt, id, DEFAULT_NS, "sTok" + (i + 1), ini, end, i, i, i, null, null,
+					str.substring(ini, end), !covered[i]);
+			row(nodeAnnotation, tok, null, plan.tokNormName, builder.getToken(i));
+			for (int f = 0; f < annNames.size(); f++) {
+				String value = builder.getTokenAnnotation(i, f);
+				if (value != null) {
+					row(nodeAnnotation, tok, null, annNames.get(f), value);
+				}
+			}
+		}
+
+		for (int s = 0; s < ranges.size(); s++) {
+			long span = ids.node++;
+			int ini = ranges.get(s)[0];
+			int end = ranges.get(s)[1];
+			row(node, span, txt, id, DEFAULT_NS, "sSpan" + (s + 1), builder.getTokenIni(ini),
+					builder.getTokenEnd(end), null, ini, end, null, null, null, true);
+			for (String[] annotation : annotations.get(s)) {
+				row(nodeAnnotation, span, null, annotation[0], annotation[1]);
+			}
+
+			/*
+			 * the span covers its tokens in a component of its own; a rank row
+			 * is id, pre, post, node, component, id of the parent rank and level
+			 */
+			long c = ids.component++;
+			row(component, c, "c", DEFAULT_NS, null);
+			long root = ids.rank++;
+			long rootPre = ids.pre++;
+			for (int i = ini; i <= end; i++) {
+				long p = ids.pre++;
+				row(rank, ids.rank++, p, ids.pre++, firstToken + i, c, root, 1);
+			}
+			row(rank, root, rootPre, ids.pre++, span, c, null, 0);
+		}
+		return id;
+	}
+
+	/**
+	 * Adds a document whose rows were written into the given fragment, and
+	 * appends them to the files of the corpus.
+	 *
+	 * @param id
+	 *            id of the document in the fragment
+	 */
+	public void document(int id, String name, int parent, File fragment) throws IOException {
+		add(id, name, parent, true);
+		Writer[] writers = { corpusAnnotation, text, node, nodeAnnotation, component, rank };
+		char[] buffer = new char[8192];
+		for (int t = 0; t < DOCUMENT_TABLES.length; t++) {
+			Reader reader = new InputStreamReader(new FileInputStream(new File(fragment, DOCUMENT_TABLES[t])),
+					StandardCharsets.UTF_8);
+			try {
+				int n;
+				while ((n = reader.read(buffer)) != -1) {
+					writers[t].write(buffer, 0, n);
+				}
+			} finally {
+				reader.close();
+			}
+		}
+	}
+
+	private static boolean has(List<String[]> annotations, String name) {
+		for (String[] annotation : annotations) {
+			if (annotation[0].equals(name)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return the number of spans that were skipped because their token range
+	 *         is out of the bounds of the document
+	 */
+	public int getSkippedSpans() {
+		return skippedSpans;
+	}
+
+	/* adds a corpus or document to the corpus tree, a fragment has none */
+	private void add(int id, String name, int parent, boolean document) {
+		if (fragment) {
+			return;
+		}
+		names.put(id, name);
+		documents.put(id, document);
+		children.put(id, new ArrayList<Integer>());
+		if (parent < 0) {
+			roots.add(id);
+		} else {
+			children.get(parent).add(id);
+		}
+	}
+
+	private void writeMeta(int id, Map<String, Object> meta) throws IOException {
+		if (meta == null) {
+			return;
+		}
+		for (Map.Entry<String, Object> entry : meta.entrySet()) {
+			if (entry.getValue() != null) {
+				row(corpusAnnotation, id, null, entry.getKey(), entry.getValue());
+			}
+		}
+	}
+
+	/**
+	 * Writes the corpus tree and the files without rows, and closes all
+	 * files; a fragment only closes its files.
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			if (fragment) {
+				return;
+			}
+			Writer corpus = open("corpus.annis");
+			try {
+				long[] order = new long[] { 0 };
+				for (Integer root : roots) {
+					writeCorpus(corpus, root, order, true);
+				}
+			} finally {
+				corpus.close();
+			}
+			open("resolver_vis_map.annis").close();
+			Writer version = open("annis.version");
+			try {
+				version.write(VERSION);
+				version.write('\n');
+			} finally {
+				version.close();
+			}
+		} finally {
+			for (Writer writer : new Writer[] { corpusAnnotation, text, node, nodeAnnotation, component, rank,
+					edgeAnnotation }) {
+				writer.close();
+			}
+		}
+	}
+
+	/* writes the rows of the corpus and its children in pre and post order */
+	private void writeCorpus(Writer corpus, int id, long[] order, boolean topLevel) throws IOException {
+		long p = order[0]++;
+		for (Integer child : children.get(id)) {
+			writeCorpus(corpus, child, order, false);
+		}
+		row(corpus, id, names.get(id), documents.get(id) ? "DOCUMENT" : "CORPUS", null, p, order[0]++, topLevel);
+	}
+
+	/* writes one tab separated row, null values as NULL */
+	private static void row(Writer writer, Object... values) throws IOException {
+		for (int i = 0; i < values.length; i++) {
+			if (i > 0) {
+				writer.write('\t');
+			}
+			if (values[i] == null) {
+				writer.write(NULL);
+			} else if (values[i] instanceof Boolean) {
+				writer.write((Boolean) values[i] ? "TRUE" : "FALSE");
+			} else {
+				escape(writer, values[i].toString());
+			}
+		}
+		writer.write('\n');
+	}
+
+	/* escapes backslashes, tabs and line breaks of a value */
+	static void escape(Writer writer, String value) throws IOException {
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			switch (c) {
+			case '\\':
+				writer.write("\\\\");
+				break;
+			case '\t':
+				writer.write("\\t");
+				break;
+			case '\n':
+				writer.write("\\n");
+				break;
+			case '\r':
+				writer.write("\\r");
+				break;
+			default:
+				writer.write(c);
+			}
+		}
+	}
+}
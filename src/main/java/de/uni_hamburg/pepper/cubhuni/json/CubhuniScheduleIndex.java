@@ -0,0 +1,433 @@
+/* Copyright 2017 Alicia Gonzalez Martinez
+ * COBHUNI Project, Universität Hamburg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ ********************************************************************/
+
+
+package de.uni_hamburg.pepper.cubhuni.json;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.eclipse.emf.common.util.URI;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Index of the documents of a corpus used to schedule the largest documents
+ * first, so that the import does not end with one mapper working alone on a
+ * large document picked up last. For each document it keeps its size, the
+ * tokens and spans it had and the time its reading and building took, as
+ * measured by the last run which mapped it. The index is written to a file
+ * at the end of each run and read at the start of the next one.
+ * <br/>
+ * The mapping time of a document is estimated, in this order:
+ * <ol>
+ * <li>as the time measured last, if the document did not change since</li>
+ * <li>for a shard, from its number of tokens known from its cuts, with the
+ * spans per token and the time per token or span of all measured
+ * documents</li>
+ * <li>as the time measured last scaled by the change of its size, if it
+ * changed</li>
+ * <li>from its size, with the bytes and the time per token or span of all
+ * measured documents</li>
+ * <li>only while no document of a size known before reading is measured, as
+ * on the first run: from its tokens and spans, counted by a scan of its
+ * bytes for the keys of tokens and of span values, with the default time
+ * per token or span; see {@link #isScanning()}</li>
+ * <li>as the average time of the measured documents, if its size is not
+ * known before it is read, as for an entry of an archive</li>
+ * </ol>
+ * Once the index has measurements, no document is read to schedule it.
+ * The order is only kept if Pepper hands the documents to the mappers in the
+ * order they were created in. The index checks this: it is given the order
+ * by {@link #order(List)}, told by {@link #started(URI)} when a mapper starts
+ * on a document, and logs how many documents started after a document
+ * scheduled after them.
+ *
+ * <pre>
+ * resource	bytes	last modified	tokens	spans	nanos
+ * </pre>
+ *
+ * @author Alicia Gonzalez
+ */
+public class CubhuniScheduleIndex {
+
+	private static final Logger logger = LoggerFactory.getLogger(CubhuniScheduleIndex.class);
+
+	private static final String HEADER = "# resource\tbytes\tlast_modified\ttokens\tspans\tnanos";
+
+	/* used while no document is measured; only the ratio of both matters for the order */
+	private static final double DEFAULT_NANOS_PER_ELEMENT = 1000;
+	private static final double DEFAULT_BYTES_PER_ELEMENT = 60;
+	private static final double DEFAULT_SPANS_PER_TOKEN = 0;
+
+	private static final class Entry {
+		final long bytes;
+		final long lastModified;
+		final int tokens;
+		final int spans;
+		final long nanos;
+
+		Entry(long bytes, long lastModified, int tokens, int spans, long nanos) {
+			this.bytes = bytes;
+			this.lastModified = lastModified;
+			this.tokens = tokens;
+			this.spans = spans;
+			this.nanos = nanos;
+		}
+	}
+
+	private final File file;
+
+	/* UTF-8 bytes of the keys counted by the scan: tokens first, span values second */
+	private final byte[][] keys;
+
+	/* resource to its last measurement */
+	private final Map<String, Entry> entries = new HashMap<String, Entry>();
+
+	/* resources of the current run, the others are left out when the index is saved */
+	private final Set<String> seen = new HashSet<String>();
+
+	/* ratios of the measured documents of the previous runs, an element is a token or a span */
+	private final double nanosPerElement;
+	private final double bytesPerElement;
+	private final double spansPerToken;
+	private final long meanNanos;
+
+	/* whether no document of a size known before reading is measured, so that documents are scanned */
+	private final boolean scanning;
+
+	private int measured = 0;
+
+	/* resource to its place in the schedule */
+	private final Map<String, Integer> ranks = new HashMap<String, Integer>();
+
+	/* highest place of the documents started so far */
+	private int lastStarted = -1;
+
+	/* documents started after a document scheduled after them */
+	private int outOfOrder = 0;
+
+	/**
+	 * Opens the index of the given file, reading the measurements of the
+	 * previous runs if it exists.
+	 */
+	public CubhuniScheduleIndex(File file, CubhuniMappingPlan plan) throws IOException {
+		this.file = file;
+		this.keys = new byte[][] { plan.tokKey.getBytes(StandardCharsets.UTF_8),
+				plan.annValKey.getBytes(StandardCharsets.UTF_8) };
+		if (file.isFile()) {
+			BufferedReader reader = new BufferedReader(
+					new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8));
+			try {
+				String line;
+				while ((line = reader.readLine()) != null) {
+					String[] fields = line.split("\t");
+					if (fields.length == 6 && !line.startsWith("#")) {
+						entries.put(fields[0], new Entry(Long.parseLong(fields[1]), Long.parseLong(fields[2]),
+								Integer.parseInt(fields[3]), Integer.parseInt(fields[4]), Long.parseLong(fields[5])));
+					}
+				}
+			} catch (NumberFormatException e) {
+				throw new IOException("Cannot read the schedule index " + file, e);
+			} finally {
+				reader.close();
+			}
+		}
+
+		long nanos = 0;
+		long tokens = 0;
+		long spans = 0;
+		/* bytes and elements of the documents whose size is known before reading */
+		long sizedBytes = 0;
+		long sizedElements = 0;
+		for (Entry entry : entries.values()) {
+			nanos += entry.nanos;
+			tokens += entry.tokens;
+			spans += entry.spans;
+			if (entry.bytes >= 0) {
+				sizedBytes += entry.bytes;
+				sizedElements += entry.tokens + entry.spans;
+			}
+		}
+		this.nanosPerElement = (tokens + spans > 0) ? (double) nanos / (tokens + spans) : DEFAULT_NANOS_PER_ELEMENT;
+		this.scanning = sizedElements == 0 || sizedBytes == 0;
+		this.bytesPerElement = scanning ? DEFAULT_BYTES_PER_ELEMENT : (double) sizedBytes / sizedElements;
+		this.spansPerToken = (tokens > 0) ? (double) spans / tokens : DEFAULT_SPANS_PER_TOKEN;
+		this.meanNanos = entries.isEmpty() ? 0 : nanos / entries.size();
+		logger.debug("Schedule index {} of {} documents: {} ns per token or span, {} bytes per token or span.", file,
+				entries.size(), nanosPerElement, bytesPerElement);
+	}
+
+	/**
+	 * @return the size of the document before it is read: the length of a line
+	 *         of a bundle or of a file, -1 for an entry of an archive or a shard
+	 */
+	static long sizeOf(URI resource) {
+		long[] range = CubhuniBundle.rangeOf(resource);
+		if (range != null) {
+			return range[1];
+		}
+		return resource.hasFragment() ? -1 : new File(resource.path()).length();
+	}
+
+	private static String key(URI resource) {
+		return resource.hasFragment() ? resource.path() + "#" + resource.fragment() : resource.path();
+	}
+
+	/**
+	 * @return true if the documents which are not measured are scanned to
+	 *         count their tokens and spans, since the index has no measured
+	 *         bytes per token or span yet; the scans are worth running in
+	 *         parallel then
+	 */
+	public boolean isScanning() {
+		return scanning;
+	}
+
+	/**
+	 * Estimates the time it takes to read and build the document. It is
+	 * called concurrently for the documents of a corpus.
+	 *
+	 * @param tokens
+	 *            number of tokens of the document, or -1 if it is not known
+	 *            before it is read
+	 * @return the estimated time in nanoseconds
+	 */
+	public long estimate(URI resource, int tokens) {
+		String key = key(resource);
+		long bytes = sizeOf(resource);
+		Entry entry;
+		synchronized (this) {
+			seen.add(key);
+			entry = entries.get(key);
+		}
+		if (entry != null && entry.bytes == bytes && entry.lastModified == new File(resource.path()).lastModified()
+				&& (tokens < 0 || entry.tokens == tokens)) {
+			return entry.nanos;
+		}
+		if (tokens >= 0) {
+			if (entry != null && entry.tokens > 0) {
+				return (long) ((double) entry.nanos * tokens / entry.tokens);
+			}
+			return (long) (tokens * (1 + spansPerToken) * nanosPerElement);
+		}
+		if (entry != null && entry.bytes > 0 && bytes >= 0) {
+			return (long) ((double) entry.nanos * bytes / entry.bytes);
+		}
+		int[] counts = scanning ? count(resource) : null;
+		if (counts != null) {
+			return (long) (((long) counts[0] + counts[1]) * nanosPerElement);
+		}
+		if (bytes >= 0) {
+			return (long) (bytes / bytesPerElement * nanosPerElement);
+		}
+		return meanNanos;
+	}
+
+	/**
+	 * Counts the tokens and spans of the document of the given resource by a
+	 * scan of its bytes for the keys of tokens and of span values, a key
+	 * being a string of the key followed by a colon. The scan does not parse
+	 * the document.
+	 *
+	 * @return the number of tokens and of spans, or null if the document
+	 *         cannot be read before it is mapped, or cannot be read at all
+	 */
+	int[] count(URI resource) {
+		long[] range = CubhuniBundle.rangeOf(resource);
+		if (resource.hasFragment() && range == null) {
+			return null;
+		}
+		File file = new File(resource.path());
+		try {
+			InputStream in = (range == null && CubhuniInput.isGzip(file)) ? CubhuniInput.gunzip(file)
+					: new FileInputStream(file);
+			try {
+				long limit = Long.MAX_VALUE;
+				if (range != null) {
+					if (in.skip(range[0]) != range[0]) {
+						return null;
+					}
+					limit = range[1];
+				}
+				return count(new BufferedInputStream(in), limit);
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			logger.debug("Cannot scan {} to schedule it, it is estimated from its size.", resource, e);
+			return null;
+		}
+	}
+
+	private int[] count(InputStream in, long limit) throws IOException {
+		int[] counts = new int[keys.length];
+		/* bytes of the current string matching each key so far, -1 once it does not match */
+		int[] matched = new int[keys.length];
+		boolean inString = false;
+		boolean escaped = false;
+		/* key whose string ended and which counts if a colon follows, -1 if none */
+		int pending = -1;
+		int b;
+		for (long read = 0; read < limit && (b = in.read()) >= 0; read++) {
+			if (inString) {
+				if (escaped || b == '\\') {
+					escaped = !escaped;
+					Arrays.fill(matched, -1);
+				} else if (b == '"') {
+					inString = false;
+					for (int k = 0; k < keys.length; k++) {
+						if (matched[k] == keys[k].length) {
+							pending = k;
+						}
+					}
+				} else {
+					for (int k = 0; k < keys.length; k++) {
+						int m = matched[k];
+						matched[k] = (m >= 0 && m < keys[k].length && keys[k][m] == (byte) b) ? m + 1 : -1;
+					}
+				}
+				continue;
+			}
+			if (pending >= 0) {
+				if (b == ' ' || b == '\t' || b == '\n' || b == '\r') {
+					continue;
+				}
+				if (b == ':') {
+					counts[pending]++;
+				}
+				pending = -1;
+			}
+			if (b == '"') {
+				inString = true;
+				Arrays.fill(matched, 0);
+			}
+		}
+		return counts;
+	}
+
+	/**
+	 * Sets the order the documents are to be mapped in, to check it against
+	 * the order their mapping starts in.
+	 */
+	public synchronized void order(List<URI> resources) {
+		ranks.clear();
+		lastStarted = -1;
+		for (int i = 0; i < resources.size(); i++) {
+			ranks.put(key(resources.get(i)), i);
+		}
+	}
+
+	/**
+	 * Records that a mapper started on the document of the given resource.
+	 * With several mappers, documents scheduled next to each other may start
+	 * in either order.
+	 */
+	public synchronized void started(URI resource) {
+		Integer rank = ranks.get(key(resource));
+		if (rank == null) {
+			return;
+		}
+		if (rank < lastStarted) {
+			outOfOrder++;
+		} else {
+			lastStarted = rank;
+		}
+	}
+
+	/**
+	 * @return the number of documents started after a document scheduled
+	 *         after them
+	 */
+	public synchronized int getOutOfOrder() {
+		return outOfOrder;
+	}
+
+	/**
+	 * Records the time it took to read and build the document, with the
+	 * tokens and spans it had.
+	 *
+	 * @param buildNanos
+	 *            time it took to build the graph, the time it took to read
+	 *            the document is taken from the builder
+	 */
+	public void measured(URI resource, CubhuniDocumentBuilder builder, long buildNanos) {
+		int spans = 0;
+		for (Integer count : builder.getSpanCounts().values()) {
+			spans += count;
+		}
+		measured(resource, builder.getCreatedTokens(), spans, builder.getParseNanos() + buildNanos);
+	}
+
+	/*
+	 * records the time it took to read and build the document, with the
+	 * tokens and spans it had
+	 */
+	void measured(URI resource, int tokens, int spans, long nanos) {
+		Entry entry = new Entry(sizeOf(resource), new File(resource.path()).lastModified(), tokens, spans, nanos);
+		synchronized (this) {
+			entries.put(key(resource), entry);
+			seen.add(key(resource));
+			measured++;
+		}
+	}
+
+	/**
+	 * Writes the index of the documents of the current run.
+	 */
+	public synchronized void save() throws IOException {
+		File tmp = new File(file.getPath() + ".tmp");
+		Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmp), StandardCharsets.UTF_8));
+		try {
+			writer.write(HEADER + "\n");
+			for (Map.Entry<String, Entry> e : new TreeMap<String, Entry>(entries).entrySet()) {
+				if (!seen.contains(e.getKey())) {
+					continue;
+				}
+				Entry entry = e.getValue();
+				writer.write(e.getKey() + "\t" + entry.bytes + "\t" + entry.lastModified + "\t" + entry.tokens + "\t"
+						+ entry.spans + "\t" + entry.nanos + "\n");
+			}
+		} finally {
+			writer.close();
+		}
+		Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		logger.info("Schedule index {} written, {} documents measured in this run.", file, measured);
+		if (outOfOrder > 0) {
+			logger.warn("{} of {} documents started after a document scheduled after them.", outOfOrder,
+					ranks.size());
+		}
+	}
+}
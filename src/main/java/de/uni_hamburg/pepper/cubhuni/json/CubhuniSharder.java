@@ -0,0 +1,357 @@
+/* Copyright 2017 Alicia Gonzalez Martinez
+ * COBHUNI Project, Universität Hamburg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ ********************************************************************/
+
+
+package de.uni_hamburg.pepper.cubhuni.json;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.eclipse.emf.common.util.URI;
+import org.json.simple.parser.ParseException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Splits an oversized document into shards along the boundaries of an
+ * annotation group, such as its sections or pages, so that the shards can be
+ * mapped as separate documents on several mapper threads. A shard is cut at
+ * the first token of a boundary span, and holds as many whole sections as fit
+ * into the maximal number of tokens; a section longer than that is a shard of
+ * its own.
+ * <br/>
+ * Each shard gets the metadata of the whole document, its part of the
+ * primary text with the token offsets moved accordingly, and the annotation
+ * spans over its tokens. A span crossing a shard boundary is cut into one
+ * span per shard it covers.
+ * <br/>
+ * While the corpus-structure is imported, an oversized document is read only
+ * to find where it is cut, and only its cuts are kept. The document is read
+ * again when the mapper of its first shard takes it, under the admission of
+ * that mapper, and each shard is released as its mapper takes it, so that at
+ * most the documents being mapped are held in memory.
+ *
+ * @author Alicia Gonzalez
+ */
+public class CubhuniSharder {
+
+	private static final Logger logger = LoggerFactory.getLogger(CubhuniSharder.class);
+
+	/** meta-annotation holding the position of a shard in its document, from 0 */
+	public static final String SHARD_INDEX = "shard_index";
+
+	/** meta-annotation holding the number of shards of the document */
+	public static final String SHARD_COUNT = "shard_count";
+
+	private static final String FRAGMENT = "shard";
+
+	/*
+	 * cuts of a document split with the corpus-structure, and its shards from
+	 * the time it is read again until all of them are taken; the cuts are
+	 * kept, so that a shard taken again is read again
+	 */
+	private static final class Split {
+		final List<Integer> cuts;
+		final int tokens;
+		final boolean[] taken;
+		CubhuniDocumentBuilder[] shards = null;
+		int left;
+
+		Split(List<Integer> cuts, int tokens) {
+			this.cuts = cuts;
+			this.tokens = tokens;
+			this.taken = new boolean[cuts.size()];
+			this.left = cuts.size();
+		}
+	}
+
+	private final CubhuniMappingPlan plan;
+	private final CubhuniValueDictionary dictionary;
+	private final int maxTokens;
+	private final List<String> boundaryGroups;
+
+	/* documents split, with their shards waiting for their mappers */
+	private final Map<URI, Split> splits = new ConcurrentHashMap<URI, Split>();
+
+	public CubhuniSharder(CubhuniMappingPlan plan, int maxTokens, List<String> boundaryGroups) {
+		this(plan, null, maxTokens, boundaryGroups);
+	}
+
+	/**
+	 * @param maxTokens
+	 *            maximal number of tokens of a shard, unless a single section
+	 *            is longer
+	 * @param boundaryGroups
+	 *            keys of the annotation groups a document may be split along,
+	 *            the first one the document has spans of is used
+	 * @param dictionary
+	 *            dictionary the annotation values of the shards are interned
+	 *            in, or null
+	 */
+	public CubhuniSharder(CubhuniMappingPlan plan, CubhuniValueDictionary dictionary, int maxTokens,
+			List<String> boundaryGroups) {
+		this.plan = plan;
+		this.dictionary = dictionary;
+		this.maxTokens = maxTokens;
+		this.boundaryGroups = boundaryGroups;
+	}
+
+	/**
+	 * Splits the document if it has more tokens than a shard may have.
+	 *
+	 * @return the shards of the document in text order, or a list holding
+	 *         only the document itself if it is not split
+	 */
+	public List<CubhuniDocumentBuilder> split(CubhuniDocumentBuilder document) {
+		return split(document, cuts(document));
+	}
+
+	private List<CubhuniDocumentBuilder> split(CubhuniDocumentBuilder document, List<Integer> cuts) {
+		if (cuts.size() < 2) {
+			return Collections.singletonList(document);
+		}
+		List<CubhuniDocumentBuilder> shards = new ArrayList<CubhuniDocumentBuilder>(cuts.size());
+		int count = document.getTokenCount();
+		for (int i = 0; i < cuts.size(); i++) {
+			int to = (i + 1 < cuts.size()) ? cuts.get(i + 1) : count;
+			shards.add(shard(document, i, cuts.size(), cuts.get(i), to));
+		}
+		return shards;
+	}
+
+	/*
+	 * first token of each shard, a list holding only 0 if the document is not
+	 * split
+	 */
+	List<Integer> cuts(CubhuniDocumentBuilder document) {
+		List<Integer> cuts = new ArrayList<Integer>();
+		cuts.add(0);
+		int count = document.getTokenCount();
+		if (count <= maxTokens) {
+			return cuts;
+		}
+
+		boolean[] boundary = null;
+		for (String group : boundaryGroups) {
+			boundary = boundaries(document, group);
+			if (boundary != null) {
+				break;
+			}
+		}
+		if (boundary == null) {
+			logger.warn("Document with {} tokens is not split, it has no {} spans.", count, boundaryGroups);
+			return cuts;
+		}
+
+		/* greedily closes a shard at the last boundary before it grows too long */
+		int start = 0;
+		int last = 0;
+		for (int i = 1; i <= count; i++) {
+			if (i < count && !boundary[i]) {
+				continue;
+			}
+			while (i - start > maxTokens) {
+				int cut = (last > start) ? last : i;
+				if (cut == count) {
+					break;
+				}
+				cuts.add(cut);
+				start = cut;
+				if (cut == i) {
+					break;
+				}
+			}
+			last = i;
+		}
+		return cuts;
+	}
+
+	/*
+	 * tokens a span of the group starts at, null if the document has no valid
+	 * span of the group
+	 */
+	private boolean[] boundaries(CubhuniDocumentBuilder document, String group) {
+		int count = document.getTokenCount();
+		boolean[] boundary = null;
+		for (int j = 0; j < document.getSpanCount(); j++) {
+			int ini = document.getSpanOffsets(j)[0];
+			if (group.equals(document.getSpan(j)[0]) && ini >= 0 && ini < count) {
+				if (boundary == null) {
+					boundary = new boolean[count];
+				}
+				boundary[ini] = true;
+			}
+		}
+		return boundary;
+	}
+
+	/*
+	 * stages the tokens from..to (excluded) of the document and the spans over
+	 * them in a new builder
+	 */
+	private CubhuniDocumentBuilder shard(CubhuniDocumentBuilder document, int index, int shards, int from, int to) {
+		int count = document.getTokenCount();
+		CubhuniDocumentBuilder shard = new CubhuniDocumentBuilder(plan, dictionary);
+		shard.meta(document.getMeta());
+		shard.setShard(index, shards);
+
+		/* the shard keeps the text up to the next shard, so no separator is lost */
+		int charIni = 0;
+		String text = document.getText();
+		if (text != null) {
+			charIni = (from == 0) ? 0 : document.getTokenIni(from);
+			int charEnd = (to == count) ? text.length()
+					: Math.min(text.length(), Math.max(document.getTokenIni(to), document.getTokenEnd(to - 1)));
+			shard.text(text.substring(charIni, charEnd));
+		}
+
+		shard.expectTokens(to - from);
+		String[] annotations = new String[plan.getTokenAnnotations().size()];
+		for (int i = from; i < to; i++) {
+			for (int f = 0; f < annotations.length; f++) {
+				annotations[f] = document.getTokenAnnotation(i, f);
+			}
+			shard.token(document.getToken(i), document.getTokenIni(i) - charIni, document.getTokenEnd(i) - charIni,
+					annotations);
+		}
+
+		for (int j = 0; j < document.getSpanCount(); j++) {
+			String[] span = document.getSpan(j);
+			int ini = document.getSpanOffsets(j)[0];
+			int end = document.getSpanOffsets(j)[1];
+			if (ini < 0 || end >= count || ini > end) {
+				/* left to the first shard, which skips it with a warning */
+				if (index == 0) {
+					shard.span(span[0], span[1], ini, end);
+				}
+			} else if (ini < to && end >= from) {
+				shard.span(span[0], span[1], Math.max(ini, from) - from, Math.min(end, to - 1) - from);
+			}
+		}
+
+		shard.readStatistics(document.getBytesRead() * (to - from) / count,
+				document.getParseNanos() * (to - from) / count, document.getCompressedBytes() * (to - from) / count);
+		return shard;
+	}
+
+	/**
+	 * Keeps the cuts of the document of the given resource if it is split,
+	 * until the mappers of its shards take them. The document itself is not
+	 * kept.
+	 *
+	 * @return the number of tokens of each shard, or null if the document is
+	 *         not split
+	 */
+	public int[] register(URI resource, CubhuniDocumentBuilder document) {
+		List<Integer> cuts = cuts(document);
+		if (cuts.size() < 2) {
+			return null;
+		}
+		int count = document.getTokenCount();
+		int[] tokens = new int[cuts.size()];
+		for (int i = 0; i < tokens.length; i++) {
+			tokens[i] = ((i + 1 < cuts.size()) ? cuts.get(i + 1) : count) - cuts.get(i);
+		}
+		splits.put(resource, new Split(cuts, count));
+		return tokens;
+	}
+
+	/**
+	 * @return the resource of a shard of the document of the given resource
+	 */
+	public static URI shardOf(URI resource, int index) {
+		return resource.appendFragment(FRAGMENT + index);
+	}
+
+	/**
+	 * @return true if the given resource is a shard of a registered document
+	 */
+	public boolean isShard(URI resource) {
+		return resource.hasFragment() && resource.fragment().startsWith(FRAGMENT)
+				&& splits.containsKey(resource.trimFragment());
+	}
+
+	/**
+	 * @return the estimated heap cost of reading the shard of the given
+	 *         resource: the cost of reading its whole document if it is to be
+	 *         read, 0 if its shard is already staged
+	 */
+	public long estimateRead(URI resource, boolean streaming) {
+		Split split = splits.get(resource.trimFragment());
+		if (split == null || !isShard(resource)) {
+			return 0;
+		}
+		int index = indexOf(resource);
+		synchronized (split) {
+			return (split.shards != null && !split.taken[index]) ? 0
+					: CubhuniAdmission.estimateRead(resource.trimFragment(), streaming);
+		}
+	}
+
+	private static int indexOf(URI shard) {
+		return Integer.parseInt(shard.fragment().substring(FRAGMENT.length()));
+	}
+
+	/**
+	 * Takes the shard of the given resource, reading and splitting its
+	 * document if it is the first shard of it taken. The shards of a document
+	 * are released once all of them are taken. A shard taken again, as when
+	 * its document is mapped again after a failure, is read again.
+	 *
+	 * @return the shard of the given resource, or null if the resource is not
+	 *         a shard
+	 */
+	public CubhuniDocumentBuilder take(URI resource, CubhuniJSONReader reader) throws IOException, ParseException {
+		URI document = resource.trimFragment();
+		Split split = splits.get(document);
+		if (split == null || !isShard(resource)) {
+			return null;
+		}
+		int index = indexOf(resource);
+		synchronized (split) {
+			if (split.taken[index]) {
+				logger.debug("Read {} again for its shard {}, which was taken before.", document, index);
+				return read(document, split, reader)[index];
+			}
+			if (split.shards == null) {
+				split.shards = read(document, split, reader);
+				logger.debug("Read {} again for its {} shards.", document, split.shards.length);
+			}
+			CubhuniDocumentBuilder shard = split.shards[index];
+			split.shards[index] = null;
+			split.taken[index] = true;
+			if (--split.left == 0) {
+				split.shards = null;
+			}
+			return shard;
+		}
+	}
+
+	/* reads the document again and splits it at its cuts */
+	private CubhuniDocumentBuilder[] read(URI document, Split split, CubhuniJSONReader reader)
+			throws IOException, ParseException {
+		CubhuniDocumentBuilder builder = reader.read(document);
+		if (builder.getTokenCount() != split.tokens) {
+			throw new IOException("The document " + document + " changed since it was split, it has "
+					+ builder.getTokenCount() + " tokens instead of " + split.tokens + ".");
+		}
+		return split(builder, split.cuts).toArray(new CubhuniDocumentBuilder[split.cuts.size()]);
+	}
+}
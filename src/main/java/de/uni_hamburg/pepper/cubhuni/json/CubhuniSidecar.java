@@ -0,0 +1,445 @@
+/* Copyright 2017 Alicia Gonzalez Martinez
+ * COBHUNI Project, Universität Hamburg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ ********************************************************************/
+
+package de.uni_hamburg.pepper.cubhuni.json;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Compact binary copy of a COBHUNI JSON document, kept next to its source as
+ * <code>&lt;source&gt;.cbin</code>. Loading a sidecar stages the document in a
+ * {@link CubhuniDocumentBuilder} without any JSON parsing: token and span
+ * offsets are varint-packed, and token strings, annotation values, group
+ * names and metadata keys are stored once in a string dictionary.
+ * <br/>
+ * A sidecar is only loaded if it was written with the same configuration and
+ * from the same source. The source is the same if its size and modification
+ * time did not change, or if its content digest did not.
+ *
+ * <pre>
+ * magic, version
+ * config fingerprint, source digest, source size, source modification time
+ * dictionary:  count, strings
+ * meta:        present, count, (key, type, value)*
+ * text:        present, string
+ * tokens:      count, (token, ini - previous end, end - ini, annotation*)*
+ * spans:       count, (group, value, ini, end - ini)*
+ * </pre>
+ *
+ * The magic number is 4 bytes big-endian. Counts, flags, types, the version
+ * and dictionary references (0 standing for null) are unsigned varints. The
+ * values which may be negative are zigzag varints: the token and span offsets
+ * and their differences, the source size and modification time, and the long
+ * values and the bits of the double values of the metadata. Strings are an
+ * unsigned varint byte length followed by their UTF-8 bytes.
+ *
+ * @author Alicia Gonzalez
+ */
+public class CubhuniSidecar {
+
+	private static final Logger logger = LoggerFactory.getLogger(CubhuniSidecar.class);
+
+	public static final String SUFFIX = ".cbin";
+
+	private static final int MAGIC = 0x43424e31; // "CBN1"
+	private static final int VERSION = 2;
+
+	/* types of metadata values */
+	private static final int NULL = 0;
+	private static final int LONG = 1;
+	private static final int DOUBLE = 2;
+	private static final int STRING = 3;
+	private static final int BOOLEAN = 4;
+
+	private final CubhuniMappingPlan plan;
+
+	/* dictionary the loaded annotation values are interned in, or null */
+	private final CubhuniValueDictionary dictionary;
+
+	private final AtomicInteger loaded = new AtomicInteger();
+	private final AtomicInteger written = new AtomicInteger();
+	private final AtomicInteger stale = new AtomicInteger();
+
+	public CubhuniSidecar(CubhuniMappingPlan plan) {
+		this(plan, null);
+	}
+
+	public CubhuniSidecar(CubhuniMappingPlan plan, CubhuniValueDictionary dictionary) {
+		this.plan = plan;
+		this.dictionary = dictionary;
+	}
+
+	/**
+	 * @return the sidecar file of the given source
+	 */
+	public static File sidecarOf(File source) {
+		return new File(source.getPath() + SUFFIX);
+	}
+
+	/**
+	 * Stages the document of the given source from its sidecar.
+	 *
+	 * @return the staged document, or null if there is no sidecar, or if it
+	 *         is stale or unreadable
+	 */
+	public CubhuniDocumentBuilder load(File source) {
+		File file = sidecarOf(source);
+		if (!file.isFile()) {
+			return null;
+		}
+		long start = System.nanoTime();
+		try {
+			byte[] bytes = new byte[(int) file.length()];
+			DataInputStream in = new DataInputStream(new FileInputStream(file));
+			try {
+				in.readFully(bytes);
+			} finally {
+				in.close();
+			}
+
+			Input input = new Input(bytes);
+			if (input.readInt() != MAGIC || input.readVarint() != VERSION
+					|| !plan.getFingerprint().equals(input.readString())) {
+				stale.incrementAndGet();
+				return null;
+			}
+			String digest = input.readString();
+			long size = input.readLong();
+			long lastModified = input.readLong();
+			if (size != source.length()
+					|| lastModified != source.lastModified() && !digest.equals(CubhuniDigest.sha1(source))) {
+				stale.incrementAndGet();
+				return null;
+			}
+
+			CubhuniDocumentBuilder builder = new CubhuniDocumentBuilder(plan, dictionary);
+			String[] dict = new String[input.readVarint() + 1];
+			for (int i = 1; i < dict.length; i++) {
+				dict[i] = input.readString();
+			}
+
+			if (input.readVarint() == 1) {
+				int count = input.readVarint();
+				Map<String, Object> meta = new LinkedHashMap<String, Object>(count * 2);
+				for (int i = 0; i < count; i++) {
+					String key = dict[input.readVarint()];
+					switch (input.readVarint()) {
+					case LONG:
+						meta.put(key, input.readLong());
+						break;
+					case DOUBLE:
+						meta.put(key, Double.longBitsToDouble(input.readLong()));
+						break;
+					case STRING:
+						meta.put(key, dict[input.readVarint()]);
+						break;
+					case BOOLEAN:
+						meta.put(key, input.readVarint() == 1);
+						break;
+					default:
+						meta.put(key, null);
+					}
+				}
+				builder.meta(meta);
+			}
+
+			if (input.readVarint() == 1) {
+				builder.text(input.readString());
+			}
+
+			int tokens = input.readVarint();
+			builder.expectTokens(tokens);
+			String[] annotations = new String[plan.getTokenAnnotations().size()];
+			int end = 0;
+			for (int i = 0; i < tokens; i++) {
+				String tok = dict[input.readVarint()];
+				int ini = end + (int) input.readLong();
+				end = ini + (int) input.readLong();
+				for (int f = 0; f < annotations.length; f++) {
+					annotations[f] = dict[input.readVarint()];
+				}
+				builder.token(tok, ini, end, annotations);
+			}
+
+			int spans = input.readVarint();
+			for (int i = 0; i < spans; i++) {
+				String group = dict[input.readVarint()];
+				String val = dict[input.readVarint()];
+				int ini = (int) input.readLong();
+				builder.span(group, val, ini, ini + (int) input.readLong());
+			}
+
+			builder.readStatistics(bytes.length, System.nanoTime() - start);
+			loaded.incrementAndGet();
+			return builder;
+
+		} catch (IOException | RuntimeException e) {
+			logger.warn("Cannot load the sidecar {}, reading the JSON source instead.", file, e);
+			stale.incrementAndGet();
+			return null;
+		}
+	}
+
+	/**
+	 * Writes the sidecar of the given source from the document staged in the
+	 * builder. Must be called before the graph is built, which releases the
+	 * staged parts.
+	 */
+	public void store(File source, CubhuniDocumentBuilder builder) throws IOException {
+		Output output = new Output();
+
+		/* dictionary of all strings but the text, in order of first use */
+		Map<String, Integer> dict = new HashMap<String, Integer>();
+		List<String> strings = new ArrayList<String>();
+		Map<?, ?> meta = builder.getMeta();
+		if (meta != null) {
+			for (Map.Entry<?, ?> entry : meta.entrySet()) {
+				intern(String.valueOf(entry.getKey()), dict, strings);
+				Object value = entry.getValue();
+				if (value != null && !(value instanceof Number) && !(value instanceof Boolean)) {
+					intern(value.toString(), dict, strings);
+				}
+			}
+		}
+		int tokens = builder.getTokenCount();
+		int features = plan.getTokenAnnotations().size();
+		for (int i = 0; i < tokens; i++) {
+			intern(builder.getToken(i), dict, strings);
+			for (int f = 0; f < features; f++) {
+				intern(builder.getTokenAnnotation(i, f), dict, strings);
+			}
+		}
+		for (int i = 0; i < builder.getSpanCount(); i++) {
+			intern(builder.getSpan(i)[0], dict, strings);
+			intern(builder.getSpan(i)[1], dict, strings);
+		}
+
+		output.writeInt(MAGIC);
+		output.writeVarint(VERSION);
+		output.writeString(plan.getFingerprint());
+		output.writeString(CubhuniDigest.sha1(source));
+		output.writeLong(source.length());
+		output.writeLong(source.lastModified());
+
+		output.writeVarint(strings.size());
+		for (String str : strings) {
+			output.writeString(str);
+		}
+
+		output.writeVarint(meta == null ? 0 : 1);
+		if (meta != null) {
+			output.writeVarint(meta.size());
+			for (Map.Entry<?, ?> entry : meta.entrySet()) {
+				output.writeVarint(dict.get(String.valueOf(entry.getKey())));
+				Object value = entry.getValue();
+				if (value == null) {
+					output.writeVarint(NULL);
+				} else if (value instanceof Double || value instanceof Float) {
+					output.writeVarint(DOUBLE);
+					output.writeLong(Double.doubleToLongBits(((Number) value).doubleValue()));
+				} else if (value instanceof Number) {
+					output.writeVarint(LONG);
+					output.writeLong(((Number) value).longValue());
+				} else if (value instanceof Boolean) {
+					output.writeVarint(BOOLEAN);
+					output.writeVarint(((Boolean) value) ? 1 : 0);
+				} else {
+					output.writeVarint(STRING);
+					output.writeVarint(dict.get(value.toString()));
+				}
+			}
+		}
+
+		String text = builder.getText();
+		output.writeVarint(text == null ? 0 : 1);
+		if (text != null) {
+			output.writeString(text);
+		}
+
+		output.writeVarint(tokens);
+		int end = 0;
+		for (int i = 0; i < tokens; i++) {
+			output.writeVarint(ref(builder.getToken(i), dict));
+			output.writeLong(builder.getTokenIni(i) - end);
+			output.writeLong(builder.getTokenEnd(i) - builder.getTokenIni(i));
+			for (int f = 0; f < features; f++) {
+				output.writeVarint(ref(builder.getTokenAnnotation(i, f), dict));
+			}
+			end = builder.getTokenEnd(i);
+		}
+
+		output.writeVarint(builder.getSpanCount());
+		for (int i = 0; i < builder.getSpanCount(); i++) {
+			String[] span = builder.getSpan(i);
+			int[] offsets = builder.getSpanOffsets(i);
+			output.writeVarint(ref(span[0], dict));
+			output.writeVarint(ref(span[1], dict));
+			output.writeLong(offsets[0]);
+			output.writeLong(offsets[1] - offsets[0]);
+		}
+
+		/* written aside and moved in one step, so that a sidecar is never seen half written */
+		File file = sidecarOf(source);
+		File tmp = new File(file.getPath() + ".tmp");
+		OutputStream out = new BufferedOutputStream(new FileOutputStream(tmp));
+		try {
+			output.writeTo(out);
+		} finally {
+			out.close();
+		}
+		try {
+			Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			tmp.delete();
+			throw e;
+		}
+		written.incrementAndGet();
+	}
+
+	private static void intern(String str, Map<String, Integer> dict, List<String> strings) {
+		if (str != null && !dict.containsKey(str)) {
+			strings.add(str);
+			dict.put(str, strings.size());
+		}
+	}
+
+	private static int ref(String str, Map<String, Integer> dict) {
+		return (str == null) ? 0 : dict.get(str);
+	}
+
+	/**
+	 * Logs the number of sidecars loaded, written and found stale.
+	 */
+	public void logStatistics() {
+		logger.info("Sidecars: {} loaded, {} written, {} stale.", loaded.get(), written.get(), stale.get());
+	}
+
+	/* growable byte buffer with varint and string encoding */
+	private static final class Output {
+		private byte[] buf = new byte[4096];
+		private int pos = 0;
+
+		private void ensure(int n) {
+			if (pos + n > buf.length) {
+				byte[] grown = new byte[Math.max(buf.length * 2, pos + n)];
+				System.arraycopy(buf, 0, grown, 0, pos);
+				buf = grown;
+			}
+		}
+
+		void writeInt(int value) {
+			ensure(4);
+			buf[pos++] = (byte) (value >>> 24);
+			buf[pos++] = (byte) (value >>> 16);
+			buf[pos++] = (byte) (value >>> 8);
+			buf[pos++] = (byte) value;
+		}
+
+		void writeVarint(int value) {
+			writeUnsigned(value & 0xFFFFFFFFL);
+		}
+
+		/* zigzag encoded, so that small negative values stay short */
+		void writeLong(long value) {
+			writeUnsigned((value << 1) ^ (value >> 63));
+		}
+
+		private void writeUnsigned(long value) {
+			ensure(10);
+			while ((value & ~0x7FL) != 0) {
+				buf[pos++] = (byte) ((value & 0x7F) | 0x80);
+				value >>>= 7;
+			}
+			buf[pos++] = (byte) value;
+		}
+
+		void writeString(String str) {
+			byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+			writeVarint(bytes.length);
+			ensure(bytes.length);
+			System.arraycopy(bytes, 0, buf, pos, bytes.length);
+			pos += bytes.length;
+		}
+
+		void writeTo(OutputStream out) throws IOException {
+			out.write(buf, 0, pos);
+		}
+	}
+
+	/* cursor over the bytes of a sidecar */
+	private static final class Input {
+		private final byte[] buf;
+		private int pos = 0;
+
+		Input(byte[] buf) {
+			this.buf = buf;
+		}
+
+		int readInt() {
+			int value = ((buf[pos] & 0xFF) << 24) | ((buf[pos + 1] & 0xFF) << 16) | ((buf[pos + 2] & 0xFF) << 8)
+					| (buf[pos + 3] & 0xFF);
+			pos += 4;
+			return value;
+		}
+
+		int readVarint() {
+			return (int) readUnsigned();
+		}
+
+		long readLong() {
+			long value = readUnsigned();
+			return (value >>> 1) ^ -(value & 1);
+		}
+
+		private long readUnsigned() {
+			long value = 0;
+			int shift = 0;
+			byte b;
+			do {
+				b = buf[pos++];
+				value |= (long) (b & 0x7F) << shift;
+				shift += 7;
+			} while ((b & 0x80) != 0);
+			return value;
+		}
+
+		String readString() {
+			int length = readVarint();
+			String str = new String(buf, pos, length, StandardCharsets.UTF_8);
+			pos += length;
+			return str;
+		}
+	}
+}
@@ -0,0 +1,94 @@
+/* Copyright 2017 Alicia Gonzalez Martinez
+ * COBHUNI Project, Universität Hamburg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ ********************************************************************/
+
+package de.uni_hamburg.pepper.cubhuni.json;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Corpus-wide dictionary of token and span annotation values, shared by all
+ * readers and mappers of an importer. The same value read in many documents,
+ * such as a part-of-speech tag or a frequent lemma, is kept once on the heap
+ * instead of once per token.
+ * <br/>
+ * The dictionary is bounded: once it holds <code>capacity</code> values, new
+ * values are not added any more and are returned as they are, so that a
+ * corpus with many unique values cannot fill the heap with the dictionary
+ * itself.
+ *
+ * @author Alicia Gonzalez
+ */
+public class CubhuniValueDictionary {
+
+	private static final Logger logger = LoggerFactory.getLogger(CubhuniValueDictionary.class);
+
+	private final int capacity;
+	private final ConcurrentMap<String, String> values;
+
+	/* values not added because the dictionary was full */
+	private final AtomicLong rejected = new AtomicLong();
+
+	/**
+	 * @param capacity
+	 *            maximal number of values kept
+	 */
+	public CubhuniValueDictionary(int capacity) {
+		this.capacity = capacity;
+		this.values = new ConcurrentHashMap<String, String>(Math.min(capacity, 1 << 16));
+	}
+
+	/**
+	 * @return the instance of the value kept in the dictionary, or the value
+	 *         itself if it is not kept and the dictionary is full
+	 */
+	public String intern(String value) {
+		if (value == null) {
+			return null;
+		}
+		String kept = values.get(value);
+		if (kept != null) {
+			return kept;
+		}
+		if (values.size() >= capacity) {
+			rejected.incrementAndGet();
+			return value;
+		}
+		kept = values.putIfAbsent(value, value);
+		return (kept == null) ? value : kept;
+	}
+
+	public int size() {
+		return values.size();
+	}
+
+	public long getRejected() {
+		return rejected.get();
+	}
+
+	/**
+	 * Logs the number of values kept and of values not kept because the
+	 * dictionary was full.
+	 */
+	public void logStatistics() {
+		logger.info("Annotation value dictionary: {} values kept, {} values not kept (capacity {}).", values.size(),
+				rejected.get(), capacity);
+	}
+}
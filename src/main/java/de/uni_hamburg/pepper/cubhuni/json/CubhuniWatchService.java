@@ -0,0 +1,455 @@
+/* Copyright 2017 Alicia Gonzalez Martinez
+ * COBHUNI Project, Universität Hamburg
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ ********************************************************************/
+
+
+package de.uni_hamburg.pepper.cubhuni.json;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.json.simple.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps converting a corpus while it is edited. The service stays resident,
+ * so the mapping configuration, the corpus metadata cache, the rows of the
+ * converted documents and the JIT compiled code stay warm between runs,
+ * watches every directory of the input tree and converts the corpus again
+ * once its documents or metadata files have stopped changing for the
+ * debounce time.
+ * <br/>
+ * Each run is driven by the paths which changed since the last run: the
+ * {@link CubhuniRelANNISConverter} reads and maps again only the documents
+ * at or below these paths, and appends the rows of the other documents from
+ * the fragments it keeps in <code>&lt;output&gt;.fragments</code>. A corpus
+ * metadata file is parsed again only if it changed, and a changed document
+ * whose source is unchanged since its {@link CubhuniSidecar} was written is
+ * loaded from it. The first run maps every document.
+ * <br/>
+ * The output directory is a symbolic link to the directory of the last
+ * complete run, <code>&lt;output&gt;.&lt;start time&gt;</code>. A run writes
+ * its relANNIS files into a new directory next to it, and the link is
+ * switched to that directory by an atomic rename once the run is complete,
+ * so a reader of the output sees either the old or the new corpus, never a
+ * mix of both. The directory of the previous run is deleted afterwards. An
+ * output directory which is not a link yet is moved aside to
+ * <code>&lt;output&gt;.old</code> once, before the first switch.
+ * <br/>
+ * Progress is written to a JSON status file: the state of the service
+ * (<code>converting</code>, <code>debouncing</code>, <code>idle</code>), the
+ * pending changes, the documents converted so far by the current run and the
+ * result of the last run.
+ *
+ * <pre>
+ * java -cp ... de.uni_hamburg.pepper.cubhuni.json.CubhuniWatchService &lt;input dir&gt; &lt;output dir&gt; [-config config.properties] [-debounce ms] [-status file]
+ * </pre>
+ *
+ * @author Alicia Gonzalez
+ */
+public class CubhuniWatchService implements Closeable {
+
+	private static final Logger logger = LoggerFactory.getLogger(CubhuniWatchService.class);
+
+	public static final long DEFAULT_DEBOUNCE_MILLIS = 2000;
+
+	/* interval at which the status file is written while a run converts */
+	private static final long STATUS_INTERVAL_MILLIS = 1000;
+
+	private final CubhuniMappingPlan plan;
+	private final File input;
+	private final File output;
+	private final File statusFile;
+	private final long debounceMillis;
+
+	private final CubhuniRelANNISConverter converter;
+	private final CubhuniCorpusScanner scanner;
+	private final WatchService watcher;
+	private final Map<WatchKey, Path> dirs = new HashMap<WatchKey, Path>();
+
+	private final ScheduledExecutorService statusWriter = Executors
+			.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "cubhuni-watch-status");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+
+	/* status, written to the status file */
+	private volatile String state = "starting";
+	private volatile int pendingChanges = 0;
+	private volatile int runs = 0;
+	private volatile long lastStart = 0;
+	private volatile long lastEnd = 0;
+	private volatile int lastChanges = 0;
+	private volatile int lastConverted = 0;
+	private volatile int lastFailed = 0;
+	private volatile int lastReused = 0;
+	private volatile String lastError = null;
+
+	/**
+	 * @param statusFile
+	 *            file the status is written to, or null
+	 * @param debounceMillis
+	 *            time without changes after which the corpus is converted
+	 */
+	public CubhuniWatchService(CubhuniMappingPlan plan, File input, File output, File statusFile, long debounceMillis)
+			throws IOException {
+		this.plan = plan;
+		this.input = input.getAbsoluteFile();
+		this.output = output.getAbsoluteFile();
+		this.statusFile = statusFile;
+		this.debounceMillis = debounceMillis;
+		File fragments = new File(this.output.getParentFile(), this.output.getName() + ".fragments");
+		delete(fragments);
+		this.converter = new CubhuniRelANNISConverter(plan, new CubhuniSidecar(plan), fragments);
+		this.scanner = new CubhuniCorpusScanner(Arrays.asList("json", "json" + CubhuniInput.GZIP_ENDING),
+				plan.metaFileSuffix, 1);
+		this.watcher = FileSystems.getDefault().newWatchService();
+		register(this.input.toPath());
+	}
+
+	/* watches the directory and all directories below it */
+	private void register(Path root) throws IOException {
+		Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+				if (isOwn(dir)) {
+					return FileVisitResult.SKIP_SUBTREE;
+				}
+				dirs.put(dir.register(watcher, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE), dir);
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+
+	/**
+	 * Converts the corpus, then converts it again after each change, until
+	 * the service is closed.
+	 */
+	public void run() throws IOException, InterruptedException {
+		convert(null);
+		try {
+			while (true) {
+				Set<Path> changes = new TreeSet<Path>();
+
+				/* debounce: wait until no change arrived for the debounce time */
+				WatchKey key = watcher.take();
+				while (key != null) {
+					collect(key, changes);
+					if (!changes.isEmpty()) {
+						state = "debouncing";
+						pendingChanges = changes.size();
+						writeStatus();
+					}
+					key = watcher.poll(debounceMillis, TimeUnit.MILLISECONDS);
+				}
+				if (!changes.isEmpty()) {
+					logger.info("{} documents or metadata files changed, converting them again.", changes.size());
+					convert(changes);
+				}
+			}
+		} catch (ClosedWatchServiceException e) {
+			logger.info("Stopped watching {}.", input);
+		}
+	}
+
+	/*
+	 * adds the documents and metadata files the events of the key are about;
+	 * new directories are watched as well and everything they hold is a
+	 * change
+	 */
+	private void collect(WatchKey key, Set<Path> changes) throws IOException {
+		Path dir = dirs.get(key);
+		for (WatchEvent<?> event : key.pollEvents()) {
+			if (event.kind() == OVERFLOW || dir == null) {
+				/* events were lost, the whole corpus may have changed */
+				changes.add(input.toPath());
+				continue;
+			}
+			Path path = dir.resolve((Path) event.context());
+			String name = path.getFileName().toString();
+			if (isOwn(path)) {
+				continue;
+			}
+			if (event.kind() == ENTRY_CREATE && Files.isDirectory(path)) {
+				register(path);
+				changes.add(path);
+			} else if (event.kind() == ENTRY_DELETE && dirs.containsValue(path)) {
+				changes.add(path);
+			} else if (scanner.isDocument(name) || scanner.isMetaFile(name)) {
+				changes.add(path);
+			}
+		}
+		if (!key.reset()) {
+			dirs.remove(key);
+		}
+	}
+
+	/*
+	 * true for the files the service writes itself, in case they are below
+	 * the input directory: the output link, the directories of the runs and
+	 * the status file
+	 */
+	private boolean isOwn(Path path) {
+		Path absolute = path.toAbsolutePath();
+		Path parent = output.getParentFile().toPath();
+		if (absolute.startsWith(output.toPath())) {
+			return true;
+		}
+		if (absolute.startsWith(parent) && absolute.getNameCount() > parent.getNameCount()
+				&& absolute.getName(parent.getNameCount()).toString().startsWith(output.getName() + ".")) {
+			return true;
+		}
+		return statusFile != null && absolute.getFileName().toString().startsWith(statusFile.getName())
+				&& absolute.getParent().equals(statusFile.getAbsoluteFile().getParentFile().toPath());
+	}
+
+	/*
+	 * converts the corpus into a new directory, mapping again the documents
+	 * below the changed paths, all of them if null, and switches the output
+	 * link to it; a failed run is logged and the service goes on
+	 */
+	private void convert(Set<Path> changes) {
+		state = "converting";
+		pendingChanges = 0;
+		lastStart = System.currentTimeMillis();
+		ScheduledFuture<?> progress = statusWriter.scheduleAtFixedRate(new Runnable() {
+			@Override
+			public void run() {
+				writeStatus();
+			}
+		}, 0, STATUS_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+
+		File version = new File(output.getParentFile(), output.getName() + "." + lastStart);
+		try {
+			delete(version);
+			converter.convert(input, version, changes);
+			publish(version);
+			lastError = null;
+		} catch (IOException | RuntimeException e) {
+			logger.error("Cannot convert {}, the output {} is left as it was.", input, output, e);
+			lastError = e.toString();
+			try {
+				delete(version);
+			} catch (IOException f) {
+				logger.warn("Cannot delete the directory {} of the failed run.", version, f);
+			}
+		} finally {
+			progress.cancel(false);
+			runs++;
+			lastEnd = System.currentTimeMillis();
+			lastChanges = (changes != null) ? changes.size() : 0;
+			lastConverted = converter.getConverted();
+			lastReused = converter.getReused();
+			lastFailed = converter.getFailed();
+			state = "idle";
+			writeStatus();
+		}
+		logger.info("Run {} took {} ms, {} documents converted, {} kept, {} failed.", runs, lastEnd - lastStart,
+				lastConverted, lastReused, lastFailed);
+	}
+
+	/* switches the output link to the directory of the run and deletes the directory of the previous run */
+	private void publish(File version) throws IOException {
+		Path link = output.toPath();
+		Path previous = null;
+		if (Files.isSymbolicLink(link)) {
+			previous = link.resolveSibling(Files.readSymbolicLink(link));
+		} else if (Files.exists(link, LinkOption.NOFOLLOW_LINKS)) {
+			Path aside = link.resolveSibling(output.getName() + ".old");
+			delete(aside.toFile());
+			Files.move(link, aside, StandardCopyOption.ATOMIC_MOVE);
+			logger.info("The output directory {} is moved aside to {}, the output is a link from now on.", link,
+					aside);
+		}
+
+		/* a relative link, so that the output directory can be moved with its runs */
+		Path tmp = link.resolveSibling(output.getName() + ".link");
+		Files.deleteIfExists(tmp);
+		Files.createSymbolicLink(tmp, version.toPath().getFileName());
+		Files.move(tmp, link, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+		if (previous != null && !previous.equals(version.toPath())) {
+			delete(previous.toFile());
+		}
+	}
+
+	/* deletes the directory with everything below it, without following links */
+	private static void delete(File dir) throws IOException {
+		if (!Files.exists(dir.toPath(), LinkOption.NOFOLLOW_LINKS)) {
+			return;
+		}
+		Files.walkFileTree(dir.toPath(), new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+				Files.delete(file);
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+				if (e != null) {
+					throw e;
+				}
+				Files.delete(dir);
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+
+	/*
+	 * writes the status to a temporary file renamed to the status file, so
+	 * that a reader never sees a partial status
+	 */
+	@SuppressWarnings("unchecked")
+	private synchronized void writeStatus() {
+		if (statusFile == null) {
+			return;
+		}
+		JSONObject status = new JSONObject();
+		status.put("state", state);
+		status.put("input", input.getPath());
+		status.put("output", output.getPath());
+		status.put("pending_changes", pendingChanges);
+		status.put("documents", "converting".equals(state) ? converter.getConverted() : lastConverted);
+		status.put("runs", runs);
+		status.put("last_start", lastStart);
+		status.put("last_end", lastEnd);
+		status.put("last_changes", lastChanges);
+		status.put("last_reused", lastReused);
+		status.put("last_failed", lastFailed);
+		status.put("last_error", lastError);
+		File tmp = new File(statusFile.getPath() + ".tmp");
+		try {
+			Writer writer = new OutputStreamWriter(new FileOutputStream(tmp), StandardCharsets.UTF_8);
+			try {
+				writer.write(status.toJSONString());
+			} finally {
+				writer.close();
+			}
+			Files.move(tmp.toPath(), statusFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			logger.warn("Cannot write the status file {}.", statusFile, e);
+		}
+	}
+
+	public String getState() {
+		return state;
+	}
+
+	/**
+	 * @return the number of runs done so far
+	 */
+	public int getRuns() {
+		return runs;
+	}
+
+	/**
+	 * @return the number of documents mapped by the last run
+	 */
+	public int getLastConverted() {
+		return lastConverted;
+	}
+
+	/**
+	 * @return the number of documents of the last run whose rows were kept
+	 *         from the run before
+	 */
+	public int getLastReused() {
+		return lastReused;
+	}
+
+	/**
+	 * Stops watching, {@link #run()} returns once the current run is done.
+	 */
+	@Override
+	public void close() throws IOException {
+		watcher.close();
+		statusWriter.shutdown();
+	}
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+		if (args.length < 2) {
+			System.err.println("usage: CubhuniWatchService <input dir> <output dir> [-config config.properties]"
+					+ " [-debounce ms] [-status file]");
+			System.exit(2);
+		}
+		File output = new File(args[1]);
+		File config = null;
+		long debounce = DEFAULT_DEBOUNCE_MILLIS;
+		File status = new File(output.getAbsoluteFile().getParentFile(), output.getName() + ".status.json");
+		for (int i = 2; i < args.length; i += 2) {
+			if ("-config".equals(args[i])) {
+				config = new File(args[i + 1]);
+			} else if ("-debounce".equals(args[i])) {
+				debounce = Long.parseLong(args[i + 1]);
+			} else if ("-status".equals(args[i])) {
+				status = new File(args[i + 1]);
+			} else {
+				throw new IllegalArgumentException("Unknown option " + args[i] + ".");
+			}
+		}
+		CubhuniMappingPlan plan = (config != null) ? CubhuniMappingPlan.load(config) : CubhuniMappingPlan.loadDefault();
+		final CubhuniWatchService service = new CubhuniWatchService(plan, new File(args[0]), output, status, debounce);
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+			@Override
+			public void run() {
+				try {
+					service.close();
+				} catch (IOException e) {
+					logger.warn("Cannot stop watching.", e);
+				}
+			}
+		});
+		service.run();
+	}
+}
@@ -0,0 +1,168 @@
+package de.uni_hamburg.pepper.cubhuni.json;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * Tests that {@link CubhuniAdmission} keeps the documents being mapped under
+ * its budget, lets small documents pass a waiting large one, always admits a
+ * waiting document eventually and never blocks documents which grow.
+ *
+ * @author Alicia Gonzalez
+ */
+public class CubhuniAdmissionTest {
+
+	/* acquires the cost on another thread and counts the latch down once admitted */
+	private static Thread acquire(final CubhuniAdmission admission, final long cost, final CountDownLatch admitted) {
+		Thread thread = new Thread() {
+			@Override
+			public void run() {
+				try {
+					admission.acquire(cost, 0);
+					admitted.countDown();
+				} catch (InterruptedException e) {
+					/* the test failed to admit the document */
+				}
+			}
+		};
+		thread.setDaemon(true);
+		thread.start();
+		return thread;
+	}
+
+	@Test
+	public void test_budget() throws InterruptedException {
+		CubhuniAdmission admission = new CubhuniAdmission(100);
+		long held = admission.acquire(60, 0);
+
+		CountDownLatch large = new CountDownLatch(1);
+		acquire(admission, 50, large);
+		assertFalse(large.await(100, TimeUnit.MILLISECONDS));
+
+		/* a small document passes the waiting large one */
+		CountDownLatch small = new CountDownLatch(1);
+		acquire(admission, 30, small);
+		assertTrue(small.await(1, TimeUnit.SECONDS));
+		assertEquals(90, admission.getReserved());
+
+		admission.release(held);
+		assertTrue(large.await(1, TimeUnit.SECONDS));
+		assertEquals(80, admission.getReserved());
+	}
+
+	@Test
+	public void test_adjust() throws InterruptedException {
+		CubhuniAdmission admission = new CubhuniAdmission(100);
+		long held = admission.acquire(90, 0);
+		CountDownLatch other = new CountDownLatch(1);
+		acquire(admission, 30, other);
+		assertFalse(other.await(100, TimeUnit.MILLISECONDS));
+
+		/* the document turns out smaller once read */
+		held = admission.acquire(20, held);
+		assertTrue(other.await(1, TimeUnit.SECONDS));
+		assertEquals(50, admission.getReserved());
+	}
+
+	@Test
+	public void test_zeroCost() throws InterruptedException {
+		CubhuniAdmission admission = new CubhuniAdmission(100);
+		long held = admission.acquire(0, 0);
+		assertEquals(1, held);
+		admission.acquire(99, 0);
+
+		/* an empty document adjusts its reservation without waiting as a new one */
+		held = admission.acquire(0, held);
+		assertEquals(1, held);
+		assertEquals(100, admission.getReserved());
+	}
+
+	@Test
+	public void test_tryAcquire() throws InterruptedException {
+		CubhuniAdmission admission = new CubhuniAdmission(100);
+		long ahead = admission.tryAcquire(60);
+		assertEquals(60, ahead);
+		assertEquals(0, admission.tryAcquire(50));
+
+		/* a document read ahead does not pass a document waiting for admission */
+		CountDownLatch waiting = new CountDownLatch(1);
+		acquire(admission, 50, waiting);
+		assertFalse(waiting.await(100, TimeUnit.MILLISECONDS));
+		assertEquals(0, admission.tryAcquire(10));
+
+		admission.release(ahead);
+		assertTrue(waiting.await(1, TimeUnit.SECONDS));
+		assertEquals(10, admission.tryAcquire(10));
+		assertEquals(60, admission.getReserved());
+	}
+
+	@Test
+	public void test_oversized() throws InterruptedException {
+		CubhuniAdmission admission = new CubhuniAdmission(100);
+		long held = admission.acquire(500, 0);
+		assertEquals(500, admission.getReserved());
+
+		/* the only document may grow beyond the budget */
+		held = admission.acquire(800, held);
+		admission.release(held);
+		assertEquals(0, admission.getReserved());
+	}
+
+	@Test
+	public void test_growTogether() throws InterruptedException {
+		final CubhuniAdmission admission = new CubhuniAdmission(100);
+		final CountDownLatch start = new CountDownLatch(1);
+		final CountDownLatch grown = new CountDownLatch(2);
+		for (int i = 0; i < 2; i++) {
+			final long held = admission.acquire(40, 0);
+			Thread thread = new Thread() {
+				@Override
+				public void run() {
+					try {
+						start.await();
+						admission.acquire(70, held);
+						grown.countDown();
+					} catch (InterruptedException e) {
+						/* the test failed to grow the reservation */
+					}
+				}
+			};
+			thread.setDaemon(true);
+			thread.start();
+		}
+
+		/* both documents are read and grow at once beyond the budget */
+		start.countDown();
+		assertTrue(grown.await(1, TimeUnit.SECONDS));
+		assertEquals(140, admission.getReserved());
+	}
+
+	@Test
+	public void test_noStarvation() throws InterruptedException {
+		CubhuniAdmission admission = new CubhuniAdmission(100);
+		long held = admission.acquire(60, 0);
+		CountDownLatch large = new CountDownLatch(1);
+		acquire(admission, 50, large);
+		assertFalse(large.await(100, TimeUnit.MILLISECONDS));
+
+		for (int i = 0; i < CubhuniAdmission.MAX_PASSES; i++) {
+			admission.release(admission.acquire(30, 0));
+		}
+
+		/* the next small document queues behind the large one */
+		CountDownLatch small = new CountDownLatch(1);
+		acquire(admission, 30, small);
+		assertFalse(small.await(100, TimeUnit.MILLISECONDS));
+
+		admission.release(held);
+		assertTrue(large.await(1, TimeUnit.SECONDS));
+		assertTrue(small.await(1, TimeUnit.SECONDS));
+		assertEquals(80, admission.getReserved());
+	}
+}
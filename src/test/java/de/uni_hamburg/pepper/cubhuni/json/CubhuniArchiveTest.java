@@ -0,0 +1,82 @@
+package de.uni_hamburg.pepper.cubhuni.json;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.Test;
+
+/**
+ * Tests that a {@link CubhuniArchive} lists the documents of a zip archive and
+ * reads an entry without extracting it.
+ *
+ * @author Alicia Gonzalez
+ */
+public class CubhuniArchiveTest {
+
+	private static final String DOCUMENT = "{\"meta\": {}, \"text\": \"بسم الله الرحمن الرحيم بسم الله الرحمن الرحيم\"}";
+
+	private static File archive() throws IOException {
+		File file = File.createTempFile("cubhuni", ".zip");
+		file.deleteOnExit();
+		ZipOutputStream out = new ZipOutputStream(new FileOutputStream(file));
+		try {
+			for (String name : new String[] { "tafsir/", "tafsir/a_original.json", "tafsir/tafsir_meta.json",
+					"readme.txt", "b_commentary.json" }) {
+				out.putNextEntry(new ZipEntry(name));
+				if (!name.endsWith("/")) {
+					out.write(DOCUMENT.getBytes(StandardCharsets.UTF_8));
+				}
+				out.closeEntry();
+			}
+		} finally {
+			out.close();
+		}
+		return file;
+	}
+
+	@Test
+	public void test_index() throws IOException {
+		assertEquals(Arrays.asList("tafsir/a_original.json", "b_commentary.json"),
+				CubhuniArchive.index(archive(), "_meta.json"));
+	}
+
+	@Test
+	public void test_open() throws IOException {
+		CubhuniArchive archive = new CubhuniArchive(archive());
+		try {
+			CubhuniInput.CountingInputStream in = archive.open("b_commentary.json");
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			byte[] buf = new byte[16];
+			int n;
+			while ((n = in.read(buf)) != -1) {
+				bytes.write(buf, 0, n);
+			}
+			in.close();
+			assertEquals(DOCUMENT, new String(bytes.toByteArray(), StandardCharsets.UTF_8));
+			assertEquals(bytes.size(), in.getCount());
+			assertEquals(true, archive.getCompressedSize("b_commentary.json") < bytes.size());
+		} finally {
+			archive.close();
+		}
+	}
+
+	@Test(expected = IOException.class)
+	public void test_openMissing() throws IOException {
+		CubhuniArchive archive = new CubhuniArchive(archive());
+		try {
+			InputStream in = archive.open("c.json");
+			in.close();
+		} finally {
+			archive.close();
+		}
+	}
+}
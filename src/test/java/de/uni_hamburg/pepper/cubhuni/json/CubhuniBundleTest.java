@@ -0,0 +1,141 @@
+package de.uni_hamburg.pepper.cubhuni.json;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Tests that a {@link CubhuniBundle} indexes the lines of a JSON Lines file
+ * with their top level id and source type, and reads each line back.
+ *
+ * @author Alicia Gonzalez
+ */
+public class CubhuniBundleTest {
+
+	private static final String FIRST = "{\"meta\": {\"id\": \"nested\"}, \"id\": \"h-1\", \"text\": \"a \\\"b\\\" {\", "
+			+ "\"tokens\": [{\"tok\": \"a\", \"ini\": 0, \"end\": 1}], \"source_type\": \"original\"}";
+	private static final String SECOND = "{\"id\": 17, \"text\": \"قال\", \"source_type\": null}";
+	private static final String THIRD = "{\"text\": \"\", \"tokens\": []}";
+
+	private static File bundle() throws IOException {
+		return bundle(FIRST + "\n" + SECOND + "\r\n\n  \n" + THIRD);
+	}
+
+	private static File bundle(String content) throws IOException {
+		File file = File.createTempFile("cubhuni", ".ndjson");
+		file.deleteOnExit();
+		OutputStream out = new FileOutputStream(file);
+		try {
+			out.write(content.getBytes(StandardCharsets.UTF_8));
+		} finally {
+			out.close();
+		}
+		return file;
+	}
+
+	private static String read(Reader reader) throws IOException {
+		StringBuilder str = new StringBuilder();
+		char[] buffer = new char[16];
+		int n;
+		while ((n = reader.read(buffer)) != -1) {
+			str.append(buffer, 0, n);
+		}
+		reader.close();
+		return str.toString();
+	}
+
+	@Test
+	public void test_index() throws IOException {
+		List<CubhuniBundle.Entry> entries = CubhuniBundle.index(bundle(), "id", "source_type");
+		assertEquals(3, entries.size());
+
+		assertEquals(1, entries.get(0).line);
+		assertEquals("h-1", entries.get(0).id);
+		assertEquals("original", entries.get(0).sourceType);
+
+		assertEquals(2, entries.get(1).line);
+		assertEquals("17", entries.get(1).id);
+		assertNull(entries.get(1).sourceType);
+
+		assertEquals(5, entries.get(2).line);
+		assertNull(entries.get(2).id);
+	}
+
+	@Test
+	public void test_overlongId() throws IOException {
+		/* two ids of 300 bytes of two byte letters, alike in their first 256 bytes */
+		StringBuilder prefix = new StringBuilder();
+		for (int i = 0; i < 149; i++) {
+			prefix.append('ب');
+		}
+		List<CubhuniBundle.Entry> entries = CubhuniBundle.index(bundle("{\"id\": \"" + prefix + "قال\", \"source_type\": \"original\"}\n"
+				+ "{\"id\": \"" + prefix + "قول\", \"source_type\": \"original\"}\n"
+				+ "{\"id\": \"" + prefix.substring(0, 128) + "\"}"), "id", "source_type");
+		assertEquals(3, entries.size());
+
+		/* the ids are ignored rather than cut to the same id, the other keys are kept */
+		assertNull(entries.get(0).id);
+		assertEquals("original", entries.get(0).sourceType);
+		assertNull(entries.get(1).id);
+		assertEquals(prefix.substring(0, 128), entries.get(2).id);
+	}
+
+	@Test
+	public void test_open() throws IOException {
+		File file = bundle();
+		List<CubhuniBundle.Entry> entries = CubhuniBundle.index(file, "id", "source_type");
+		CubhuniBundle bundle = new CubhuniBundle(file);
+		try {
+			assertEquals(FIRST + "\n", read(bundle.open(entries.get(0).offset, entries.get(0).length)));
+			assertEquals(SECOND + "\r\n", read(bundle.open(entries.get(1).offset, entries.get(1).length)));
+			assertEquals(THIRD, read(bundle.open(entries.get(2).offset, entries.get(2).length)));
+		} finally {
+			bundle.close();
+		}
+	}
+
+	@Test
+	public void test_escapes() throws IOException {
+		/* the values are read as the JSON parser reads them */
+		List<CubhuniBundle.Entry> entries = CubhuniBundle.index(bundle(
+				"{\"\\u0069d\": \"h\\\"1\\\\2\\/3\", \"source_type\": \"\\u0627\\u0644\\u0623\\u0635\\u0644\\tx\"}\n"
+						+ "{\"id\": \"\\u00e9\\n\\uZZZZ\"}"),
+				"id", "source_type");
+		assertEquals("h\"1\\2/3", entries.get(0).id);
+		assertEquals("الأصل\tx", entries.get(0).sourceType);
+		assertEquals("\u00e9\n\\uZZZZ", entries.get(1).id);
+	}
+
+	@Test
+	public void test_byteOrderMark() throws IOException {
+		File file = bundle("\ufeff" + SECOND + "\n" + THIRD);
+		List<CubhuniBundle.Entry> entries = CubhuniBundle.index(file, "id", "source_type");
+		assertEquals(2, entries.size());
+		assertEquals("17", entries.get(0).id);
+		CubhuniBundle bundle = new CubhuniBundle(file);
+		try {
+			assertEquals(SECOND + "\n", read(bundle.open(entries.get(0).offset, entries.get(0).length)));
+			assertEquals(THIRD, read(bundle.open(entries.get(1).offset, entries.get(1).length)));
+		} finally {
+			bundle.close();
+		}
+	}
+
+	@Test
+	public void test_isBundle() {
+		assertTrue(CubhuniBundle.isBundle("hadith.ndjson"));
+		assertTrue(CubhuniBundle.isBundle("hadith.jsonl"));
+		assertFalse(CubhuniBundle.isBundle("hadith_original.json"));
+	}
+}
@@ -0,0 +1,80 @@
+package de.uni_hamburg.pepper.cubhuni.json;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests that the {@link CubhuniCorpusScanner} maps the input tree to corpora
+ * in name order and excludes the metadata files.
+ *
+ * @author Alicia Gonzalez
+ */
+public class CubhuniCorpusScannerTest {
+
+	private File root;
+
+	@Before
+	public void setUp() throws IOException {
+		root = File.createTempFile("hadith", "");
+		root.delete();
+		root.mkdirs();
+		root.deleteOnExit();
+	}
+
+	private File create(String path) throws IOException {
+		File file = new File(root, path);
+		file.getParentFile().mkdirs();
+		file.createNewFile();
+		file.deleteOnExit();
+		file.getParentFile().deleteOnExit();
+		return file;
+	}
+
+	@Test
+	public void test_scan() throws IOException {
+		create(root.getName() + "_meta.json");
+		File d2 = create("d2.json");
+		File d1 = create("d1.json");
+		create("notes.txt");
+		create("c2/c2_meta.json");
+		File d3 = create("c2/d3.json");
+		File d4 = create("c1/d4.json");
+		create("empty/empty_meta.json");
+
+		CubhuniCorpusScanner.Dir dir = new CubhuniCorpusScanner(Arrays.asList("json"), "_meta.json", 4).scan(root);
+
+		assertEquals(Arrays.asList(d1, d2), dir.documents);
+		assertEquals(2, dir.subdirs.size());
+		assertEquals("c1", dir.subdirs.get(0).dir.getName());
+		assertEquals(Arrays.asList(d4), dir.subdirs.get(0).documents);
+		assertEquals(Arrays.asList(d3), dir.subdirs.get(1).documents);
+		assertTrue(dir.subdirs.get(1).subdirs.isEmpty());
+		assertEquals(4, dir.countDocuments());
+		assertEquals(2, dir.countMetaFiles());
+	}
+
+	@Test
+	public void test_gzip() throws IOException {
+		create(root.getName() + "_meta.json.gz");
+		File d1 = create("d1.json.gz");
+		File d2 = create("d2.json");
+
+		CubhuniCorpusScanner scanner = new CubhuniCorpusScanner(Arrays.asList("json", "json.gz"), "_meta.json", 1);
+		CubhuniCorpusScanner.Dir dir = scanner.scan(root);
+
+		/* a compressed metadata file is not a document */
+		assertEquals(Arrays.asList(d1, d2), dir.documents);
+		assertEquals(1, dir.countMetaFiles());
+		assertFalse(scanner.isDocument("x_meta.json.gz"));
+		assertTrue(scanner.isMetaFile("x_meta.json.gz"));
+		assertTrue(scanner.isDocument("x_original.json.gz"));
+	}
+}
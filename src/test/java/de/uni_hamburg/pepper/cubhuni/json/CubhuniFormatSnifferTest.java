@@ -0,0 +1,145 @@
+package de.uni_hamburg.pepper.cubhuni.json;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Properties;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the graded verdicts of the {@link CubhuniFormatSniffer} on single
+ * files, zip archives and directories.
+ *
+ * @author Alicia Gonzalez
+ */
+public class CubhuniFormatSnifferTest {
+
+	private Properties props;
+	private CubhuniFormatSniffer sniffer;
+	private File dir;
+
+	@Before
+	public void setUp() throws IOException {
+		props = new Properties();
+		InputStream in = new FileInputStream("config.properties");
+		try {
+			props.load(in);
+		} finally {
+			in.close();
+		}
+		sniffer = new CubhuniFormatSniffer(CubhuniMappingPlan.compile(props));
+
+		dir = File.createTempFile("cubhuni", "");
+		dir.delete();
+		dir.mkdirs();
+		dir.deleteOnExit();
+	}
+
+	private File write(String name, String content) throws IOException {
+		File file = new File(dir, name);
+		file.deleteOnExit();
+		OutputStream out = new FileOutputStream(file);
+		try {
+			out.write(content.getBytes(StandardCharsets.UTF_8));
+		} finally {
+			out.close();
+		}
+		return file;
+	}
+
+	private static String document(int tokens) {
+		StringBuilder str = new StringBuilder("{\"meta\": {\"sura\": 2, \"aya_ini\": 1}, \"text\": \"");
+		for (int i = 0; i < tokens; i++) {
+			str.append("كلمة ");
+		}
+		str.append("\", \"tokens\": [");
+		for (int i = 0; i < tokens; i++) {
+			str.append(i > 0 ? ", " : "").append("{\"tok\": \"كلمة\", \"ini\": ").append(5 * i).append(", \"end\": ")
+					.append(5 * i + 4).append("}");
+		}
+		return str.append("]}").toString();
+	}
+
+	@Test
+	public void test_smallDocument() throws IOException {
+		assertEquals(1.0, sniffer.sniffFile(write("small.json", document(10))), 0.0);
+	}
+
+	@Test
+	public void test_largeDocument() throws IOException {
+		/* the tokens key is far from both ends, it is recognized by the last token */
+		assertEquals(1.0, sniffer.sniffFile(write("large.json", document(5000))), 0.0);
+	}
+
+	@Test
+	public void test_otherJSON() throws IOException {
+		assertEquals(0.1, sniffer.sniffFile(write("other.json", "{\"name\": \"value\"}")), 0.0);
+		assertEquals(0.0, sniffer.sniffFile(write("array.json", "[1, 2, 3]")), 0.0);
+	}
+
+	/* zip archive of the given entries, name and content alternating */
+	private File zip(String name, String... entries) throws IOException {
+		File file = new File(dir, name);
+		file.deleteOnExit();
+		ZipOutputStream out = new ZipOutputStream(new FileOutputStream(file));
+		try {
+			for (int i = 0; i < entries.length; i += 2) {
+				out.putNextEntry(new ZipEntry(entries[i]));
+				out.write(entries[i + 1].getBytes(StandardCharsets.UTF_8));
+				out.closeEntry();
+			}
+		} finally {
+			out.close();
+		}
+		return file;
+	}
+
+	@Test
+	public void test_archive() throws IOException {
+		File archive = zip("corpus.zip", "sub/a.json", document(10), "sub/b.json", document(20),
+				"sub/sub_meta.json", "{\"ProjectURI\": \"https://www.cobhuni.uni-hamburg.de/\"}", "notes.txt", "notes");
+		assertEquals(1.0, sniffer.sniffFile(archive), 0.0);
+		assertEquals(0.1, sniffer.sniffFile(zip("other.zip", "other.json", "{\"name\": \"value\"}")), 0.0);
+		assertEquals(0.0, sniffer.sniffFile(zip("empty.zip", "notes.txt", "notes")), 0.0);
+		assertEquals(0.0, sniffer.sniffFile(write("broken.zip", "not an archive")), 0.0);
+
+		/* a corpus shipped as archives only is importable */
+		File corpus = new File(dir, "zipped");
+		corpus.mkdir();
+		corpus.deleteOnExit();
+		assertTrue(archive.renameTo(new File(corpus, "corpus.zip")));
+		new File(corpus, "corpus.zip").deleteOnExit();
+		assertEquals(1.0, sniffer.sniff(corpus), 0.0);
+	}
+
+	@Test
+	public void test_otherPlan() throws IOException {
+		File file = write("small.json", document(10));
+		assertEquals(1.0, sniffer.sniffFile(file), 0.0);
+		assertEquals(1.0, sniffer.sniff(file), 0.0);
+
+		/* the verdict of the same file depends on the keys of the plan */
+		props.setProperty("text", "body");
+		double verdict = new CubhuniFormatSniffer(CubhuniMappingPlan.compile(props)).sniff(file);
+		assertTrue(verdict < 1.0);
+	}
+
+	@Test
+	public void test_directory() throws IOException {
+		write("a.json", document(10));
+		write("b.json", "{\"name\": \"value\"}");
+		write(dir.getName() + "_meta.json", "{\"ProjectURI\": \"https://www.cobhuni.uni-hamburg.de/\"}");
+		assertEquals(0.55, sniffer.sniff(dir), 0.001);
+	}
+}
@@ -0,0 +1,105 @@
+package de.uni_hamburg.pepper.cubhuni.json;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Properties;
+
+import javax.management.ObjectName;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Tests the totals, the ordering and the CSV report of the
+ * {@link CubhuniImportMetrics}.
+ *
+ * @author Alicia Gonzalez
+ */
+public class CubhuniImportMetricsTest {
+
+	private static CubhuniMappingPlan plan;
+
+	@BeforeClass
+	public static void loadPlan() throws IOException {
+		Properties props = new Properties();
+		InputStream in = new FileInputStream("config.properties");
+		try {
+			props.load(in);
+		} finally {
+			in.close();
+		}
+		plan = CubhuniMappingPlan.compile(props);
+	}
+
+	private static CubhuniDocumentBuilder read(long bytes, long millis) {
+		CubhuniDocumentBuilder builder = new CubhuniDocumentBuilder(plan);
+		builder.readStatistics(bytes, millis * 1000000);
+		return builder;
+	}
+
+	private static CubhuniImportMetrics record() {
+		CubhuniImportMetrics metrics = new CubhuniImportMetrics();
+		metrics.record("/corpus/small.json", read(100, 50), 0);
+		metrics.record("/corpus/slow.json", read(200, 400), 100000000);
+		metrics.record("/corpus/large.json", read(5000, 10), 0);
+		return metrics;
+	}
+
+	@Test
+	public void test_totals() {
+		CubhuniImportMetrics metrics = record();
+		assertEquals(3, metrics.getDocuments());
+		assertEquals(5300, metrics.getBytesRead());
+		assertEquals(460, metrics.getParseMillis());
+		assertEquals(100, metrics.getBuildMillis());
+		assertEquals("/corpus/large.json", metrics.getLastDocument());
+		assertEquals("/corpus/slow.json (500.000 ms)", metrics.getSlowestDocument());
+		assertEquals("/corpus/large.json (5000 bytes)", metrics.getLargestDocument());
+	}
+
+	@Test
+	public void test_subMillisecond() {
+		/* documents mapped in less than a millisecond each still add up */
+		CubhuniImportMetrics metrics = new CubhuniImportMetrics();
+		for (int i = 0; i < 1000; i++) {
+			CubhuniDocumentBuilder builder = new CubhuniDocumentBuilder(plan);
+			builder.readStatistics(100, 300000);
+			metrics.record("/corpus/d" + i + ".json", builder, 200000);
+		}
+		assertEquals(300, metrics.getParseMillis());
+		assertEquals(200, metrics.getBuildMillis());
+	}
+
+	@Test
+	public void test_csvReport() throws IOException {
+		File file = File.createTempFile("metrics", ".csv");
+		file.deleteOnExit();
+		record().writeReport(file);
+
+		List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+		assertEquals(4, lines.size());
+		assertEquals("path,bytes,compressed_bytes,parse_ms,build_ms,tokens,spans,graph_bytes", lines.get(0));
+		assertTrue(lines.get(1).startsWith("\"/corpus/slow.json\",200,200,400.000,100.000,"));
+		assertTrue(lines.get(2).startsWith("\"/corpus/small.json\","));
+	}
+
+	@Test
+	public void test_register() throws Exception {
+		CubhuniImportMetrics metrics = record();
+		metrics.register();
+		ObjectName query = new ObjectName(CubhuniImportMetrics.class.getPackage().getName() + ":type="
+				+ CubhuniImportMetrics.class.getSimpleName() + ",*");
+		assertEquals(1, ManagementFactory.getPlatformMBeanServer().queryNames(query, null).size());
+		metrics.unregister();
+		assertEquals(0, ManagementFactory.getPlatformMBeanServer().queryNames(query, null).size());
+	}
+}
@@ -0,0 +1,158 @@
+package de.uni_hamburg.pepper.cubhuni.json;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.corpus_tools.salt.SaltFactory;
+import org.corpus_tools.salt.common.SDocument;
+import org.json.simple.parser.ParseException;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests that the {@link CubhuniIncrementalCache} restores the results of
+ * unchanged files, converts changed files again, forgets deleted files and
+ * drops everything once the configuration changes.
+ *
+ * @author Alicia Gonzalez
+ */
+public class CubhuniIncrementalCacheTest {
+
+	private File dir;
+	private File cacheDir;
+
+	@Before
+	public void setUp() throws IOException {
+		dir = Files.createTempDirectory("cubhuni").toFile();
+		cacheDir = new File(dir, "incremental");
+	}
+
+	private static File write(File file, String content) throws IOException {
+		FileOutputStream out = new FileOutputStream(file);
+		try {
+			out.write(content.getBytes("UTF-8"));
+		} finally {
+			out.close();
+		}
+		return file;
+	}
+
+	/* a document as the mapper leaves it: its graph with the text and its meta-annotations */
+	private static SDocument document(String text, long sura) {
+		SDocument document = SaltFactory.createSDocument();
+		document.setDocumentGraph(SaltFactory.createSDocumentGraph());
+		document.getDocumentGraph().createTextualDS(text);
+		document.createMetaAnnotation(null, "sura", sura);
+		document.createMetaAnnotation(null, "source_type", "original");
+		return document;
+	}
+
+	@Test
+	public void test_restoreUnchanged() throws IOException, ParseException {
+		File input = write(new File(dir, "doc.json"), "{\"text\": \"بسم الله\"}");
+		CubhuniIncrementalCache cache = new CubhuniIncrementalCache(cacheDir, "config", 0);
+		assertFalse(cache.isUnchanged(input));
+		cache.store(input, document("بسم الله", 2));
+		cache.save();
+
+		cache = new CubhuniIncrementalCache(cacheDir, "config", 0);
+		assertTrue(cache.isUnchanged(input));
+		SDocument restored = SaltFactory.createSDocument();
+		cache.restore(input, restored);
+		assertEquals("بسم الله", restored.getDocumentGraph().getTextualDSs().get(0).getText());
+		assertEquals(2L, restored.getMetaAnnotation("sura").getValue());
+		assertEquals("original", restored.getMetaAnnotation("source_type").getValue());
+	}
+
+	@Test
+	public void test_changedSize() throws IOException {
+		File input = write(new File(dir, "doc.json"), "{\"text\": \"بسم الله\"}");
+		CubhuniIncrementalCache cache = new CubhuniIncrementalCache(cacheDir, "config", 0);
+		cache.store(input, document("بسم الله", 2));
+		cache.save();
+
+		long lastModified = input.lastModified();
+		write(input, "{\"text\": \"بسم الله الرحمن\"}");
+		assertTrue(input.setLastModified(lastModified));
+		assertFalse(new CubhuniIncrementalCache(cacheDir, "config", 0).isUnchanged(input));
+	}
+
+	@Test
+	public void test_changedModificationTime() throws IOException {
+		File input = write(new File(dir, "doc.json"), "{\"text\": \"بسم الله\"}");
+		CubhuniIncrementalCache cache = new CubhuniIncrementalCache(cacheDir, "config", 0);
+		cache.store(input, document("بسم الله", 2));
+		cache.save();
+
+		/* touched only: the digest is the one of the manifest */
+		assertTrue(input.setLastModified(input.lastModified() + 10000));
+		cache = new CubhuniIncrementalCache(cacheDir, "config", 0);
+		assertTrue(cache.isUnchanged(input));
+
+		/* the new modification time is kept, the file is not digested again */
+		cache.save();
+		assertTrue(new CubhuniIncrementalCache(cacheDir, "config", 0).isUnchanged(input));
+
+		/* the same size but another content */
+		write(input, "{\"text\": \"بسم اللا\"}");
+		assertTrue(input.setLastModified(input.lastModified() + 20000));
+		assertFalse(new CubhuniIncrementalCache(cacheDir, "config", 0).isUnchanged(input));
+	}
+
+	@Test
+	public void test_removeDeleted() throws IOException {
+		File kept = write(new File(dir, "kept.json"), "{\"text\": \"بسم الله\"}");
+		File deleted = write(new File(dir, "deleted.json"), "{\"text\": \"الحمد لله\"}");
+		CubhuniIncrementalCache cache = new CubhuniIncrementalCache(cacheDir, "config", 0);
+		cache.store(kept, document("بسم الله", 1));
+		cache.store(deleted, document("الحمد لله", 2));
+		cache.save();
+		assertEquals(5, cacheDir.list().length);
+
+		cache = new CubhuniIncrementalCache(cacheDir, "config", 0);
+		assertEquals(Collections.singletonList(deleted.getAbsolutePath()), cache.removeDeleted(Arrays.asList(kept)));
+		cache.save();
+		/* the results of the deleted file are gone with it */
+		assertEquals(3, cacheDir.list().length);
+
+		/* a file coming back under the same path is converted again */
+		cache = new CubhuniIncrementalCache(cacheDir, "config", 0);
+		assertTrue(cache.isUnchanged(kept));
+		assertFalse(cache.isUnchanged(deleted));
+	}
+
+	@Test
+	public void test_changedConfiguration() throws IOException {
+		File input = write(new File(dir, "doc.json"), "{\"text\": \"بسم الله\"}");
+		CubhuniIncrementalCache cache = new CubhuniIncrementalCache(cacheDir, "config", 0);
+		cache.store(input, document("بسم الله", 2));
+		cache.save();
+
+		assertFalse(new CubhuniIncrementalCache(cacheDir, "other config", 0).isUnchanged(input));
+
+		/* the manifest written with the new configuration has none of the old entries */
+		new CubhuniIncrementalCache(cacheDir, "other config", 0).save();
+		assertFalse(new CubhuniIncrementalCache(cacheDir, "config", 0).isUnchanged(input));
+	}
+
+	@Test
+	public void test_checkpoint() throws IOException {
+		File first = write(new File(dir, "first.json"), "{\"text\": \"بسم الله\"}");
+		File second = write(new File(dir, "second.json"), "{\"text\": \"الحمد لله\"}");
+		CubhuniIncrementalCache cache = new CubhuniIncrementalCache(cacheDir, "config", 1);
+		cache.store(first, document("بسم الله", 1));
+
+		/* the run is killed before save(), the stored document is resumed */
+		cache = new CubhuniIncrementalCache(cacheDir, "config", 1);
+		assertTrue(cache.isUnchanged(first));
+		assertFalse(cache.isUnchanged(second));
+	}
+}
@@ -0,0 +1,118 @@
+package de.uni_hamburg.pepper.cubhuni.json;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.charset.MalformedInputException;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.Test;
+
+/**
+ * Tests that {@link CubhuniInput} decodes UTF-8 the same way for small,
+ * buffered files and for large, memory-mapped files.
+ *
+ * @author Alicia Gonzalez
+ */
+public class CubhuniInputTest {
+
+	private static File write(byte[] bytes) throws IOException {
+		File file = File.createTempFile("cubhuni", ".json");
+		file.deleteOnExit();
+		OutputStream out = new FileOutputStream(file);
+		try {
+			out.write(bytes);
+		} finally {
+			out.close();
+		}
+		return file;
+	}
+
+	private static String read(File file) throws IOException {
+		StringBuilder str = new StringBuilder();
+		Reader reader = CubhuniInput.open(file);
+		try {
+			char[] buf = new char[1000];
+			int n;
+			while ((n = reader.read(buf, 0, buf.length)) != -1) {
+				str.append(buf, 0, n);
+			}
+		} finally {
+			reader.close();
+		}
+		return str.toString();
+	}
+
+	private static String arabicText(long minBytes) {
+		StringBuilder str = new StringBuilder();
+		for (int i = 0; str.length() * 2 < minBytes; i++) {
+			str.append("{\"tok\": \"بسم الله\", \"ini\": ").append(i).append("}\n");
+		}
+		return str.toString();
+	}
+
+	@Test
+	public void test_smallFile() throws IOException {
+		String text = arabicText(1000);
+		assertEquals(text, read(write(text.getBytes(StandardCharsets.UTF_8))));
+	}
+
+	@Test
+	public void test_mappedFile() throws IOException {
+		String text = arabicText(CubhuniInput.MAPPED_THRESHOLD * 2);
+		assertEquals(text, read(write(text.getBytes(StandardCharsets.UTF_8))));
+	}
+
+	@Test
+	public void test_byteOrderMark() throws IOException {
+		String text = arabicText(1000);
+		assertEquals(text, read(write(("\uFEFF" + text).getBytes(StandardCharsets.UTF_8))));
+		text = arabicText(CubhuniInput.MAPPED_THRESHOLD * 2);
+		assertEquals(text, read(write(("\uFEFF" + text).getBytes(StandardCharsets.UTF_8))));
+	}
+
+	@Test(expected = MalformedInputException.class)
+	public void test_malformedInput() throws IOException {
+		read(write(new byte[] { 'a', (byte) 0xC3, '(', 'b' }));
+	}
+
+	@Test
+	public void test_gzipFile() throws IOException {
+		String text = arabicText(100000);
+		File file = File.createTempFile("cubhuni", ".json.gz");
+		file.deleteOnExit();
+		OutputStream out = new GZIPOutputStream(new FileOutputStream(file));
+		try {
+			out.write(text.getBytes(StandardCharsets.UTF_8));
+		} finally {
+			out.close();
+		}
+
+		CubhuniInput.CountingInputStream in = CubhuniInput.gunzip(file);
+		StringBuilder str = new StringBuilder();
+		Reader reader = CubhuniInput.open(in);
+		try {
+			char[] buf = new char[1000];
+			int n;
+			while ((n = reader.read(buf, 0, buf.length)) != -1) {
+				str.append(buf, 0, n);
+			}
+		} finally {
+			reader.close();
+		}
+		assertEquals(text, str.toString());
+		assertEquals(text.getBytes(StandardCharsets.UTF_8).length, in.getCount());
+	}
+
+	@Test
+	public void test_baseName() {
+		assertEquals("x_original", CubhuniInput.baseName("/corpus/x_original.json.gz"));
+		assertEquals("x_commentary", CubhuniInput.baseName("dir/x_commentary.json"));
+		assertEquals("x", CubhuniInput.baseName("x"));
+	}
+}
@@ -5,10 +5,25 @@ import de.uni_hamburg.pepper.cubhuni.json.CubhuniJSONImporter;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+import org.corpus_tools.pepper.common.DOCUMENT_STATUS;
 import org.corpus_tools.pepper.common.FormatDesc;
 import org.corpus_tools.pepper.testFramework.PepperImporterTest;
 import org.corpus_tools.salt.common.SCorpus;
 import org.corpus_tools.salt.common.SDocument;
+import org.corpus_tools.salt.graph.Identifier;
+import org.eclipse.emf.common.util.URI;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -103,4 +118,74 @@ public class CubhuniJSONImporterTest extends PepperImporterTest {
 			assertEquals(1, sDocument.getDocumentGraph().getPointingRelations().size());
 		}*/
 	}
+
+	/* a document of the given number of tokens, with all meta fields */
+	private static String document(CubhuniMappingPlan plan, int tokens) {
+		StringBuilder json = new StringBuilder("{\"" + plan.metaKey + "\": {");
+		List<CubhuniMappingPlan.MetaField> fields = plan.getMetaFields();
+		for (int i = 0; i < fields.size(); i++) {
+			CubhuniMappingPlan.MetaField field = fields.get(i);
+			json.append((i > 0) ? ", " : "").append("\"" + field.key + "\": ")
+					.append((field.type == CubhuniMappingPlan.ValueType.LONG) ? "1" : "\"" + field.key + "\"");
+		}
+		json.append("}, \"" + plan.textKey + "\": \"");
+		for (int i = 0; i < tokens; i++) {
+			json.append("w ");
+		}
+		json.append("\", \"" + plan.tokensKey + "\": [");
+		for (int i = 0; i < tokens; i++) {
+			json.append((i > 0) ? ", " : "").append("{\"" + plan.tokKey + "\": \"w\", \"" + plan.tokIniKey + "\": "
+					+ (2 * i) + ", \"" + plan.tokEndKey + "\": " + (2 * i + 1) + "}");
+		}
+		return json.append("]}").toString();
+	}
+
+	/**
+	 * Checks that the documents are mapped largest first when a schedule
+	 * index is given, whatever the order of their files: Pepper maps the
+	 * documents in the order the importer created them in.
+	 */
+	@Test
+	public void test_largestFirst() throws IOException {
+		Properties props = new Properties();
+		File config = new File("config.properties");
+		InputStream in = new FileInputStream(config);
+		try {
+			props.load(in);
+		} finally {
+			in.close();
+		}
+		CubhuniMappingPlan plan = CubhuniMappingPlan.compile(props);
+
+		File corpus = Files.createTempDirectory("schedule").toFile();
+		String[] names = { "a", "b", "c", "d" };
+		int[] tokens = { 10, 1000, 1, 100 };
+		for (int i = 0; i < names.length; i++) {
+			Files.write(new File(corpus, names[i] + ".json").toPath(),
+					document(plan, tokens[i]).getBytes(StandardCharsets.UTF_8));
+		}
+
+		/* the names of the documents in the order their mapping is done in */
+		final List<String> mapped = Collections.synchronizedList(new ArrayList<String>());
+		CubhuniJSONImporter importer = new CubhuniJSONImporter() {
+			@Override
+			public void done(Identifier identifier, DOCUMENT_STATUS result) {
+				if (identifier.getIdentifiableElement() instanceof SDocument) {
+					mapped.add(((SDocument) identifier.getIdentifiableElement()).getName());
+				}
+				super.done(identifier, result);
+			}
+		};
+		/* one mapper at a time, so that the mapping is done in the order it starts in */
+		importer.setIsMultithreaded(false);
+		setFixture(importer);
+		getFixture().getCorpusDesc().setCorpusPath(URI.createFileURI(corpus.getAbsolutePath()));
+		getFixture().getProperties().setPropertyValue(CubhuniJSONImporterProperties.PROP_MAPPING_CONFIG,
+				config.getAbsolutePath());
+		getFixture().getProperties().setPropertyValue(CubhuniJSONImporterProperties.PROP_SCHEDULE_INDEX,
+				new File(corpus.getParentFile(), corpus.getName() + ".schedule").getAbsolutePath());
+		start();
+
+		assertEquals(Arrays.asList("b", "d", "a", "c"), mapped);
+	}
 }
@@ -0,0 +1,125 @@
+package de.uni_hamburg.pepper.cubhuni.json;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+import org.json.simple.parser.ParseException;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests that a document read in streaming mode through the
+ * {@link CubhuniJSONStreamHandler} stages the same meta, text, tokens and
+ * spans as when it is read as a whole JSON tree, whatever the order of its
+ * parts.
+ *
+ * @author Alicia Gonzalez
+ */
+public class CubhuniJSONStreamHandlerTest {
+
+	private CubhuniMappingPlan plan;
+
+	@Before
+	public void setUp() throws IOException {
+		Properties props = new Properties();
+		InputStream in = new FileInputStream("config.properties");
+		try {
+			props.load(in);
+		} finally {
+			in.close();
+		}
+		props.setProperty("tok_annotations", "tok_pos,tok_lemma");
+		plan = CubhuniMappingPlan.compile(props);
+	}
+
+	private static File write(String content) throws IOException {
+		File file = File.createTempFile("cubhuni", ".json");
+		file.deleteOnExit();
+		OutputStream out = new FileOutputStream(file);
+		try {
+			out.write(content.getBytes(StandardCharsets.UTF_8));
+		} finally {
+			out.close();
+		}
+		return file;
+	}
+
+	/* the spans staged by the builder, group, value and tokens, in sorted order */
+	private static List<String> spans(CubhuniDocumentBuilder builder) {
+		List<String> spans = new ArrayList<String>();
+		for (int i = 0; i < builder.getSpanCount(); i++) {
+			spans.add(Arrays.toString(builder.getSpan(i)) + Arrays.toString(builder.getSpanOffsets(i)));
+		}
+		Collections.sort(spans);
+		return spans;
+	}
+
+	/*
+	 * reads the document in both modes and checks that both stage the same
+	 * parts; the tree mode stages the spans group by group, the streaming
+	 * mode in document order
+	 */
+	private void assertSame(String document, int tokens, int spans) throws IOException, ParseException {
+		File file = write(document);
+		CubhuniDocumentBuilder tree = new CubhuniJSONReader(plan, false).read(file);
+		CubhuniDocumentBuilder stream = new CubhuniJSONReader(plan, true).read(file);
+
+		assertEquals(tree.getMeta(), stream.getMeta());
+		assertEquals(tree.getText(), stream.getText());
+		assertEquals(tokens, tree.getTokenCount());
+		assertEquals(tree.getTokenCount(), stream.getTokenCount());
+		for (int i = 0; i < tree.getTokenCount(); i++) {
+			assertEquals(tree.getToken(i), stream.getToken(i));
+			assertEquals(tree.getTokenIni(i), stream.getTokenIni(i));
+			assertEquals(tree.getTokenEnd(i), stream.getTokenEnd(i));
+			assertEquals(tree.getTokenAnnotation(i, 0), stream.getTokenAnnotation(i, 0));
+			assertEquals(tree.getTokenAnnotation(i, 1), stream.getTokenAnnotation(i, 1));
+		}
+		assertEquals(spans, tree.getSpanCount());
+		assertEquals(spans(tree), spans(stream));
+	}
+
+	@Test
+	public void test_document() throws IOException, ParseException {
+		assertSame("{\"meta\": {\"sura\": 2, \"title\": \"البقرة\", \"date\": null, \"score\": 0.5},"
+				+ " \"text\": \"بسم الله الرحمن الرحيم\","
+				+ " \"tokens\": [{\"tok\": \"بسم\", \"ini\": 0, \"end\": 3, \"pos\": \"NOUN\", \"lemma\": \"اسم\"},"
+				+ " {\"tok\": \"الله\", \"ini\": 4, \"end\": 8, \"pos\": \"PROPN\"},"
+				+ " {\"tok\": \"الرحمن\", \"ini\": 9, \"end\": 15, \"pos\": \"ADJ\", \"lemma\": \"رحمن\"},"
+				+ " {\"tok\": \"الرحيم\", \"ini\": 16, \"end\": 22, \"pos\": \"ADJ\", \"lemma\": \"رحيم\"}],"
+				+ " \"persons\": [{\"val\": \"الله\", \"ini\": 1, \"end\": 1}],"
+				+ " \"motives\": [{\"val\": \"basmala\", \"ini\": 0, \"end\": 3}, {\"val\": \"rahma\", \"ini\": 2, \"end\": 3}],"
+				+ " \"sections\": [{\"val\": \"1\", \"ini\": 0, \"end\": 3}]}", 4, 4);
+	}
+
+	@Test
+	public void test_reordered() throws IOException, ParseException {
+		/*
+		 * spans before the tokens, groups interleaved with unknown keys, the
+		 * text and meta last, offsets as strings and decimals, escapes and
+		 * nulls, fields nested deeper than expected
+		 */
+		assertSame("{\"sections\": [{\"end\": 1, \"val\": \"1\", \"ini\": 0}],"
+				+ " \"unknown\": {\"tokens\": [{\"tok\": \"x\"}], \"val\": \"y\"},"
+				+ " \"persons\": [{\"val\": \"\\u0627\\u0644\\u0644\\u0647\", \"ini\": \"1\", \"end\": 1.0, \"extra\": {\"val\": \"z\"}},"
+				+ " {\"val\": null, \"ini\": 0}],"
+				+ " \"motives\": [],"
+				+ " \"tokens\": [{\"ini\": 0, \"end\": 3, \"tok\": \"بسم\", \"tags\": [\"a\", {\"pos\": \"X\"}], \"pos\": null},"
+				+ " {\"lemma\": \"الله\", \"tok\": \"\\\"الله\\\"\", \"end\": \"10\", \"ini\": 4}],"
+				+ " \"other\": [{\"val\": \"ignored\", \"ini\": 0, \"end\": 1}],"
+				+ " \"text\": \"بسم \\\"الله\\\"\","
+				+ " \"meta\": {\"title\": \"\\u0627\\n\", \"sura\": 1, \"aya_ini\": 1, \"aya_end\": 7}}", 2, 3);
+	}
+}
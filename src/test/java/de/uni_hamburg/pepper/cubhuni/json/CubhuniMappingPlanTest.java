@@ -0,0 +1,94 @@
+package de.uni_hamburg.pepper.cubhuni.json;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Properties;
+
+import org.junit.Test;
+
+/**
+ * Tests the compilation of the {@link CubhuniMappingPlan} and the tolerant
+ * coercion of metadata values.
+ * 
+ * @author Alicia Gonzalez
+ */
+public class CubhuniMappingPlanTest {
+
+	private static Properties loadConfig() throws IOException {
+		Properties props = new Properties();
+		InputStream in = new FileInputStream("config.properties");
+		try {
+			props.load(in);
+		} finally {
+			in.close();
+		}
+		return props;
+	}
+
+	@Test
+	public void test_compileConfig() throws IOException {
+		CubhuniMappingPlan plan = CubhuniMappingPlan.compile(loadConfig());
+		assertEquals("tokens", plan.tokensKey);
+		assertEquals("norm", plan.tokNormName);
+		assertEquals(20, plan.getMetaFields().size());
+		assertEquals("person", plan.getGroups().get("persons"));
+		assertEquals("page", plan.getGroups().get("pages"));
+		assertEquals(0, plan.getTokenAnnotations().size());
+	}
+
+	@Test
+	public void test_compileTokenAnnotations() throws IOException {
+		Properties props = loadConfig();
+		props.setProperty("tok_annotations", "tok_pos, tok_root");
+		assertEquals(Arrays.asList("pos", "root"), CubhuniMappingPlan.compile(props).getTokenAnnotations());
+	}
+
+	@Test
+	public void test_loadDefault() throws IOException {
+		CubhuniMappingPlan plan = CubhuniMappingPlan.loadDefault();
+		assertSame(plan, CubhuniMappingPlan.loadDefault());
+		assertEquals(CubhuniMappingPlan.load(new File("config.properties")).getFingerprint(), plan.getFingerprint());
+	}
+
+	@Test
+	public void test_loadOverrides() throws IOException {
+		Properties overrides = new Properties();
+		overrides.setProperty("text", "body");
+		overrides.setProperty("tok_annotations", "tok_lemma");
+		CubhuniMappingPlan plan = CubhuniMappingPlan.load(new File("config.properties"), overrides);
+		assertEquals("body", plan.textKey);
+		assertEquals(Arrays.asList("lemma"), plan.getTokenAnnotations());
+		assertEquals("tokens", plan.tokensKey);
+
+		/* the overrides change the fingerprint, so that the results of earlier runs are not reused */
+		CubhuniMappingPlan overridden = CubhuniMappingPlan.loadDefault(overrides);
+		assertEquals(plan.getFingerprint(), overridden.getFingerprint());
+		assertFalse(CubhuniMappingPlan.loadDefault().getFingerprint().equals(overridden.getFingerprint()));
+		assertSame(CubhuniMappingPlan.loadDefault(), CubhuniMappingPlan.loadDefault(new Properties()));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void test_compileMissingKey() throws IOException {
+		Properties props = loadConfig();
+		props.remove("tokens");
+		CubhuniMappingPlan.compile(props);
+	}
+
+	@Test
+	public void test_toLong() {
+		assertEquals(Long.valueOf(3), CubhuniMappingPlan.toLong(3L));
+		assertEquals(Long.valueOf(3), CubhuniMappingPlan.toLong(3.0));
+		assertEquals(Long.valueOf(3), CubhuniMappingPlan.toLong("3"));
+		assertEquals(Long.valueOf(3), CubhuniMappingPlan.toLong(" 3.0 "));
+		assertNull(CubhuniMappingPlan.toLong("three"));
+		assertNull(CubhuniMappingPlan.toLong(null));
+	}
+}
@@ -0,0 +1,90 @@
+package de.uni_hamburg.pepper.cubhuni.json;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the conditions of the {@link CubhuniMetaFilter} on numeric and text
+ * metadata fields and on the source type.
+ *
+ * @author Alicia Gonzalez
+ */
+public class CubhuniMetaFilterTest {
+
+	private CubhuniMappingPlan plan;
+
+	@Before
+	public void setUp() throws IOException {
+		Properties props = new Properties();
+		InputStream in = new FileInputStream("config.properties");
+		try {
+			props.load(in);
+		} finally {
+			in.close();
+		}
+		plan = CubhuniMappingPlan.compile(props);
+	}
+
+	private static Map<String, Object> meta(Object sura, Object madhab) {
+		Map<String, Object> meta = new HashMap<String, Object>();
+		meta.put("sura", sura);
+		meta.put("madhab_name", madhab);
+		return meta;
+	}
+
+	@Test
+	public void test_numeric() {
+		CubhuniMetaFilter filter = CubhuniMetaFilter.parse("sura >= 2; sura < 5", plan);
+		assertTrue(filter.matches(meta(2L, "x"), null));
+		assertTrue(filter.matches(meta("4", "x"), null));
+		assertFalse(filter.matches(meta(5L, "x"), null));
+		assertFalse(filter.matches(meta(1L, "x"), null));
+
+		/* a document lacking the field does not meet the condition */
+		assertFalse(filter.matches(new HashMap<String, Object>(), null));
+		assertFalse(filter.matches(null, null));
+
+		filter = CubhuniMetaFilter.parse("sura in 1..3, 7", plan);
+		assertTrue(filter.matches(meta(3L, "x"), null));
+		assertTrue(filter.matches(meta(7L, "x"), null));
+		assertFalse(filter.matches(meta(5L, "x"), null));
+		assertFalse(CubhuniMetaFilter.parse("sura != 7", plan).matches(meta(7L, "x"), null));
+	}
+
+	@Test
+	public void test_text() {
+		CubhuniMetaFilter filter = CubhuniMetaFilter.parse("madhab_name in hanafi, maliki", plan);
+		assertTrue(filter.matches(meta(1L, "maliki"), null));
+		assertFalse(filter.matches(meta(1L, "shafii"), null));
+
+		filter = CubhuniMetaFilter.parse(plan.sourceTypeKey + " = " + plan.commentary, plan);
+		assertTrue(filter.matches(meta(1L, "x"), plan.commentary));
+		assertFalse(filter.matches(meta(1L, "x"), plan.original));
+		assertFalse(filter.matches(meta(1L, "x"), null));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void test_unknownField() {
+		CubhuniMetaFilter.parse("colour = red", plan);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void test_textComparedAsNumber() {
+		CubhuniMetaFilter.parse("madhab_name < 3", plan);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void test_numberComparedWithText() {
+		CubhuniMetaFilter.parse("sura = al-baqara", plan);
+	}
+}
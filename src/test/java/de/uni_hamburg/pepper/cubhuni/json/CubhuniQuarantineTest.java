@@ -0,0 +1,73 @@
+package de.uni_hamburg.pepper.cubhuni.json;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import org.junit.Test;
+
+/**
+ * Tests that the {@link CubhuniQuarantine} keeps failed documents out of later
+ * runs until they, the configuration or the module change.
+ *
+ * @author Alicia Gonzalez
+ */
+public class CubhuniQuarantineTest {
+
+	private static File write(File file, String content) throws IOException {
+		FileOutputStream out = new FileOutputStream(file);
+		try {
+			out.write(content.getBytes("UTF-8"));
+		} finally {
+			out.close();
+		}
+		return file;
+	}
+
+	@Test
+	public void test_quarantine() throws IOException {
+		File dir = Files.createTempDirectory("cubhuni").toFile();
+		File input = write(new File(dir, "doc.json"), "{\"meta\": ");
+		CubhuniQuarantine quarantine = new CubhuniQuarantine(new File(dir, "quarantine"), "config", "1.0.0");
+		assertFalse(quarantine.isQuarantined(input));
+
+		quarantine.quarantine(input, "read", new IOException("Unexpected end of input"));
+		assertTrue(quarantine.isQuarantined(input));
+		assertEquals(1, new File(dir, "quarantine").list().length);
+
+		/* a new quarantine over the same directory resumes the records */
+		assertTrue(new CubhuniQuarantine(new File(dir, "quarantine"), "config", "1.0.0").isQuarantined(input));
+
+		quarantine.release(input);
+		assertFalse(quarantine.isQuarantined(input));
+		assertEquals(0, new File(dir, "quarantine").list().length);
+	}
+
+	@Test
+	public void test_changedInput() throws IOException {
+		File dir = Files.createTempDirectory("cubhuni").toFile();
+		File input = write(new File(dir, "doc.json"), "{\"meta\": ");
+		CubhuniQuarantine quarantine = new CubhuniQuarantine(new File(dir, "quarantine"), "config", "1.0.0");
+		quarantine.quarantine(input, "build", new IllegalStateException());
+
+		write(input, "{\"meta\": {}, \"text\": \"\"}");
+		assertFalse(quarantine.isQuarantined(input));
+	}
+
+	@Test
+	public void test_changedConfiguration() throws IOException {
+		File dir = Files.createTempDirectory("cubhuni").toFile();
+		File input = write(new File(dir, "doc.json"), "{\"meta\": ");
+		new CubhuniQuarantine(new File(dir, "quarantine"), "config", "1.0.0").quarantine(input, "build",
+				new IllegalStateException());
+
+		assertFalse(new CubhuniQuarantine(new File(dir, "quarantine"), "fixed config", "1.0.0").isQuarantined(input));
+		assertFalse(new CubhuniQuarantine(new File(dir, "quarantine"), "config", "1.0.1").isQuarantined(input));
+		assertTrue(new CubhuniQuarantine(new File(dir, "quarantine"), "config", "1.0.0").isQuarantined(input));
+	}
+}
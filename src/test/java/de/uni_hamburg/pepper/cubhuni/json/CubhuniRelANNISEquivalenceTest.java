@@ -0,0 +1,241 @@
+package de.uni_hamburg.pepper.cubhuni.json;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import org.corpus_tools.pepper.common.CorpusDesc;
+import org.corpus_tools.pepper.testFramework.PepperExporterTest;
+import org.corpus_tools.pepper.testFramework.PepperImporterTest;
+import org.corpus_tools.peppermodules.annis.ANNISExporter;
+import org.corpus_tools.salt.common.SaltProject;
+import org.eclipse.emf.common.util.URI;
+import org.json.simple.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests that the {@link CubhuniRelANNISConverter} writes the same relANNIS
+ * files as the {@link CubhuniJSONImporter} followed by the ANNIS exporter, on
+ * a corpus of a sub-corpus with metadata, token annotations and spans of
+ * several groups, some of them over the same tokens.
+ *
+ * @author Alicia Gonzalez
+ */
+public class CubhuniRelANNISEquivalenceTest extends PepperImporterTest {
+
+	/* relANNIS files both routes write */
+	private static final String[] TABLES = { "corpus", "corpus_annotation", "text", "node", "node_annotation",
+			"component", "rank", "edge_annotation" };
+
+	private CubhuniMappingPlan plan;
+	private File config;
+	private File corpus;
+
+	/* runs the ANNIS exporter over a Salt project */
+	public static final class Export extends PepperExporterTest {
+		public void export(SaltProject project, File outputDir) {
+			ANNISExporter exporter = new ANNISExporter();
+			exporter.setSaltProject(project);
+			exporter.setCorpusDesc(new CorpusDesc().setCorpusPath(URI.createFileURI(outputDir.getAbsolutePath())));
+			setFixture(exporter);
+			start();
+		}
+	}
+
+	@Before
+	public void setUp() throws IOException {
+		config = new File("config.properties");
+		Properties props = new Properties();
+		InputStream in = new FileInputStream(config);
+		try {
+			props.load(in);
+		} finally {
+			in.close();
+		}
+		plan = CubhuniMappingPlan.compile(props);
+
+		corpus = new File(Files.createTempDirectory("equivalence").toFile(), "corpus");
+		File sub = new File(corpus, "sub");
+		assertTrue(sub.mkdirs());
+		write(new File(sub, "sub" + plan.metaFileSuffix), "{\"title\": \"sub corpus\", \"volumes\": 2}");
+		write(new File(corpus, "first.json"), document("بسم الله الرحمن الرحيم", 1));
+		write(new File(sub, "second.json"), document("الحمد لله رب العالمين", 2));
+	}
+
+	private static void write(File file, String content) throws IOException {
+		Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+	}
+
+	/* a document of the words of the text, a person over the first two, a motive over the same two and a section over all */
+	private String document(String text, long id) {
+		StringBuilder json = new StringBuilder("{");
+		JSONObject meta = new JSONObject();
+		for (CubhuniMappingPlan.MetaField field : plan.getMetaFields()) {
+			meta.put(field.key, (field.type == CubhuniMappingPlan.ValueType.LONG) ? (Object) id : field.key + " " + id);
+		}
+		json.append("\"" + plan.metaKey + "\": " + meta.toJSONString());
+		json.append(", \"" + plan.textKey + "\": \"" + JSONObject.escape(text) + "\"");
+		json.append(", \"" + plan.tokensKey + "\": [");
+		String[] words = text.split(" ");
+		int ini = 0;
+		for (int i = 0; i < words.length; i++) {
+			json.append((i > 0 ? ", " : "") + "{\"" + plan.tokKey + "\": \"" + JSONObject.escape(words[i]) + "\", \""
+					+ plan.tokIniKey + "\": " + ini + ", \"" + plan.tokEndKey + "\": " + (ini + words[i].length()) + "}");
+			ini += words[i].length() + 1;
+		}
+		json.append("]");
+		json.append(", \"persons\": [" + span("p" + id, 0, 1) + "]");
+		json.append(", \"motives\": [" + span("m" + id, 0, 1) + "]");
+		json.append(", \"sections\": [" + span("s" + id, 0, words.length - 1) + "]");
+		return json.append("}").toString();
+	}
+
+	private String span(String val, int ini, int end) {
+		return "{\"" + plan.annValKey + "\": \"" + val + "\", \"" + plan.annIniKey + "\": " + ini + ", \""
+				+ plan.annEndKey + "\": " + end + "}";
+	}
+
+	/* rows of a relANNIS file split into their columns */
+	private static List<String[]> read(File dir, String table) throws IOException {
+		List<String[]> rows = new ArrayList<String[]>();
+		for (String line : Files.readAllLines(new File(dir, table + ".annis").toPath(), StandardCharsets.UTF_8)) {
+			rows.add(line.split("\t", -1));
+		}
+		return rows;
+	}
+
+	private static String join(String... columns) {
+		StringBuilder row = new StringBuilder();
+		for (int i = 0; i < columns.length; i++) {
+			row.append(i > 0 ? "\t" : "").append(columns[i]);
+		}
+		return row.toString();
+	}
+
+	/*
+	 * the relANNIS files of a directory, table by table, with the ids and the
+	 * pre and post orders each route numbers on its own replaced by what they
+	 * refer to: a corpus by its name and the name of its parent, a text and a
+	 * node by their names within their document, a component by its type and
+	 * the node of its root, a rank by its node and component; the rows are
+	 * sorted, the order of the rows is not part of the format
+	 */
+	private static Map<String, List<String>> normalize(File dir) throws IOException {
+		Map<String, List<String>> tables = new HashMap<String, List<String>>();
+		for (String table : TABLES) {
+			tables.put(table, new ArrayList<String>());
+		}
+
+		/* corpus: id, name, type, version, pre, post, top_level */
+		List<String[]> corpora = read(dir, "corpus");
+		Map<String, String> corpusNames = new HashMap<String, String>();
+		for (String[] c : corpora) {
+			corpusNames.put(c[0], c[1]);
+		}
+		for (String[] c : corpora) {
+			String parent = "NULL";
+			long parentPre = -1;
+			for (String[] o : corpora) {
+				long pre = Long.parseLong(o[4]);
+				if (pre < Long.parseLong(c[4]) && Long.parseLong(o[5]) > Long.parseLong(c[5]) && pre > parentPre) {
+					parent = o[1];
+					parentPre = pre;
+				}
+			}
+			tables.get("corpus").add(join(c[1], c[2], c[3], c[6], parent));
+		}
+		/* corpus_annotation: corpus_ref, namespace, name, value */
+		for (String[] a : read(dir, "corpus_annotation")) {
+			tables.get("corpus_annotation").add(join(corpusNames.get(a[0]), a[1], a[2], a[3]));
+		}
+		/* text: corpus_ref, id, name, text */
+		Map<String, String> textNames = new HashMap<String, String>();
+		for (String[] t : read(dir, "text")) {
+			textNames.put(t[0] + "/" + t[1], corpusNames.get(t[0]) + "/" + t[2]);
+			tables.get("text").add(join(corpusNames.get(t[0]), t[2], t[3]));
+		}
+		/*
+		 * node: id, text_ref, corpus_ref, layer, name, left, right, token_index,
+		 * left_token, right_token, seg_index, seg_name, span, root
+		 */
+		Map<String, String> nodeNames = new HashMap<String, String>();
+		for (String[] n : read(dir, "node")) {
+			String name = corpusNames.get(n[2]) + "/" + n[4];
+			nodeNames.put(n[0], name);
+			String[] row = n.clone();
+			row[0] = name;
+			row[1] = textNames.get(n[2] + "/" + n[1]);
+			row[2] = corpusNames.get(n[2]);
+			tables.get("node").add(join(row));
+		}
+		/* node_annotation: node_ref, namespace, name, value */
+		for (String[] a : read(dir, "node_annotation")) {
+			tables.get("node_annotation").add(join(nodeNames.get(a[0]), a[1], a[2], a[3]));
+		}
+		/* rank: id, pre, post, node_ref, component_ref, parent, level */
+		List<String[]> ranks = read(dir, "rank");
+		Map<String, String> rankNodes = new HashMap<String, String>();
+		Map<String, String> componentRoots = new HashMap<String, String>();
+		for (String[] r : ranks) {
+			rankNodes.put(r[0], nodeNames.get(r[3]));
+			if ("NULL".equals(r[5])) {
+				componentRoots.put(r[4], nodeNames.get(r[3]));
+			}
+		}
+		/* component: id, type, layer, name */
+		Map<String, String> componentNames = new HashMap<String, String>();
+		for (String[] c : read(dir, "component")) {
+			String name = join(c[1], c[2], c[3], componentRoots.get(c[0]));
+			componentNames.put(c[0], name);
+			tables.get("component").add(name);
+		}
+		Map<String, String> rankNames = new HashMap<String, String>();
+		for (String[] r : ranks) {
+			String parent = "NULL".equals(r[5]) ? "NULL" : rankNodes.get(r[5]);
+			rankNames.put(r[0], join(rankNodes.get(r[0]), componentNames.get(r[4])));
+			tables.get("rank").add(join(rankNodes.get(r[0]), componentNames.get(r[4]), parent, r[6]));
+		}
+		/* edge_annotation: rank_ref, namespace, name, value */
+		for (String[] a : read(dir, "edge_annotation")) {
+			tables.get("edge_annotation").add(join(rankNames.get(a[0]), a[1], a[2], a[3]));
+		}
+
+		for (List<String> rows : tables.values()) {
+			Collections.sort(rows);
+		}
+		return tables;
+	}
+
+	@Test
+	public void test_sameAsExporter() throws IOException {
+		File direct = Files.createTempDirectory("direct").toFile();
+		new CubhuniRelANNISConverter(plan).convert(corpus, direct);
+
+		setFixture(new CubhuniJSONImporter());
+		getFixture().getCorpusDesc().setCorpusPath(URI.createFileURI(corpus.getAbsolutePath()));
+		getFixture().getProperties().setPropertyValue(CubhuniJSONImporterProperties.PROP_MAPPING_CONFIG,
+				config.getAbsolutePath());
+		start();
+		File exported = Files.createTempDirectory("exported").toFile();
+		new Export().export(getFixture().getSaltProject(), exported);
+
+		Map<String, List<String>> expected = normalize(exported);
+		Map<String, List<String>> actual = normalize(direct);
+		for (String table : TABLES) {
+			assertEquals(table, expected.get(table), actual.get(table));
+		}
+	}
+}
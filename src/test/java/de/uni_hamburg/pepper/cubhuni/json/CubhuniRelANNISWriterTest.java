@@ -0,0 +1,151 @@
+package de.uni_hamburg.pepper.cubhuni.json;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests that the {@link CubhuniRelANNISWriter} writes the corpus tree,
+ * tokens, spans and their coverage components as relANNIS rows.
+ *
+ * @author Alicia Gonzalez
+ */
+public class CubhuniRelANNISWriterTest {
+
+	private CubhuniMappingPlan plan;
+	private File dir;
+
+	@Before
+	public void setUp() throws IOException {
+		Properties props = new Properties();
+		InputStream in = new FileInputStream("config.properties");
+		try {
+			props.load(in);
+		} finally {
+			in.close();
+		}
+		plan = CubhuniMappingPlan.compile(props);
+		dir = Files.createTempDirectory("relannis").toFile();
+	}
+
+	private List<String> rows(String table) throws IOException {
+		return Files.readAllLines(new File(dir, table + ".annis").toPath(), StandardCharsets.UTF_8);
+	}
+
+	/* document "aa bb cc" with a person over the first two tokens and a motive over the same range */
+	private CubhuniDocumentBuilder document() {
+		CubhuniDocumentBuilder builder = new CubhuniDocumentBuilder(plan);
+		Map<String, Object> meta = new HashMap<String, Object>();
+		meta.put(plan.getMetaFields().get(0).key, "first\tline\nsecond");
+		builder.meta(meta);
+		builder.text("aa bb cc");
+		builder.token("aa", 0, 2);
+		builder.token("bb", 3, 5);
+		builder.token("cc", 6, 8);
+		builder.span("persons", "p1", 0, 1);
+		builder.span("motives", "m1", 0, 1);
+		builder.span("persons", "p2", 0, 1);
+		builder.span("persons", "invalid", 2, 5);
+		return builder;
+	}
+
+	@Test
+	public void test_document() throws IOException {
+		CubhuniRelANNISWriter writer = new CubhuniRelANNISWriter(dir, plan);
+		int corpus = writer.corpus("corpus", -1, Collections.<String, Object> singletonMap("name", "test"));
+		writer.document("doc", corpus, document(), Collections.<String, Object> singletonMap("source_type", "original"));
+		writer.close();
+
+		assertEquals(1, writer.getSkippedSpans());
+		assertEquals(Collections.singletonList("3.3"),
+				Files.readAllLines(new File(dir, "annis.version").toPath(), StandardCharsets.UTF_8));
+
+		List<String> corpora = rows("corpus");
+		assertTrue(corpora.contains("0\tcorpus\tCORPUS\tNULL\t0\t3\tTRUE"));
+		assertTrue(corpora.contains("1\tdoc\tDOCUMENT\tNULL\t1\t2\tFALSE"));
+
+		List<String> meta = rows("corpus_annotation");
+		assertEquals("0\tNULL\tname\ttest", meta.get(0));
+		assertEquals("1\tNULL\t" + plan.getMetaFields().get(0).annotationName + "\tfirst\\tline\\nsecond", meta.get(1));
+		assertEquals("1\tNULL\tsource_type\toriginal", meta.get(2));
+
+		assertEquals(Collections.singletonList("1\t0\tsText1\taa bb cc"), rows("text"));
+
+		/* the third token is not covered by a span, so it is a root */
+		List<String> nodes = rows("node");
+		assertEquals(5, nodes.size());
+		assertEquals("0\t0\t1\tdefault_ns\tsTok1\t0\t2\t0\t0\t0\tNULL\tNULL\taa\tFALSE", nodes.get(0));
+		assertEquals("2\t0\t1\tdefault_ns\tsTok3\t6\t8\t2\t2\t2\tNULL\tNULL\tcc\tTRUE", nodes.get(2));
+		assertEquals("3\t0\t1\tdefault_ns\tsSpan1\t0\t5\tNULL\t0\t1\tNULL\tNULL\tNULL\tTRUE", nodes.get(3));
+		assertEquals("4\t0\t1\tdefault_ns\tsSpan2\t0\t5\tNULL\t0\t1\tNULL\tNULL\tNULL\tTRUE", nodes.get(4));
+
+		/* the motive shares the span of the first person, the second person needs a span of its own */
+		List<String> annotations = rows("node_annotation");
+		assertEquals("0\tNULL\t" + plan.tokNormName + "\taa", annotations.get(0));
+		String person = plan.getGroups().get("persons");
+		String motive = plan.getGroups().get("motives");
+		assertEquals("3\tNULL\t" + person + "\tp1", annotations.get(3));
+		assertEquals("3\tNULL\t" + motive + "\tm1", annotations.get(4));
+		assertEquals("4\tNULL\t" + person + "\tp2", annotations.get(5));
+		assertEquals(6, annotations.size());
+
+		assertEquals(2, rows("component").size());
+		assertEquals("0\tc\tdefault_ns\tNULL", rows("component").get(0));
+		List<String> ranks = rows("rank");
+		assertEquals(6, ranks.size());
+		/* id, pre, post, node, component, parent rank and level */
+		assertEquals("1\t1\t2\t0\t0\t0\t1", ranks.get(0));
+		assertEquals("2\t3\t4\t1\t0\t0\t1", ranks.get(1));
+		assertEquals("0\t0\t5\t3\t0\tNULL\t0", ranks.get(2));
+		assertTrue(rows("edge_annotation").isEmpty());
+	}
+
+	@Test
+	public void test_fragment() throws IOException {
+		CubhuniRelANNISWriter writer = new CubhuniRelANNISWriter(dir, plan);
+		int corpus = writer.corpus("corpus", -1, Collections.<String, Object> singletonMap("name", "test"));
+		writer.document("doc", corpus, document(), Collections.<String, Object> singletonMap("source_type", "original"));
+		writer.close();
+
+		/* the rows of the document written into a fragment and appended are the same */
+		File other = Files.createTempDirectory("relannis").toFile();
+		CubhuniRelANNISWriter.Ids ids = new CubhuniRelANNISWriter.Ids();
+		File fragment = new File(other, "fragment");
+		CubhuniRelANNISWriter appended = new CubhuniRelANNISWriter(new File(other, "corpus"), plan, ids);
+		corpus = appended.corpus("corpus", -1, Collections.<String, Object> singletonMap("name", "test"));
+		CubhuniRelANNISWriter part = CubhuniRelANNISWriter.fragment(fragment, plan, ids);
+		int id = part.document("doc", corpus, document(), Collections.<String, Object> singletonMap("source_type", "original"));
+		part.close();
+		assertFalse(new File(fragment, "corpus.annis").exists());
+		appended.document(id, "doc", corpus, fragment);
+		appended.close();
+		for (String table : new String[] { "corpus", "corpus_annotation", "text", "node", "node_annotation",
+				"component", "rank" }) {
+			assertEquals(rows(table), Files.readAllLines(new File(other, "corpus/" + table + ".annis").toPath(),
+					StandardCharsets.UTF_8));
+		}
+	}
+
+	@Test
+	public void test_escape() throws IOException {
+		StringWriter out = new StringWriter();
+		CubhuniRelANNISWriter.escape(out, "a\\b\tc\r\nd");
+		assertEquals("a\\\\b\\tc\\r\\nd", out.toString());
+	}
+}
@@ -0,0 +1,200 @@
+package de.uni_hamburg.pepper.cubhuni.json;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Properties;
+
+import org.eclipse.emf.common.util.URI;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests that a {@link CubhuniScheduleIndex} estimates documents of more tokens
+ * and spans to take longer, that it keeps the measured times between runs and
+ * that it counts the documents started out of order.
+ *
+ * @author Alicia Gonzalez
+ */
+public class CubhuniScheduleIndexTest {
+
+	private CubhuniMappingPlan plan;
+	private File index;
+
+	@Before
+	public void setUp() throws IOException {
+		Properties props = new Properties();
+		InputStream in = new FileInputStream("config.properties");
+		try {
+			props.load(in);
+		} finally {
+			in.close();
+		}
+		plan = CubhuniMappingPlan.compile(props);
+
+		index = File.createTempFile("cubhuni", ".schedule");
+		index.delete();
+		index.deleteOnExit();
+	}
+
+	/*
+	 * a document of the given tokens and spans, padded with spaces to the
+	 * given size; its text and meta hold the keys as values, escaped and in
+	 * strings, which are not counted
+	 */
+	private String document(int tokens, int spans, int bytes) {
+		StringBuilder json = new StringBuilder("{\"" + plan.metaKey + "\": {\"title\": \"" + plan.tokKey + "\"}, \""
+				+ plan.textKey + "\": \"\\\"" + plan.tokKey + "\\\": \\\"" + plan.annValKey + "\\\":\", \""
+				+ plan.tokensKey + "\": [");
+		for (int i = 0; i < tokens; i++) {
+			json.append((i > 0) ? ", " : "").append("{\"" + plan.tokKey + "\" : \"w\", \"" + plan.tokIniKey + "\": "
+					+ (2 * i) + ", \"" + plan.tokEndKey + "\": " + (2 * i + 1) + "}");
+		}
+		json.append("], \"persons\": [");
+		for (int i = 0; i < spans; i++) {
+			json.append((i > 0) ? ", " : "").append("{\"" + plan.annValKey + "\":\n\"p\", \"" + plan.annIniKey
+					+ "\": " + i + ", \"" + plan.annEndKey + "\": " + i + "}");
+		}
+		json.append("]}");
+		while (json.length() < bytes) {
+			json.append(' ');
+		}
+		return json.toString();
+	}
+
+	private File write(String content) throws IOException {
+		File file = File.createTempFile("cubhuni", ".json");
+		file.deleteOnExit();
+		write(file, content);
+		return file;
+	}
+
+	private static void write(File file, String content) throws IOException {
+		OutputStream out = new FileOutputStream(file);
+		try {
+			out.write(content.getBytes(StandardCharsets.UTF_8));
+		} finally {
+			out.close();
+		}
+	}
+
+	private static URI uri(File file) {
+		return URI.createFileURI(file.getAbsolutePath());
+	}
+
+	@Test
+	public void test_count() throws IOException {
+		CubhuniScheduleIndex schedule = new CubhuniScheduleIndex(index, plan);
+		assertArrayEquals(new int[] { 30, 7 }, schedule.count(uri(write(document(30, 7, 0)))));
+		assertArrayEquals(new int[] { 0, 0 }, schedule.count(uri(write(document(0, 0, 0)))));
+		/* an entry of an archive cannot be read before it is mapped */
+		assertNull(schedule.count(uri(write(document(3, 1, 0))).appendFragment("a.json")));
+	}
+
+	@Test
+	public void test_largerFirst() throws IOException {
+		CubhuniScheduleIndex schedule = new CubhuniScheduleIndex(index, plan);
+		long small = schedule.estimate(uri(write(document(10, 0, 0))), -1);
+		long large = schedule.estimate(uri(write(document(1000, 0, 0))), -1);
+		assertTrue(large > small);
+
+		/* of two documents of the same size, the one with more spans takes longer */
+		int bytes = document(100, 100, 0).length();
+		long plain = schedule.estimate(uri(write(document(100, 0, bytes))), -1);
+		long annotated = schedule.estimate(uri(write(document(100, 100, bytes))), -1);
+		assertTrue(annotated > plain);
+
+		/* a shard is estimated from its tokens */
+		URI shard = uri(write(document(1, 0, 0))).appendFragment("shard0");
+		assertTrue(schedule.estimate(shard, 1000) < schedule.estimate(shard, 100000));
+	}
+
+	@Test
+	public void test_measuredKept() throws IOException {
+		File file = write(document(100, 0, 0));
+		CubhuniScheduleIndex schedule = new CubhuniScheduleIndex(index, plan);
+		schedule.measured(uri(file), 100, 0, 5000000);
+		schedule.save();
+
+		assertEquals(5000000, new CubhuniScheduleIndex(index, plan).estimate(uri(file), -1));
+	}
+
+	@Test
+	public void test_changedScaled() throws IOException {
+		File file = write(document(100, 0, 0));
+		CubhuniScheduleIndex schedule = new CubhuniScheduleIndex(index, plan);
+		schedule.measured(uri(file), 100, 0, 5000000);
+		schedule.save();
+
+		/* scaled by the size, without a scan */
+		long bytes = file.length();
+		write(file, document(150, 50, 0));
+		assertEquals((long) (5000000.0 * file.length() / bytes), new CubhuniScheduleIndex(index, plan).estimate(uri(file), -1));
+	}
+
+	@Test
+	public void test_sizeEstimated() throws IOException {
+		CubhuniScheduleIndex schedule = new CubhuniScheduleIndex(index, plan);
+		assertTrue(schedule.isScanning());
+		schedule.measured(uri(write(document(100, 0, 0))), 100, 0, 5000000);
+		schedule.save();
+
+		/* once the index has measurements, new documents are estimated from their size only */
+		schedule = new CubhuniScheduleIndex(index, plan);
+		assertFalse(schedule.isScanning());
+		int bytes = document(1000, 0, 0).length();
+		assertEquals(schedule.estimate(uri(write(document(1000, 0, 0))), -1),
+				schedule.estimate(uri(write(document(10, 0, bytes))), -1));
+	}
+
+	@Test
+	public void test_unseenDropped() throws IOException {
+		File kept = write(document(100, 0, 0));
+		File dropped = write(document(100, 0, 0));
+		CubhuniScheduleIndex schedule = new CubhuniScheduleIndex(index, plan);
+		schedule.measured(uri(kept), 100, 0, 5000000);
+		schedule.measured(uri(dropped), 100, 0, 7000000);
+		schedule.save();
+
+		/* the next run does not have the second document */
+		schedule = new CubhuniScheduleIndex(index, plan);
+		schedule.estimate(uri(kept), -1);
+		schedule.save();
+
+		schedule = new CubhuniScheduleIndex(index, plan);
+		assertEquals(5000000, schedule.estimate(uri(kept), -1));
+		/* estimated as any unmeasured document of its tokens */
+		assertEquals(schedule.estimate(uri(write(document(100, 0, 0))), -1), schedule.estimate(uri(dropped), -1));
+	}
+
+	@Test
+	public void test_outOfOrder() throws IOException {
+		CubhuniScheduleIndex schedule = new CubhuniScheduleIndex(index, plan);
+		URI first = uri(write(document(3, 0, 0)));
+		URI second = uri(write(document(2, 0, 0)));
+		URI third = uri(write(document(1, 0, 0)));
+		schedule.order(Arrays.asList(first, second, third));
+		schedule.started(first);
+		schedule.started(second);
+		assertEquals(0, schedule.getOutOfOrder());
+		schedule.started(uri(write(document(1, 0, 0))));
+		schedule.started(third);
+		assertEquals(0, schedule.getOutOfOrder());
+
+		schedule.order(Arrays.asList(first, second, third));
+		schedule.started(third);
+		schedule.started(first);
+		assertEquals(1, schedule.getOutOfOrder());
+	}
+}
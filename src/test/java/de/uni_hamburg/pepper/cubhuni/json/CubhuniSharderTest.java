@@ -0,0 +1,182 @@
+package de.uni_hamburg.pepper.cubhuni.json;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+import org.eclipse.emf.common.util.URI;
+import org.json.simple.parser.ParseException;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests that the {@link CubhuniSharder} splits a document along its sections,
+ * that each shard keeps its part of the text, tokens and spans, and that a
+ * registered document is read again only when its first shard is taken.
+ *
+ * @author Alicia Gonzalez
+ */
+public class CubhuniSharderTest {
+
+	private CubhuniMappingPlan plan;
+
+	@Before
+	public void setUp() throws IOException {
+		Properties props = new Properties();
+		InputStream in = new FileInputStream("config.properties");
+		try {
+			props.load(in);
+		} finally {
+			in.close();
+		}
+		plan = CubhuniMappingPlan.compile(props);
+	}
+
+	/* document of the given number of two letter tokens, with a section every sectionLength tokens */
+	private CubhuniDocumentBuilder document(int tokens, int sectionLength) {
+		CubhuniDocumentBuilder builder = new CubhuniDocumentBuilder(plan);
+		StringBuilder text = new StringBuilder();
+		for (int i = 0; i < tokens; i++) {
+			text.append(String.format("%02d", i % 100)).append(' ');
+		}
+		builder.text(text.toString());
+		for (int i = 0; i < tokens; i++) {
+			builder.token(text.substring(3 * i, 3 * i + 2), 3 * i, 3 * i + 2);
+		}
+		for (int i = 0; i < tokens; i += sectionLength) {
+			builder.span("sections", "s" + i, i, Math.min(tokens, i + sectionLength) - 1);
+		}
+		return builder;
+	}
+
+	@Test
+	public void test_cuts() {
+		CubhuniSharder sharder = new CubhuniSharder(plan, 25, Arrays.asList("sections", "pages"));
+		assertEquals(Arrays.asList(0, 20, 40, 60, 80), sharder.cuts(document(100, 10)));
+		assertEquals(Arrays.asList(0), sharder.cuts(document(25, 10)));
+
+		/* a section longer than a shard is a shard of its own */
+		CubhuniDocumentBuilder builder = document(120, 10);
+		builder.span("pages", "p", 0, 119);
+		assertEquals(Arrays.asList(0, 20, 40, 60, 80, 100), sharder.cuts(builder));
+		assertEquals(Arrays.asList(0), new CubhuniSharder(plan, 25, Arrays.asList("pages")).cuts(builder));
+		assertEquals(Arrays.asList(0), new CubhuniSharder(plan, 25, Arrays.asList("persons")).cuts(builder));
+	}
+
+	@Test
+	public void test_split() {
+		CubhuniSharder sharder = new CubhuniSharder(plan, 25, Arrays.asList("sections"));
+		CubhuniDocumentBuilder builder = document(50, 10);
+		builder.span("persons", "crossing", 18, 22);
+		builder.span("persons", "invalid", 40, 70);
+
+		List<CubhuniDocumentBuilder> shards = sharder.split(builder);
+		assertEquals(3, shards.size());
+
+		CubhuniDocumentBuilder second = shards.get(1);
+		assertEquals(20, second.getTokenCount());
+		assertEquals("20 21 22 23 24 25 26 27 28 29 30 31 32 33 34 35 36 37 38 39 ", second.getText());
+		assertEquals("21", second.getToken(1));
+		assertEquals(3, second.getTokenIni(1));
+		assertEquals(5, second.getTokenEnd(1));
+		assertEquals(3, second.getSpanCount());
+		assertArrayEquals(new String[] { "persons", "crossing" }, second.getSpan(2));
+		assertEquals(0, second.getSpanOffsets(2)[0]);
+		assertEquals(2, second.getSpanOffsets(2)[1]);
+
+		/* the invalid span is left to the first shard */
+		CubhuniDocumentBuilder first = shards.get(0);
+		assertEquals(4, first.getSpanCount());
+		assertArrayEquals(new String[] { "persons", "invalid" }, first.getSpan(3));
+		assertEquals(1, shards.get(2).getSpanCount());
+
+		CubhuniDocumentBuilder small = document(20, 10);
+		assertSame(small, sharder.split(small).get(0));
+	}
+
+	@Test
+	public void test_takeLazily() throws IOException, ParseException {
+		CubhuniSharder sharder = new CubhuniSharder(plan, 25, Arrays.asList("sections"));
+		File file = File.createTempFile("cubhuni", ".json");
+		file.deleteOnExit();
+		OutputStream out = new FileOutputStream(file);
+		try {
+			out.write(new byte[1000]);
+		} finally {
+			out.close();
+		}
+		URI resource = URI.createFileURI(file.getAbsolutePath());
+		assertArrayEquals(new int[] { 20, 20, 10 }, sharder.register(resource, document(50, 10)));
+		assertNull(sharder.register(URI.createFileURI("/corpus/small.json"), document(20, 10)));
+
+		/* the document is read again for the first shard taken, not before */
+		final int[] reads = { 0 };
+		CubhuniJSONReader reader = new CubhuniJSONReader(plan, false) {
+			@Override
+			public CubhuniDocumentBuilder read(URI resource) {
+				reads[0]++;
+				return document(50, 10);
+			}
+		};
+		URI second = CubhuniSharder.shardOf(resource, 1);
+		assertTrue(sharder.isShard(second));
+		assertFalse(sharder.isShard(resource));
+		assertTrue(sharder.estimateRead(second, false) > 0);
+		assertEquals(0, reads[0]);
+
+		assertEquals("20", sharder.take(second, reader).getToken(0));
+		assertEquals(1, reads[0]);
+		assertEquals(0, sharder.estimateRead(CubhuniSharder.shardOf(resource, 0), false));
+		assertEquals(20, sharder.take(CubhuniSharder.shardOf(resource, 0), reader).getTokenCount());
+		assertEquals(10, sharder.take(CubhuniSharder.shardOf(resource, 2), reader).getTokenCount());
+		assertEquals(1, reads[0]);
+
+		/* the shards are released once all are taken, a shard taken again is read again */
+		assertTrue(sharder.isShard(second));
+		assertTrue(sharder.estimateRead(second, false) > 0);
+		assertEquals("20", sharder.take(second, reader).getToken(0));
+		assertEquals(2, reads[0]);
+	}
+
+	@Test
+	public void test_takeTwice() throws IOException, ParseException {
+		CubhuniSharder sharder = new CubhuniSharder(plan, 25, Arrays.asList("sections"));
+		URI resource = URI.createFileURI("/corpus/large.json");
+		assertArrayEquals(new int[] { 20, 20, 10 }, sharder.register(resource, document(50, 10)));
+		final int[] reads = { 0 };
+		CubhuniJSONReader reader = new CubhuniJSONReader(plan, false) {
+			@Override
+			public CubhuniDocumentBuilder read(URI resource) {
+				reads[0]++;
+				return document(50, 10);
+			}
+		};
+
+		/* a shard mapped again after a failure, while the others are still staged */
+		URI first = CubhuniSharder.shardOf(resource, 0);
+		assertEquals(20, sharder.take(first, reader).getTokenCount());
+		assertEquals(1, reads[0]);
+		CubhuniDocumentBuilder again = sharder.take(first, reader);
+		assertEquals(20, again.getTokenCount());
+		assertEquals("00", again.getToken(0));
+		assertEquals(2, reads[0]);
+
+		/* the staged shards are left as they were */
+		assertEquals("20", sharder.take(CubhuniSharder.shardOf(resource, 1), reader).getToken(0));
+		assertEquals("40", sharder.take(CubhuniSharder.shardOf(resource, 2), reader).getToken(0));
+		assertEquals(2, reads[0]);
+	}
+}
@@ -0,0 +1,128 @@
+package de.uni_hamburg.pepper.cubhuni.json;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests that a {@link CubhuniSidecar} stages the same document as the one it
+ * was written from, and that it is not loaded once stale.
+ *
+ * @author Alicia Gonzalez
+ */
+public class CubhuniSidecarTest {
+
+	private Properties props;
+	private CubhuniMappingPlan plan;
+	private File source;
+
+	@Before
+	public void setUp() throws IOException {
+		props = new Properties();
+		InputStream in = new FileInputStream("config.properties");
+		try {
+			props.load(in);
+		} finally {
+			in.close();
+		}
+		props.setProperty("tok_annotations", "tok_pos,tok_lemma");
+		plan = CubhuniMappingPlan.compile(props);
+
+		source = File.createTempFile("cubhuni", ".json");
+		source.deleteOnExit();
+		CubhuniSidecar.sidecarOf(source).deleteOnExit();
+		write(source, "{\"text\": \"بسم الله\"}");
+	}
+
+	private static void write(File file, String content) throws IOException {
+		OutputStream out = new FileOutputStream(file);
+		try {
+			out.write(content.getBytes(StandardCharsets.UTF_8));
+		} finally {
+			out.close();
+		}
+	}
+
+	private CubhuniDocumentBuilder stage() {
+		CubhuniDocumentBuilder builder = new CubhuniDocumentBuilder(plan);
+		Map<String, Object> meta = new LinkedHashMap<String, Object>();
+		meta.put("sura", 2L);
+		meta.put("title", "البقرة");
+		meta.put("date", null);
+		meta.put("score", 0.5);
+		builder.meta(meta);
+		builder.text("بسم الله");
+		builder.token("بسم", 0, 3, new String[] { "NOUN", "اسم" });
+		builder.token("الله", 4, 8, new String[] { "PROPN", null });
+		builder.token(null, -1, -1);
+		builder.span("persons", "الله", 1, 1);
+		builder.span("sections", null, 0, 2);
+		return builder;
+	}
+
+	@Test
+	public void test_roundTrip() throws IOException {
+		CubhuniDocumentBuilder expected = stage();
+		new CubhuniSidecar(plan).store(source, expected);
+		CubhuniDocumentBuilder actual = new CubhuniSidecar(plan).load(source);
+
+		assertNotNull(actual);
+		assertEquals(expected.getMeta(), actual.getMeta());
+		assertEquals(expected.getText(), actual.getText());
+		assertEquals(expected.getTokenCount(), actual.getTokenCount());
+		for (int i = 0; i < expected.getTokenCount(); i++) {
+			assertEquals(expected.getToken(i), actual.getToken(i));
+			assertEquals(expected.getTokenIni(i), actual.getTokenIni(i));
+			assertEquals(expected.getTokenEnd(i), actual.getTokenEnd(i));
+			assertEquals(expected.getTokenAnnotation(i, 0), actual.getTokenAnnotation(i, 0));
+			assertEquals(expected.getTokenAnnotation(i, 1), actual.getTokenAnnotation(i, 1));
+		}
+		assertEquals(expected.getSpanCount(), actual.getSpanCount());
+		for (int i = 0; i < expected.getSpanCount(); i++) {
+			assertArrayEquals(expected.getSpan(i), actual.getSpan(i));
+			assertArrayEquals(expected.getSpanOffsets(i), actual.getSpanOffsets(i));
+		}
+	}
+
+	@Test
+	public void test_staleSource() throws IOException {
+		new CubhuniSidecar(plan).store(source, stage());
+		write(source, "{\"text\": \"الحمد لله\"}");
+		assertNull(new CubhuniSidecar(plan).load(source));
+	}
+
+	@Test
+	public void test_staleConfiguration() throws IOException {
+		new CubhuniSidecar(plan).store(source, stage());
+		props.setProperty("tok_norm", "normalized");
+		assertNull(new CubhuniSidecar(CubhuniMappingPlan.compile(props)).load(source));
+	}
+
+	@Test
+	public void test_truncated() throws IOException {
+		new CubhuniSidecar(plan).store(source, stage());
+		RandomAccessFile file = new RandomAccessFile(CubhuniSidecar.sidecarOf(source), "rw");
+		try {
+			file.setLength(file.length() - 5);
+		} finally {
+			file.close();
+		}
+		assertNull(new CubhuniSidecar(plan).load(source));
+	}
+}
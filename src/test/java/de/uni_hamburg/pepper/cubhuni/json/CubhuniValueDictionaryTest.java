@@ -0,0 +1,37 @@
+package de.uni_hamburg.pepper.cubhuni.json;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+/**
+ * Tests that the {@link CubhuniValueDictionary} shares equal values and stops
+ * growing at its capacity.
+ *
+ * @author Alicia Gonzalez
+ */
+public class CubhuniValueDictionaryTest {
+
+	@Test
+	public void test_intern() {
+		CubhuniValueDictionary dictionary = new CubhuniValueDictionary(10);
+		String noun = dictionary.intern(new String("NOUN"));
+		assertSame(noun, dictionary.intern(new String("NOUN")));
+		assertNull(dictionary.intern(null));
+		assertEquals(1, dictionary.size());
+	}
+
+	@Test
+	public void test_capacity() {
+		CubhuniValueDictionary dictionary = new CubhuniValueDictionary(2);
+		String noun = dictionary.intern(new String("NOUN"));
+		dictionary.intern(new String("VERB"));
+		String adj = new String("ADJ");
+		assertSame(adj, dictionary.intern(adj));
+		assertSame(noun, dictionary.intern(new String("NOUN")));
+		assertEquals(2, dictionary.size());
+		assertEquals(1, dictionary.getRejected());
+	}
+}
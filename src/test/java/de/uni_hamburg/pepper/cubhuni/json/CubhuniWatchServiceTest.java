@@ -0,0 +1,151 @@
+package de.uni_hamburg.pepper.cubhuni.json;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Properties;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests that the {@link CubhuniWatchService} converts the corpus when it
+ * starts and again once a document changed, mapping only the changed
+ * documents again, ignores other files and switches the output to the
+ * directory of each run.
+ *
+ * @author Alicia Gonzalez
+ */
+public class CubhuniWatchServiceTest {
+
+	private static final long TIMEOUT_MILLIS = 10000;
+
+	private CubhuniMappingPlan plan;
+	private File input;
+	private File output;
+	private CubhuniWatchService service;
+	private Thread thread;
+
+	@Before
+	public void setUp() throws IOException {
+		Properties props = new Properties();
+		InputStream in = new FileInputStream("config.properties");
+		try {
+			props.load(in);
+		} finally {
+			in.close();
+		}
+		plan = CubhuniMappingPlan.compile(props);
+		File dir = Files.createTempDirectory("watch").toFile();
+		input = new File(dir, "corpus");
+		output = new File(dir, "annis");
+		assertTrue(new File(input, "sub").mkdirs());
+		write(new File(input, "sub/a.json"), "{}");
+		start();
+	}
+
+	private void start() throws IOException {
+		service = new CubhuniWatchService(plan, input, output, null, 100);
+		thread = new Thread() {
+			@Override
+			public void run() {
+				try {
+					service.run();
+				} catch (IOException | InterruptedException e) {
+					throw new RuntimeException(e);
+				}
+			}
+		};
+		thread.start();
+	}
+
+	@After
+	public void tearDown() throws IOException, InterruptedException {
+		service.close();
+		thread.join(TIMEOUT_MILLIS);
+	}
+
+	private static void write(File file, String content) throws IOException {
+		Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+	}
+
+	/* waits until the service has done the given number of runs and is idle */
+	private void awaitRuns(int runs) throws InterruptedException {
+		long end = System.currentTimeMillis() + TIMEOUT_MILLIS;
+		while (!(service.getRuns() >= runs && "idle".equals(service.getState()))
+				&& System.currentTimeMillis() < end) {
+			Thread.sleep(20);
+		}
+		assertEquals(runs, service.getRuns());
+	}
+
+	@Test
+	public void test_outputDirectory() throws IOException, InterruptedException {
+		awaitRuns(1);
+		service.close();
+		thread.join(TIMEOUT_MILLIS);
+
+		/* an output directory of a service which did not link it yet is moved aside */
+		Files.delete(output.toPath());
+		assertTrue(new File(output, "nested").mkdirs());
+		write(new File(output, "node.annis"), "old");
+		write(new File(output, "nested/node.annis"), "old");
+		start();
+		awaitRuns(1);
+		assertTrue(Files.isSymbolicLink(output.toPath()));
+		assertTrue(new File(output.getParentFile(), output.getName() + ".old/nested/node.annis").isFile());
+		service.close();
+		thread.join(TIMEOUT_MILLIS);
+
+		/* the directory moved aside before is deleted with everything below it */
+		Files.delete(output.toPath());
+		assertTrue(output.mkdir());
+		write(new File(output, "node.annis"), "newer");
+		start();
+		awaitRuns(1);
+		assertFalse(new File(output.getParentFile(), output.getName() + ".old/nested").exists());
+		assertTrue(new File(output.getParentFile(), output.getName() + ".old/node.annis").isFile());
+	}
+
+	@Test
+	public void test_run() throws IOException, InterruptedException {
+		awaitRuns(1);
+		assertTrue(new File(output, "annis.version").isFile());
+		assertTrue(new File(output, "node.annis").isFile());
+		assertTrue(Files.isSymbolicLink(output.toPath()));
+		Path first = Files.readSymbolicLink(output.toPath());
+
+		/* files which are neither documents nor metadata do not start a run */
+		write(new File(input, "sub/notes.txt"), "notes");
+		Thread.sleep(500);
+		assertEquals(1, service.getRuns());
+
+		write(new File(input, "sub/b.json"), "{}");
+		awaitRuns(2);
+
+		/* only the new document is mapped, the rows of the other one are kept */
+		assertEquals(1, service.getLastConverted());
+		assertEquals(1, service.getLastReused());
+
+		/* the output is switched to the new run and the directory of the first run is gone */
+		Path second = Files.readSymbolicLink(output.toPath());
+		assertFalse(first.equals(second));
+		assertFalse(Files.exists(output.toPath().resolveSibling(first)));
+		assertTrue(new File(output, "node.annis").isFile());
+
+		/* documents in a new directory are seen as well */
+		File other = new File(input, "other");
+		assertTrue(other.mkdir());
+		write(new File(other, "c.json"), "{}");
+		awaitRuns(3);
+	}
+}